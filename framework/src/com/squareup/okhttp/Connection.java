@@ -78,7 +78,7 @@ public final class Connection implements Closeable {
 
   private final Route route;
 
-  private Socket socket;
+  private volatile Socket socket;
   private InputStream in;
   private OutputStream out;
   private boolean connected = false;
@@ -169,7 +169,10 @@ public final class Connection implements Closeable {
   }
 
   @Override public void close() throws IOException {
-    socket.close();
+    Socket socket = this.socket;
+    if (socket != null) {
+      socket.close();
+    }
   }
 
   /** Returns the route used by this connection. */
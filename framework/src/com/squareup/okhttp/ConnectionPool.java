@@ -16,18 +16,25 @@
  */
 package com.squareup.okhttp;
 
+import com.squareup.okhttp.internal.NamedRunnable;
 import com.squareup.okhttp.internal.Platform;
 import com.squareup.okhttp.internal.Util;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.concurrent.Callable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Manages reuse of HTTP and SPDY connections for reduced network latency. HTTP
@@ -51,9 +58,16 @@ import java.util.concurrent.TimeUnit;
  * properties are changed. This assumes that the applications that set these
  * parameters do so before making HTTP connections, and that this class is
  * initialized lazily.
+ *
+ * <p>Connections are kept in a list per address, each with its own lock, so
+ * requests to different hosts don't contend. Expired and surplus idle
+ * connections are closed by a single cleanup task that sleeps until the next
+ * connection expires, and is woken when connections are added; it stops when
+ * the pool is empty. The list of an address is dropped when its last
+ * connection is; the counters of {@link #getStats} are kept per host and
+ * outlive it.
  */
 public class ConnectionPool {
-  private static final int MAX_CONNECTIONS_TO_CLEANUP = 2;
   private static final long DEFAULT_KEEP_ALIVE_DURATION_MS = 5 * 60 * 1000; // 5 min
 
   private static final ConnectionPool systemDefault;
@@ -73,49 +87,103 @@ public class ConnectionPool {
     }
   }
 
-  /** The maximum number of idle connections for each address. */
+  /** The maximum number of idle connections to keep in the pool. */
   private final int maxIdleConnections;
   private final long keepAliveDurationNs;
 
-  private final LinkedList<Connection> connections = new LinkedList<Connection>();
+  /** The pooled connections of each address. */
+  private final ConcurrentHashMap<Address, AddressPool> pools =
+      new ConcurrentHashMap<Address, AddressPool>();
+  /** The counters of each host and port, never removed. */
+  private final ConcurrentHashMap<String, HostCounters> counters =
+      new ConcurrentHashMap<String, HostCounters>();
+  private final AtomicInteger connectionCount = new AtomicInteger();
 
   /** We use a single background thread to cleanup expired connections. */
   private final ExecutorService executorService =
       new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
-  private final Callable<Void> connectionsCleanupCallable = new Callable<Void>() {
-    @Override public Void call() throws Exception {
-      List<Connection> expiredConnections = new ArrayList<Connection>(MAX_CONNECTIONS_TO_CLEANUP);
-      int idleConnectionCount = 0;
-      synchronized (ConnectionPool.this) {
-        for (ListIterator<Connection> i = connections.listIterator(connections.size());
-            i.hasPrevious(); ) {
-          Connection connection = i.previous();
-          if (!connection.isAlive() || connection.isExpired(keepAliveDurationNs)) {
-            i.remove();
-            expiredConnections.add(connection);
-            if (expiredConnections.size() == MAX_CONNECTIONS_TO_CLEANUP) break;
-          } else if (connection.isIdle()) {
-            idleConnectionCount++;
+  private final Object cleanupLock = new Object();
+  private boolean cleanupRunning; // Guarded by cleanupLock.
+  private boolean cleanupPending; // Guarded by cleanupLock.
+  private final Runnable cleanupRunnable = new NamedRunnable("OkHttp ConnectionPool") {
+    @Override protected void execute() {
+      while (true) {
+        long waitNanos = cleanup(System.nanoTime());
+        if (waitNanos < 0) return;
+        synchronized (cleanupLock) {
+          if (cleanupPending) {
+            cleanupPending = false;
+            continue;
           }
-        }
-
-        for (ListIterator<Connection> i = connections.listIterator(connections.size());
-            i.hasPrevious() && idleConnectionCount > maxIdleConnections; ) {
-          Connection connection = i.previous();
-          if (connection.isIdle()) {
-            expiredConnections.add(connection);
-            i.remove();
-            --idleConnectionCount;
+          try {
+            TimeUnit.NANOSECONDS.timedWait(cleanupLock, waitNanos);
+          } catch (InterruptedException e) {
+            cleanupRunning = false;
+            return;
           }
         }
       }
-      for (Connection expiredConnection : expiredConnections) {
-        Util.closeQuietly(expiredConnection);
-      }
-      return null;
     }
   };
 
+  /** The connections to one address, newest first. */
+  private static final class AddressPool {
+    final LinkedList<Connection> connections = new LinkedList<Connection>(); // Guarded by this.
+    /** True once this was removed from {@code pools}; nothing may be added after. */
+    boolean removed; // Guarded by this.
+    final HostCounters counters;
+
+    AddressPool(HostCounters counters) {
+      this.counters = counters;
+    }
+  }
+
+  /** The counters of the addresses of one host. */
+  private static final class HostCounters {
+    final AtomicInteger hitCount = new AtomicInteger();
+    final AtomicInteger missCount = new AtomicInteger();
+    final AtomicInteger evictionCount = new AtomicInteger();
+  }
+
+  /** A snapshot of the counters of the addresses of one host. */
+  public static final class Stats {
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+    private int idleCount;
+    private int activeCount;
+
+    /** Returns the number of requests served by a pooled connection. */
+    public int getHitCount() {
+      return hitCount;
+    }
+
+    /** Returns the number of requests that found no pooled connection. */
+    public int getMissCount() {
+      return missCount;
+    }
+
+    /** Returns the number of connections closed because they expired or were surplus. */
+    public int getEvictionCount() {
+      return evictionCount;
+    }
+
+    /** Returns the number of idle connections in the pool. */
+    public int getIdleCount() {
+      return idleCount;
+    }
+
+    /** Returns the number of pooled connections carrying streams, which only SPDY ones do. */
+    public int getActiveCount() {
+      return activeCount;
+    }
+
+    @Override public String toString() {
+      return "hits=" + hitCount + " misses=" + missCount + " evictions=" + evictionCount
+          + " idle=" + idleCount + " active=" + activeCount;
+    }
+  }
+
   public ConnectionPool(int maxIdleConnections, long keepAliveDurationMs) {
     this.maxIdleConnections = maxIdleConnections;
     this.keepAliveDurationNs = keepAliveDurationMs * 1000 * 1000;
@@ -123,28 +191,16 @@ public class ConnectionPool {
 
   /**
    * Returns a snapshot of the connections in this pool, ordered from newest to
-   * oldest. Waits for the cleanup callable to run if it is currently scheduled.
+   * oldest within each address.
    */
   List<Connection> getConnections() {
-    waitForCleanupCallableToRun();
-    synchronized (this) {
-      return new ArrayList<Connection>(connections);
-    }
-  }
-
-  /**
-   * Blocks until the executor service has processed all currently enqueued
-   * jobs.
-   */
-  private void waitForCleanupCallableToRun() {
-    try {
-      executorService.submit(new Runnable() {
-        @Override public void run() {
-        }
-      }).get();
-    } catch (Exception e) {
-      throw new AssertionError();
+    List<Connection> result = new ArrayList<Connection>();
+    for (AddressPool pool : pools.values()) {
+      synchronized (pool) {
+        result.addAll(pool.connections);
+      }
     }
+    return result;
   }
 
   public static ConnectionPool getDefault() {
@@ -152,60 +208,103 @@ public class ConnectionPool {
   }
 
   /** Returns total number of connections in the pool. */
-  public synchronized int getConnectionCount() {
-    return connections.size();
+  public int getConnectionCount() {
+    return connectionCount.get();
   }
 
   /** Returns total number of spdy connections in the pool. */
-  public synchronized int getSpdyConnectionCount() {
+  public int getSpdyConnectionCount() {
     int total = 0;
-    for (Connection connection : connections) {
+    for (Connection connection : getConnections()) {
       if (connection.isSpdy()) total++;
     }
     return total;
   }
 
   /** Returns total number of http connections in the pool. */
-  public synchronized int getHttpConnectionCount() {
+  public int getHttpConnectionCount() {
     int total = 0;
-    for (Connection connection : connections) {
+    for (Connection connection : getConnections()) {
       if (!connection.isSpdy()) total++;
     }
     return total;
   }
 
+  /** Returns the counters of each host, keyed by host and port. */
+  public Map<String, Stats> getStats() {
+    Map<String, Stats> result = new LinkedHashMap<String, Stats>();
+    for (Map.Entry<String, HostCounters> entry : counters.entrySet()) {
+      HostCounters hostCounters = entry.getValue();
+      Stats stats = new Stats();
+      stats.hitCount = hostCounters.hitCount.get();
+      stats.missCount = hostCounters.missCount.get();
+      stats.evictionCount = hostCounters.evictionCount.get();
+      result.put(entry.getKey(), stats);
+    }
+    for (Map.Entry<Address, AddressPool> entry : pools.entrySet()) {
+      Stats stats = result.get(hostKey(entry.getKey()));
+      if (stats == null) continue; // Counters created after the snapshot above.
+      AddressPool pool = entry.getValue();
+      synchronized (pool) {
+        for (Connection connection : pool.connections) {
+          if (connection.isIdle()) {
+            stats.idleCount++;
+          } else {
+            stats.activeCount++;
+          }
+        }
+      }
+    }
+    return result;
+  }
+
   /** Returns a recycled connection to {@code address}, or null if no such connection exists. */
-  public synchronized Connection get(Address address) {
-    Connection foundConnection = null;
-    for (ListIterator<Connection> i = connections.listIterator(connections.size());
-        i.hasPrevious(); ) {
-      Connection connection = i.previous();
-      if (!connection.getRoute().getAddress().equals(address)
-          || !connection.isAlive()
-          || System.nanoTime() - connection.getIdleStartTimeNs() >= keepAliveDurationNs) {
-        continue;
+  public Connection get(Address address) {
+    // Look up without adding, so that misses don't leave empty lists behind.
+    AddressPool pool = pools.get(address);
+    if (pool == null) {
+      getCounters(address).missCount.incrementAndGet();
+      return null;
+    }
+    while (true) {
+      Connection foundConnection = null;
+      synchronized (pool) {
+        for (ListIterator<Connection> i = pool.connections.listIterator(pool.connections.size());
+            i.hasPrevious(); ) {
+          Connection connection = i.previous();
+          if (!connection.isAlive()
+              || System.nanoTime() - connection.getIdleStartTimeNs() >= keepAliveDurationNs) {
+            continue;
+          }
+          if (connection.isSpdy()) {
+            i.remove();
+            pool.connections.addFirst(connection); // Shared, so it stays in the pool.
+          } else {
+            i.remove();
+            connectionCount.decrementAndGet();
+          }
+          foundConnection = connection;
+          break;
+        }
+      }
+
+      if (foundConnection == null) {
+        pool.counters.missCount.incrementAndGet();
+        return null;
       }
-      i.remove();
-      if (!connection.isSpdy()) {
+      if (!foundConnection.isSpdy()) {
         try {
-          Platform.get().tagSocket(connection.getSocket());
+          Platform.get().tagSocket(foundConnection.getSocket());
         } catch (SocketException e) {
-          Util.closeQuietly(connection);
+          Util.closeQuietly(foundConnection);
           // When unable to tag, skip recycling and close
           Platform.get().logW("Unable to tagSocket(): " + e);
           continue;
         }
       }
-      foundConnection = connection;
-      break;
-    }
-
-    if (foundConnection != null && foundConnection.isSpdy()) {
-      connections.addFirst(foundConnection); // Add it back after iteration.
+      pool.counters.hitCount.incrementAndGet();
+      return foundConnection;
     }
-
-    executorService.submit(connectionsCleanupCallable);
-    return foundConnection;
   }
 
   /**
@@ -215,8 +314,6 @@ public class ConnectionPool {
    * <p>It is an error to use {@code connection} after calling this method.
    */
   public void recycle(Connection connection) {
-    executorService.submit(connectionsCleanupCallable);
-
     if (connection.isSpdy()) {
       return;
     }
@@ -235,10 +332,8 @@ public class ConnectionPool {
       return;
     }
 
-    synchronized (this) {
-      connections.addFirst(connection);
-      connection.resetIdleStartTime();
-    }
+    connection.resetIdleStartTime();
+    addConnection(connection);
   }
 
   /**
@@ -246,28 +341,168 @@ public class ConnectionPool {
    * continue to use {@code connection}.
    */
   public void maybeShare(Connection connection) {
-    executorService.submit(connectionsCleanupCallable);
     if (!connection.isSpdy()) {
       // Only SPDY connections are sharable.
       return;
     }
     if (connection.isAlive()) {
-      synchronized (this) {
-        connections.addFirst(connection);
-      }
+      addConnection(connection);
     }
   }
 
   /** Close and remove all connections in the pool. */
   public void evictAll() {
-    List<Connection> connections;
-    synchronized (this) {
-      connections = new ArrayList<Connection>(this.connections);
-      this.connections.clear();
+    List<Connection> connections = new ArrayList<Connection>();
+    for (Map.Entry<Address, AddressPool> entry : pools.entrySet()) {
+      AddressPool pool = entry.getValue();
+      synchronized (pool) {
+        connections.addAll(pool.connections);
+        connectionCount.addAndGet(-pool.connections.size());
+        pool.connections.clear();
+        removeIfEmpty(entry.getKey(), pool);
+      }
     }
 
     for (Connection connection : connections) {
       Util.closeQuietly(connection);
     }
   }
+
+  private AddressPool getAddressPool(Address address) {
+    AddressPool pool = pools.get(address);
+    if (pool == null) {
+      AddressPool newPool = new AddressPool(getCounters(address));
+      pool = pools.putIfAbsent(address, newPool);
+      if (pool == null) pool = newPool;
+    }
+    return pool;
+  }
+
+  private HostCounters getCounters(Address address) {
+    String host = hostKey(address);
+    HostCounters result = counters.get(host);
+    if (result == null) {
+      HostCounters newCounters = new HostCounters();
+      result = counters.putIfAbsent(host, newCounters);
+      if (result == null) result = newCounters;
+    }
+    return result;
+  }
+
+  private static String hostKey(Address address) {
+    return address.getUriHost() + ":" + address.getUriPort();
+  }
+
+  /** Adds {@code connection} to the list of its address, replacing the list if it was removed. */
+  private void addConnection(Connection connection) {
+    Address address = connection.getRoute().getAddress();
+    while (true) {
+      AddressPool pool = getAddressPool(address);
+      synchronized (pool) {
+        if (pool.removed) continue;
+        pool.connections.addFirst(connection);
+      }
+      break;
+    }
+    connectionCount.incrementAndGet();
+    scheduleCleanup();
+  }
+
+  /** Drops {@code pool} from {@code pools} if it has no connections left. Hold its lock. */
+  private void removeIfEmpty(Address address, AddressPool pool) {
+    if (pool.connections.isEmpty()) {
+      pool.removed = true;
+      pools.remove(address, pool);
+    }
+  }
+
+  /**
+   * Starts the cleanup task if it isn't running, or wakes it so that it
+   * accounts for new connections.
+   */
+  private void scheduleCleanup() {
+    synchronized (cleanupLock) {
+      if (cleanupRunning) {
+        cleanupPending = true;
+        cleanupLock.notifyAll();
+        return;
+      }
+      cleanupRunning = true;
+    }
+    executorService.execute(cleanupRunnable);
+  }
+
+  /**
+   * Closes the connections that are dead or expired, then the oldest idle
+   * ones above the limit.
+   *
+   * @return the nanoseconds to wait before the next cleanup, or -1 if the
+   *     pool is empty and the cleanup task should stop.
+   */
+  long cleanup(long now) {
+    synchronized (cleanupLock) {
+      cleanupPending = false;
+    }
+    List<Connection> evictedConnections = new ArrayList<Connection>();
+    final Map<Connection, Map.Entry<Address, AddressPool>> idleConnections =
+        new LinkedHashMap<Connection, Map.Entry<Address, AddressPool>>();
+    long waitNanos = keepAliveDurationNs;
+
+    for (Map.Entry<Address, AddressPool> entry : pools.entrySet()) {
+      AddressPool pool = entry.getValue();
+      synchronized (pool) {
+        for (Iterator<Connection> i = pool.connections.iterator(); i.hasNext(); ) {
+          Connection connection = i.next();
+          if (!connection.isAlive() || connection.isExpired(keepAliveDurationNs)) {
+            i.remove();
+            connectionCount.decrementAndGet();
+            pool.counters.evictionCount.incrementAndGet();
+            evictedConnections.add(connection);
+          } else if (connection.isIdle()) {
+            idleConnections.put(connection, entry);
+            long idleNanos = now - connection.getIdleStartTimeNs();
+            waitNanos = Math.min(waitNanos, keepAliveDurationNs - idleNanos + 1);
+          }
+        }
+        removeIfEmpty(entry.getKey(), pool);
+      }
+    }
+
+    // Close the connections idle the longest above the limit.
+    int surplus = idleConnections.size() - maxIdleConnections;
+    if (surplus > 0) {
+      List<Connection> oldestFirst = new ArrayList<Connection>(idleConnections.keySet());
+      Collections.sort(oldestFirst, new Comparator<Connection>() {
+        @Override public int compare(Connection a, Connection b) {
+          long difference = a.getIdleStartTimeNs() - b.getIdleStartTimeNs();
+          return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+        }
+      });
+      for (int i = 0; i < oldestFirst.size() && surplus > 0; i++) {
+        Connection connection = oldestFirst.get(i);
+        Map.Entry<Address, AddressPool> entry = idleConnections.get(connection);
+        AddressPool pool = entry.getValue();
+        synchronized (pool) {
+          if (!connection.isIdle() || !pool.connections.remove(connection)) continue;
+          removeIfEmpty(entry.getKey(), pool);
+        }
+        connectionCount.decrementAndGet();
+        pool.counters.evictionCount.incrementAndGet();
+        evictedConnections.add(connection);
+        surplus--;
+      }
+    }
+
+    for (Connection expiredConnection : evictedConnections) {
+      Util.closeQuietly(expiredConnection);
+    }
+
+    synchronized (cleanupLock) {
+      if (connectionCount.get() == 0) {
+        cleanupRunning = false;
+        return -1;
+      }
+    }
+    return Math.max(waitNanos, 0);
+  }
 }
@@ -18,6 +18,7 @@ package com.squareup.okhttp;
 
 import com.squareup.okhttp.internal.Base64;
 import com.squareup.okhttp.internal.DiskLruCache;
+import com.squareup.okhttp.internal.ShardedDiskLruCache;
 import com.squareup.okhttp.internal.StrictLineReader;
 import com.squareup.okhttp.internal.Util;
 import com.squareup.okhttp.internal.http.HttpEngine;
@@ -35,7 +36,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.CacheRequest;
 import java.net.CacheResponse;
@@ -44,8 +44,6 @@ import java.net.ResponseCache;
 import java.net.SecureCacheResponse;
 import java.net.URI;
 import java.net.URLConnection;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
@@ -53,6 +51,8 @@ import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import javax.net.ssl.HttpsURLConnection;
@@ -81,6 +81,13 @@ import static com.squareup.okhttp.internal.Util.UTF_8;
  * changed, or a short 'not modified' response if the client's copy is still
  * valid. Such responses increment both the network count and hit count.
  *
+ * <h3>Memory Cache</h3>
+ * Caches created with a memory size keep recently read responses with small
+ * bodies in memory, already parsed, in front of the filesystem. The share of
+ * lookups answered by each tier is {@link #getMemoryHitCount()} and {@link
+ * #getDiskHitCount()} over {@link #getLookupCount()}; the disk's hit ratio
+ * among the lookups that reached it excludes the memory hits from the total.
+ *
  * <p>The best way to improve the cache hit rate is by configuring the web
  * server to return cacheable responses. Although this client honors all <a
  * href="http://www.ietf.org/rfc/rfc2616.txt">HTTP/1.1 (RFC 2068)</a> cache
@@ -123,12 +130,18 @@ public final class HttpResponseCache extends ResponseCache {
       { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
 
   // TODO: add APIs to iterate the cache?
-  private static final int VERSION = 201105;
+  private static final int VERSION = 201310;
   private static final int ENTRY_METADATA = 0;
   private static final int ENTRY_BODY = 1;
   private static final int ENTRY_COUNT = 2;
 
-  private final DiskLruCache cache;
+  /** The largest body kept in memory. Larger ones are always streamed from the filesystem. */
+  private static final int MAX_MEMORY_BODY_SIZE = 64 * 1024;
+
+  private final ShardedDiskLruCache cache;
+
+  /** Null if responses are only cached on the filesystem. */
+  private final MemoryCache memoryCache;
 
   /* read and write statistics, all guarded by 'this' */
   private int writeSuccessCount;
@@ -136,6 +149,9 @@ public final class HttpResponseCache extends ResponseCache {
   private int networkCount;
   private int hitCount;
   private int requestCount;
+  private int lookupCount;
+  private int memoryHitCount;
+  private int diskHitCount;
 
   /**
    * Although this class only exposes the limited ResponseCache API, it
@@ -168,55 +184,96 @@ public final class HttpResponseCache extends ResponseCache {
   };
 
   public HttpResponseCache(File directory, long maxSize) throws IOException {
-    cache = DiskLruCache.open(directory, VERSION, ENTRY_COUNT, maxSize);
+    this(directory, maxSize, 0);
   }
 
-  private String uriToKey(URI uri) {
-    try {
-      MessageDigest messageDigest = MessageDigest.getInstance("MD5");
-      byte[] md5bytes = messageDigest.digest(uri.toString().getBytes("UTF-8"));
-      return bytesToHexString(md5bytes);
-    } catch (NoSuchAlgorithmException e) {
-      throw new AssertionError(e);
-    } catch (UnsupportedEncodingException e) {
-      throw new AssertionError(e);
-    }
+  /**
+   * @param memoryMaxSize the number of bytes of small responses to also keep
+   *     in memory, or 0 to only cache on the filesystem.
+   */
+  public HttpResponseCache(File directory, long maxSize, long memoryMaxSize) throws IOException {
+    cache = ShardedDiskLruCache.open(directory, VERSION, ENTRY_COUNT, maxSize);
+    memoryCache = memoryMaxSize > 0 ? new MemoryCache(memoryMaxSize) : null;
   }
 
-  private static String bytesToHexString(byte[] bytes) {
-    char[] digits = DIGITS;
-    char[] buf = new char[bytes.length * 2];
-    int c = 0;
-    for (byte b : bytes) {
-      buf[c++] = digits[(b >> 4) & 0xf];
-      buf[c++] = digits[b & 0xf];
+  /**
+   * Returns a 64-bit FNV-1a hash of the URI's characters in hex. A collision
+   * only costs a cache miss, since each entry is checked against its full URI.
+   */
+  private static String uriToKey(String uri) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0, length = uri.length(); i < length; i++) {
+      hash ^= uri.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    char[] buf = new char[16];
+    for (int i = buf.length - 1; i >= 0; i--) {
+      buf[i] = DIGITS[(int) hash & 0xf];
+      hash >>>= 4;
     }
     return new String(buf);
   }
 
   @Override public CacheResponse get(URI uri, String requestMethod,
       Map<String, List<String>> requestHeaders) {
-    String key = uriToKey(uri);
+    String uriString = uri.toString();
+    if (memoryCache != null) {
+      MemoryEntry memoryEntry = memoryCache.get(uriString);
+      if (memoryEntry != null && memoryEntry.entry.matches(uri, requestMethod, requestHeaders)) {
+        trackLookup(true, false);
+        return newCacheResponse(memoryEntry.entry, memoryEntry.snapshot,
+            new ByteArrayInputStream(memoryEntry.body));
+      }
+    }
+
+    String key = uriToKey(uriString);
+    long memoryGeneration = memoryCache != null ? memoryCache.generation() : 0;
     DiskLruCache.Snapshot snapshot;
     Entry entry;
     try {
       snapshot = cache.get(key);
       if (snapshot == null) {
+        trackLookup(false, false);
         return null;
       }
       entry = new Entry(snapshot.getInputStream(ENTRY_METADATA));
     } catch (IOException e) {
       // Give up because the cache cannot be read.
+      trackLookup(false, false);
       return null;
     }
 
     if (!entry.matches(uri, requestMethod, requestHeaders)) {
       snapshot.close();
+      trackLookup(false, false);
       return null;
     }
+    trackLookup(false, true);
+
+    long bodyLength = snapshot.getLength(ENTRY_BODY);
+    if (memoryCache != null && bodyLength <= memoryCache.maxBodySize) {
+      // Read the body now and keep it. The closed snapshot still identifies the
+      // version of the entry to update().
+      byte[] body = new byte[(int) bodyLength];
+      try {
+        Util.readFully(snapshot.getInputStream(ENTRY_BODY), body);
+      } catch (IOException e) {
+        return null;
+      } finally {
+        snapshot.close();
+      }
+      memoryCache.put(uriString, new MemoryEntry(entry, body, snapshot,
+          snapshot.getLength(ENTRY_METADATA) + bodyLength), memoryGeneration);
+      return newCacheResponse(entry, snapshot, new ByteArrayInputStream(body));
+    }
+
+    return newCacheResponse(entry, snapshot, newBodyInputStream(snapshot));
+  }
 
-    return entry.isHttps() ? new EntrySecureCacheResponse(entry, snapshot)
-        : new EntryCacheResponse(entry, snapshot);
+  private static CacheResponse newCacheResponse(Entry entry, DiskLruCache.Snapshot snapshot,
+      InputStream body) {
+    return entry.isHttps() ? new EntrySecureCacheResponse(entry, snapshot, body)
+        : new EntryCacheResponse(entry, snapshot, body);
   }
 
   @Override public CacheRequest put(URI uri, URLConnection urlConnection) throws IOException {
@@ -226,10 +283,12 @@ public final class HttpResponseCache extends ResponseCache {
 
     HttpURLConnection httpConnection = (HttpURLConnection) urlConnection;
     String requestMethod = httpConnection.getRequestMethod();
-    String key = uriToKey(uri);
+    String uriString = uri.toString();
+    String key = uriToKey(uriString);
 
     if (requestMethod.equals("POST") || requestMethod.equals("PUT") || requestMethod.equals(
         "DELETE")) {
+      removeFromMemory(uriString);
       try {
         cache.remove(key);
       } catch (IOException ignored) {
@@ -257,6 +316,7 @@ public final class HttpResponseCache extends ResponseCache {
     RawHeaders varyHeaders =
         httpEngine.getRequestHeaders().getHeaders().getAll(response.getVaryFields());
     Entry entry = new Entry(uri, varyHeaders, httpConnection);
+    removeFromMemory(uriString);
     DiskLruCache.Editor editor = null;
     try {
       editor = cache.edit(key);
@@ -264,7 +324,7 @@ public final class HttpResponseCache extends ResponseCache {
         return null;
       }
       entry.writeTo(editor);
-      return new CacheRequestImpl(editor);
+      return new CacheRequestImpl(editor, uriString);
     } catch (IOException e) {
       abortQuietly(editor);
       return null;
@@ -292,6 +352,14 @@ public final class HttpResponseCache extends ResponseCache {
     } catch (IOException e) {
       abortQuietly(editor);
     }
+    // The next read promotes the updated entry again.
+    removeFromMemory(uri.toString());
+  }
+
+  private void removeFromMemory(String uri) {
+    if (memoryCache != null) {
+      memoryCache.remove(uri);
+    }
   }
 
   private void abortQuietly(DiskLruCache.Editor editor) {
@@ -320,6 +388,9 @@ public final class HttpResponseCache extends ResponseCache {
    * the cache.
    */
   public void delete() throws IOException {
+    if (memoryCache != null) {
+      memoryCache.evictAll();
+    }
     cache.delete();
   }
 
@@ -345,6 +416,15 @@ public final class HttpResponseCache extends ResponseCache {
     }
   }
 
+  private synchronized void trackLookup(boolean memoryHit, boolean diskHit) {
+    lookupCount++;
+    if (memoryHit) {
+      memoryHitCount++;
+    } else if (diskHit) {
+      diskHitCount++;
+    }
+  }
+
   private synchronized void trackConditionalCacheHit() {
     hitCount++;
   }
@@ -361,14 +441,110 @@ public final class HttpResponseCache extends ResponseCache {
     return requestCount;
   }
 
+  /** Returns the number of times this cache was looked up for a response. */
+  public synchronized int getLookupCount() {
+    return lookupCount;
+  }
+
+  /** Returns the number of lookups answered from memory. */
+  public synchronized int getMemoryHitCount() {
+    return memoryHitCount;
+  }
+
+  /** Returns the number of lookups answered from the filesystem. */
+  public synchronized int getDiskHitCount() {
+    return diskHitCount;
+  }
+
+  /** Returns the number of bytes of responses held in memory. */
+  public long getMemorySize() {
+    return memoryCache != null ? memoryCache.size() : 0;
+  }
+
+  /** A response read recently enough to be kept in memory. */
+  private static final class MemoryEntry {
+    private final Entry entry;
+    private final byte[] body;
+    /** Closed. Identifies the version of the entry on the filesystem. */
+    private final DiskLruCache.Snapshot snapshot;
+    private final long size;
+
+    MemoryEntry(Entry entry, byte[] body, DiskLruCache.Snapshot snapshot, long size) {
+      this.entry = entry;
+      this.body = body;
+      this.snapshot = snapshot;
+      this.size = size;
+    }
+  }
+
+  /** Responses with small bodies, evicted least recently used first. */
+  private static final class MemoryCache {
+    private final long maxSize;
+    private final long maxBodySize;
+    private final LinkedHashMap<String, MemoryEntry> entries =
+        new LinkedHashMap<String, MemoryEntry>(0, 0.75f, true);
+    private long size;
+    /** Incremented by each removal, so a read can't promote what was removed since it began. */
+    private long generation;
+
+    MemoryCache(long maxSize) {
+      this.maxSize = maxSize;
+      this.maxBodySize = Math.min(MAX_MEMORY_BODY_SIZE, maxSize / 4);
+    }
+
+    synchronized MemoryEntry get(String uri) {
+      return entries.get(uri);
+    }
+
+    synchronized long generation() {
+      return generation;
+    }
+
+    /** Keeps {@code entry} unless something was removed since {@code readGeneration}. */
+    synchronized void put(String uri, MemoryEntry entry, long readGeneration) {
+      if (readGeneration != generation) {
+        return;
+      }
+      MemoryEntry replaced = entries.put(uri, entry);
+      if (replaced != null) {
+        size -= replaced.size;
+      }
+      size += entry.size;
+      for (Iterator<MemoryEntry> i = entries.values().iterator(); size > maxSize; ) {
+        size -= i.next().size;
+        i.remove();
+      }
+    }
+
+    synchronized void remove(String uri) {
+      generation++;
+      MemoryEntry removed = entries.remove(uri);
+      if (removed != null) {
+        size -= removed.size;
+      }
+    }
+
+    synchronized void evictAll() {
+      generation++;
+      entries.clear();
+      size = 0;
+    }
+
+    synchronized long size() {
+      return size;
+    }
+  }
+
   private final class CacheRequestImpl extends CacheRequest {
     private final DiskLruCache.Editor editor;
+    private final String uri;
     private OutputStream cacheOut;
     private boolean done;
     private OutputStream body;
 
-    public CacheRequestImpl(final DiskLruCache.Editor editor) throws IOException {
+    public CacheRequestImpl(final DiskLruCache.Editor editor, String uri) throws IOException {
       this.editor = editor;
+      this.uri = uri;
       this.cacheOut = editor.newOutputStream(ENTRY_BODY);
       this.body = new FilterOutputStream(cacheOut) {
         @Override public void close() throws IOException {
@@ -381,6 +557,8 @@ public final class HttpResponseCache extends ResponseCache {
           }
           super.close();
           editor.commit();
+          // Drop anything promoted from the previous version while this one was written.
+          removeFromMemory(CacheRequestImpl.this.uri);
         }
 
         @Override
@@ -623,10 +801,10 @@ public final class HttpResponseCache extends ResponseCache {
     private final DiskLruCache.Snapshot snapshot;
     private final InputStream in;
 
-    public EntryCacheResponse(Entry entry, DiskLruCache.Snapshot snapshot) {
+    public EntryCacheResponse(Entry entry, DiskLruCache.Snapshot snapshot, InputStream in) {
       this.entry = entry;
       this.snapshot = snapshot;
-      this.in = newBodyInputStream(snapshot);
+      this.in = in;
     }
 
     @Override public Map<String, List<String>> getHeaders() {
@@ -643,10 +821,10 @@ public final class HttpResponseCache extends ResponseCache {
     private final DiskLruCache.Snapshot snapshot;
     private final InputStream in;
 
-    public EntrySecureCacheResponse(Entry entry, DiskLruCache.Snapshot snapshot) {
+    public EntrySecureCacheResponse(Entry entry, DiskLruCache.Snapshot snapshot, InputStream in) {
       this.entry = entry;
       this.snapshot = snapshot;
-      this.in = newBodyInputStream(snapshot);
+      this.in = in;
     }
 
     @Override public Map<String, List<String>> getHeaders() {
@@ -15,6 +15,7 @@
  */
 package com.squareup.okhttp;
 
+import com.squareup.okhttp.internal.Dns;
 import com.squareup.okhttp.internal.http.HttpURLConnectionImpl;
 import com.squareup.okhttp.internal.http.HttpsURLConnectionImpl;
 import com.squareup.okhttp.internal.http.OkResponseCache;
@@ -42,8 +43,17 @@ public final class OkHttpClient {
   private SSLSocketFactory sslSocketFactory;
   private HostnameVerifier hostnameVerifier;
   private ConnectionPool connectionPool;
+  private Dns dns;
   private boolean followProtocolRedirects = true;
 
+  /**
+   * The copy that connections are opened with, made on first use after this
+   * client was last configured. Null until then.
+   */
+  private volatile OkHttpClient withDefaults;
+  /** The response cache of a copy with defaults, adapted once. */
+  private OkResponseCache okResponseCache;
+
   /**
    * Sets the HTTP proxy that will be used by connections created by this
    * client. This takes precedence over {@link #setProxySelector}, which is
@@ -52,6 +62,7 @@ public final class OkHttpClient {
    */
   public OkHttpClient setProxy(Proxy proxy) {
     this.proxy = proxy;
+    this.withDefaults = null;
     return this;
   }
 
@@ -70,6 +81,7 @@ public final class OkHttpClient {
    */
   public OkHttpClient setProxySelector(ProxySelector proxySelector) {
     this.proxySelector = proxySelector;
+    this.withDefaults = null;
     return this;
   }
 
@@ -86,6 +98,7 @@ public final class OkHttpClient {
    */
   public OkHttpClient setCookieHandler(CookieHandler cookieHandler) {
     this.cookieHandler = cookieHandler;
+    this.withDefaults = null;
     return this;
   }
 
@@ -101,6 +114,7 @@ public final class OkHttpClient {
    */
   public OkHttpClient setResponseCache(ResponseCache responseCache) {
     this.responseCache = responseCache;
+    this.withDefaults = null;
     return this;
   }
 
@@ -126,6 +140,7 @@ public final class OkHttpClient {
    */
   public OkHttpClient setSSLSocketFactory(SSLSocketFactory sslSocketFactory) {
     this.sslSocketFactory = sslSocketFactory;
+    this.withDefaults = null;
     return this;
   }
 
@@ -142,6 +157,7 @@ public final class OkHttpClient {
    */
   public OkHttpClient setHostnameVerifier(HostnameVerifier hostnameVerifier) {
     this.hostnameVerifier = hostnameVerifier;
+    this.withDefaults = null;
     return this;
   }
 
@@ -157,6 +173,7 @@ public final class OkHttpClient {
    */
   public OkHttpClient setConnectionPool(ConnectionPool connectionPool) {
     this.connectionPool = connectionPool;
+    this.withDefaults = null;
     return this;
   }
 
@@ -164,6 +181,23 @@ public final class OkHttpClient {
     return connectionPool;
   }
 
+  /**
+   * Sets the resolver used to look up the addresses of hosts, such as a
+   * {@link com.squareup.okhttp.internal.CachingDns} to avoid blocking new
+   * connections on a lookup each time.
+   *
+   * <p>If unset, {@link java.net.InetAddress#getAllByName} will be used.
+   */
+  public OkHttpClient setDns(Dns dns) {
+    this.dns = dns;
+    this.withDefaults = null;
+    return this;
+  }
+
+  public Dns getDns() {
+    return dns;
+  }
+
   /**
    * Configure this client to follow redirects from HTTPS to HTTP and from HTTP
    * to HTTPS.
@@ -173,6 +207,7 @@ public final class OkHttpClient {
    */
   public OkHttpClient setFollowProtocolRedirects(boolean followProtocolRedirects) {
     this.followProtocolRedirects = followProtocolRedirects;
+    this.withDefaults = null;
     return this;
   }
 
@@ -180,13 +215,22 @@ public final class OkHttpClient {
     return followProtocolRedirects;
   }
 
+  /**
+   * Opens a connection to {@code url}. The system-wide defaults used for the
+   * settings that weren't configured are read on the first call after this
+   * client was last configured, and kept for later calls.
+   */
   public HttpURLConnection open(URL url) {
     String protocol = url.getProtocol();
-    OkHttpClient copy = copyWithDefaults();
+    OkHttpClient copy = withDefaults;
+    if (copy == null) {
+      copy = copyWithDefaults();
+      withDefaults = copy;
+    }
     if (protocol.equals("http")) {
-      return new HttpURLConnectionImpl(url, copy, copy.okResponseCache(), copy.failedRoutes);
+      return new HttpURLConnectionImpl(url, copy, copy.okResponseCache, copy.failedRoutes);
     } else if (protocol.equals("https")) {
-      return new HttpsURLConnectionImpl(url, copy, copy.okResponseCache(), copy.failedRoutes);
+      return new HttpsURLConnectionImpl(url, copy, copy.okResponseCache, copy.failedRoutes);
     } else {
       throw new IllegalArgumentException("Unexpected protocol: " + protocol);
     }
@@ -210,7 +254,9 @@ public final class OkHttpClient {
         ? hostnameVerifier
         : HttpsURLConnection.getDefaultHostnameVerifier();
     result.connectionPool = connectionPool != null ? connectionPool : ConnectionPool.getDefault();
+    result.dns = dns != null ? dns : Dns.DEFAULT;
     result.followProtocolRedirects = followProtocolRedirects;
+    result.okResponseCache = result.okResponseCache();
     return result;
   }
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.okhttp.internal;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caches the addresses resolved by another {@link Dns} so that new connections
+ * don't block on a lookup each time.
+ *
+ * <ul>
+ *   <li>Addresses are kept for a time to live, which can be set per host.
+ *   <li>Failed lookups are kept for a shorter time, so an unknown host fails
+ *       fast instead of being looked up by each request.
+ *   <li>Hosts looked up again late in their time to live are refreshed in the
+ *       background while the cached addresses are returned.
+ *   <li>Concurrent lookups of a host share a single call to the delegate.
+ * </ul>
+ */
+public final class CachingDns implements Dns {
+  private static final long DEFAULT_TTL_MS = 60 * 1000;
+  private static final long DEFAULT_NEGATIVE_TTL_MS = 10 * 1000;
+  private static final int MAX_ENTRIES = 256;
+
+  private final Dns delegate;
+  private final long ttlNs;
+  private final long negativeTtlNs;
+  private final Map<String, Long> hostTtlNs = new ConcurrentHashMap<String, Long>();
+  private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+  private final ConcurrentHashMap<String, FutureTask<Entry>> lookups =
+      new ConcurrentHashMap<String, FutureTask<Entry>>();
+
+  /** We use a single background thread to refresh hot hosts. */
+  private final ExecutorService refreshExecutor =
+      new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+  /** The result of one lookup. */
+  private static final class Entry {
+    final InetAddress[] addresses;
+    final UnknownHostException failure;
+    final long expiresAtNs;
+    final long refreshAtNs;
+    final AtomicInteger hitCount = new AtomicInteger();
+
+    Entry(InetAddress[] addresses, UnknownHostException failure, long nowNs, long ttlNs) {
+      this.addresses = addresses;
+      this.failure = failure;
+      this.expiresAtNs = nowNs + ttlNs;
+      this.refreshAtNs = nowNs + ttlNs * 3 / 4;
+    }
+
+    InetAddress[] get(String host) throws UnknownHostException {
+      if (failure != null) {
+        throw new UnknownHostException(failure.getMessage() != null ? failure.getMessage() : host);
+      }
+      return addresses.clone();
+    }
+  }
+
+  public CachingDns(Dns delegate) {
+    this(delegate, DEFAULT_TTL_MS, DEFAULT_NEGATIVE_TTL_MS);
+  }
+
+  /**
+   * @param delegate the resolver to cache the results of.
+   * @param ttlMs how long to keep the addresses of a host.
+   * @param negativeTtlMs how long to keep a failed lookup.
+   */
+  public CachingDns(Dns delegate, long ttlMs, long negativeTtlMs) {
+    if (delegate == null) throw new IllegalArgumentException("delegate == null");
+    this.delegate = delegate;
+    this.ttlNs = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    this.negativeTtlNs = TimeUnit.MILLISECONDS.toNanos(negativeTtlMs);
+  }
+
+  /** Sets how long to keep the addresses of {@code host}, replacing the default. */
+  public void setTtl(String host, long ttlMs) {
+    hostTtlNs.put(host, TimeUnit.MILLISECONDS.toNanos(ttlMs));
+  }
+
+  /** Forgets every cached lookup, as when the network changes. */
+  public void evictAll() {
+    cache.clear();
+  }
+
+  @Override public InetAddress[] getAllByName(String host) throws UnknownHostException {
+    long now = System.nanoTime();
+    Entry entry = cache.get(host);
+    if (entry != null && now - entry.expiresAtNs < 0) {
+      int hits = entry.hitCount.incrementAndGet();
+      if (entry.failure == null && hits > 1 && now - entry.refreshAtNs >= 0) {
+        refreshInBackground(host);
+      }
+      return entry.get(host);
+    }
+    return lookup(host).get(host);
+  }
+
+  /** Looks up {@code host}, joining the lookup already in flight if there is one. */
+  private Entry lookup(String host) throws UnknownHostException {
+    FutureTask<Entry> task = newLookup(host);
+    FutureTask<Entry> inFlight = lookups.putIfAbsent(host, task);
+    if (inFlight == null) {
+      inFlight = task;
+      task.run();
+    }
+    try {
+      return inFlight.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UnknownHostException("Interrupted while resolving " + host);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new AssertionError(cause);
+    }
+  }
+
+  private void refreshInBackground(String host) {
+    FutureTask<Entry> task = newLookup(host);
+    if (lookups.putIfAbsent(host, task) == null) {
+      refreshExecutor.execute(task);
+    }
+  }
+
+  private FutureTask<Entry> newLookup(final String host) {
+    return new FutureTask<Entry>(new Callable<Entry>() {
+      @Override public Entry call() {
+        try {
+          return resolve(host);
+        } finally {
+          lookups.remove(host);
+        }
+      }
+    });
+  }
+
+  /**
+   * Calls the delegate and caches its addresses or failure. A failure doesn't
+   * replace addresses that are still valid, so a brief outage during a
+   * background refresh doesn't turn a working host into a cached failure.
+   */
+  private Entry resolve(String host) {
+    Entry entry;
+    try {
+      InetAddress[] addresses = delegate.getAllByName(host);
+      Long hostTtl = hostTtlNs.get(host);
+      entry = new Entry(addresses, null, System.nanoTime(), hostTtl != null ? hostTtl : ttlNs);
+    } catch (UnknownHostException e) {
+      Entry previous = cache.get(host);
+      if (previous != null && previous.failure == null
+          && System.nanoTime() - previous.expiresAtNs < 0) {
+        return previous;
+      }
+      entry = new Entry(null, e, System.nanoTime(), negativeTtlNs);
+    }
+    if (cache.size() >= MAX_ENTRIES) {
+      evictExpired(System.nanoTime());
+      if (cache.size() >= MAX_ENTRIES) cache.clear();
+    }
+    cache.put(host, entry);
+    return entry;
+  }
+
+  private void evictExpired(long now) {
+    for (Iterator<Entry> i = cache.values().iterator(); i.hasNext(); ) {
+      if (now - i.next().expiresAtNs >= 0) i.remove();
+    }
+  }
+}
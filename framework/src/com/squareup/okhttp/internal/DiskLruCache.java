@@ -33,6 +33,7 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -77,7 +78,13 @@ import java.util.regex.Pattern;
  *
  * <p>Clients call {@link #get} to read a snapshot of an entry. The read will
  * observe the value at the time that {@link #get} was called. Updates and
- * removals after the call do not impact ongoing reads.
+ * removals after the call do not impact ongoing reads. Reads open their files
+ * without holding the cache's lock, so they don't wait for each other.
+ *
+ * <p>Changes are recorded in the journal by a background thread, which writes
+ * the lines queued since its last run with a single flush. Only {@link #edit}
+ * waits for its line to be flushed, since the files it creates would otherwise
+ * leak if the process died.
  *
  * <p>This class is tolerant of some I/O errors. If files are missing from the
  * filesystem, the corresponding entries will be dropped from the cache. If
@@ -146,7 +153,10 @@ public final class DiskLruCache implements Closeable {
   private long maxSize;
   private final int valueCount;
   private long size = 0;
+  /** Guarded by {@link #journalLock}; also by this cache when it is replaced. */
   private Writer journalWriter;
+  private final Object journalLock = new Object();
+  private final JournalAppender journal = new JournalAppender();
   private final LinkedHashMap<String, Entry> lruEntries =
       new LinkedHashMap<String, Entry>(0, 0.75f, true);
   private int redundantOpCount;
@@ -154,13 +164,17 @@ public final class DiskLruCache implements Closeable {
   /**
    * To differentiate between old and current snapshots, each entry is given
    * a sequence number each time an edit is committed. A snapshot is stale if
-   * its sequence number is not equal to its entry's sequence number.
+   * its sequence number is not equal to its entry's sequence number. Entries
+   * read from the journal have sequence number 0, so commits start at 1.
    */
-  private long nextSequenceNumber = 0;
+  private long nextSequenceNumber = 1;
 
   /** This cache uses a single background thread to evict entries. */
   final ThreadPoolExecutor executorService =
       new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+  /** This cache uses another background thread to append to the journal. */
+  private final ThreadPoolExecutor journalExecutorService =
+      new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
   private final Callable<Void> cleanupCallable = new Callable<Void>() {
     public Void call() throws Exception {
       synchronized (DiskLruCache.this) {
@@ -168,7 +182,7 @@ public final class DiskLruCache implements Closeable {
           return null; // Closed.
         }
         trimToSize();
-        if (journalRebuildRequired()) {
+        if (journalRebuildRequired() || journal.hasFailed()) {
           rebuildJournal();
           redundantOpCount = 0;
         }
@@ -339,9 +353,17 @@ public final class DiskLruCache implements Closeable {
    * current journal if it exists.
    */
   private synchronized void rebuildJournal() throws IOException {
-    if (journalWriter != null) {
-      journalWriter.close();
+    synchronized (journalLock) {
+      if (journalWriter != null) {
+        journalWriter.close();
+      }
+      rewriteJournal();
+      // The new journal records every change, including those still queued.
+      journal.discardPending();
     }
+  }
+
+  private void rewriteJournal() throws IOException {
 
     Writer writer = new BufferedWriter(
         new OutputStreamWriter(new FileOutputStream(journalFileTmp), Util.US_ASCII));
@@ -397,45 +419,77 @@ public final class DiskLruCache implements Closeable {
    * exist is not currently readable. If a value is returned, it is moved to
    * the head of the LRU queue.
    */
-  public synchronized Snapshot get(String key) throws IOException {
-    checkNotClosed();
+  public Snapshot get(String key) throws IOException {
     validateKey(key);
-    Entry entry = lruEntries.get(key);
-    if (entry == null) {
-      return null;
-    }
+    while (true) {
+      Entry entry;
+      long sequenceNumber;
+      long[] lengths;
+      synchronized (this) {
+        checkNotClosed();
+        entry = lruEntries.get(key);
+        if (entry == null) {
+          return null;
+        }
 
-    if (!entry.readable) {
-      return null;
+        if (!entry.readable) {
+          return null;
+        }
+        sequenceNumber = entry.sequenceNumber;
+        lengths = entry.lengths.clone();
+      }
+
+      // Open all streams eagerly to guarantee that we see a single published
+      // snapshot. If we opened streams lazily then the streams could come
+      // from different edits.
+      InputStream[] ins = openCleanFiles(entry);
+
+      synchronized (this) {
+        if (lruEntries.get(key) != entry || entry.sequenceNumber != sequenceNumber) {
+          // The entry was committed or removed while we opened its files.
+          closeAll(ins);
+          continue;
+        }
+        if (ins == null) {
+          return null; // A file must have been deleted manually!
+        }
+
+        redundantOpCount++;
+        journal.append(READ + ' ' + key + '\n');
+        if (journalRebuildRequired()) {
+          executorService.submit(cleanupCallable);
+        }
+      }
+
+      return new Snapshot(key, sequenceNumber, ins, lengths);
     }
+  }
 
-    // Open all streams eagerly to guarantee that we see a single published
-    // snapshot. If we opened streams lazily then the streams could come
-    // from different edits.
+  /** Returns streams for each of the entry's clean files, or null if one is missing. */
+  private InputStream[] openCleanFiles(Entry entry) {
     InputStream[] ins = new InputStream[valueCount];
     try {
       for (int i = 0; i < valueCount; i++) {
         ins[i] = new FileInputStream(entry.getCleanFile(i));
       }
+      return ins;
     } catch (FileNotFoundException e) {
-      // A file must have been deleted manually!
-      for (int i = 0; i < valueCount; i++) {
-        if (ins[i] != null) {
-          Util.closeQuietly(ins[i]);
-        } else {
-          break;
-        }
-      }
+      closeAll(ins);
       return null;
     }
+  }
 
-    redundantOpCount++;
-    journalWriter.append(READ + ' ' + key + '\n');
-    if (journalRebuildRequired()) {
-      executorService.submit(cleanupCallable);
+  private static void closeAll(InputStream[] ins) {
+    if (ins == null) {
+      return;
+    }
+    for (InputStream in : ins) {
+      if (in != null) {
+        Util.closeQuietly(in);
+      } else {
+        break;
+      }
     }
-
-    return new Snapshot(key, entry.sequenceNumber, ins, entry.lengths);
   }
 
   /**
@@ -446,27 +500,36 @@ public final class DiskLruCache implements Closeable {
     return edit(key, ANY_SEQUENCE_NUMBER);
   }
 
-  private synchronized Editor edit(String key, long expectedSequenceNumber) throws IOException {
-    checkNotClosed();
-    validateKey(key);
-    Entry entry = lruEntries.get(key);
-    if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER && (entry == null
-        || entry.sequenceNumber != expectedSequenceNumber)) {
-      return null; // Snapshot is stale.
-    }
-    if (entry == null) {
-      entry = new Entry(key);
-      lruEntries.put(key, entry);
-    } else if (entry.currentEditor != null) {
-      return null; // Another edit is in progress.
-    }
+  private Editor edit(String key, long expectedSequenceNumber) throws IOException {
+    Editor editor;
+    long line;
+    synchronized (this) {
+      checkNotClosed();
+      validateKey(key);
+      Entry entry = lruEntries.get(key);
+      if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER && (entry == null
+          || entry.sequenceNumber != expectedSequenceNumber)) {
+        return null; // Snapshot is stale.
+      }
+      if (entry == null) {
+        entry = new Entry(key);
+        lruEntries.put(key, entry);
+      } else if (entry.currentEditor != null) {
+        return null; // Another edit is in progress.
+      }
 
-    Editor editor = new Editor(entry);
-    entry.currentEditor = editor;
+      editor = new Editor(entry);
+      entry.currentEditor = editor;
+      line = journal.append(DIRTY + ' ' + key + '\n');
+    }
 
     // Flush the journal before creating files to prevent file leaks.
-    journalWriter.write(DIRTY + ' ' + key + '\n');
-    journalWriter.flush();
+    try {
+      journal.awaitFlushed(line);
+    } catch (IOException e) {
+      editor.abortUnlessCommitted();
+      throw e;
+    }
     return editor;
   }
 
@@ -541,15 +604,14 @@ public final class DiskLruCache implements Closeable {
     entry.currentEditor = null;
     if (entry.readable | success) {
       entry.readable = true;
-      journalWriter.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+      journal.append(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
       if (success) {
         entry.sequenceNumber = nextSequenceNumber++;
       }
     } else {
       lruEntries.remove(entry.key);
-      journalWriter.write(REMOVE + ' ' + entry.key + '\n');
+      journal.append(REMOVE + ' ' + entry.key + '\n');
     }
-    journalWriter.flush();
 
     if (size > maxSize || journalRebuildRequired()) {
       executorService.submit(cleanupCallable);
@@ -590,7 +652,7 @@ public final class DiskLruCache implements Closeable {
     }
 
     redundantOpCount++;
-    journalWriter.append(REMOVE + ' ' + key + '\n');
+    journal.append(REMOVE + ' ' + key + '\n');
     lruEntries.remove(key);
 
     if (journalRebuildRequired()) {
@@ -612,10 +674,12 @@ public final class DiskLruCache implements Closeable {
   }
 
   /** Force buffered operations to the filesystem. */
-  public synchronized void flush() throws IOException {
-    checkNotClosed();
-    trimToSize();
-    journalWriter.flush();
+  public void flush() throws IOException {
+    synchronized (this) {
+      checkNotClosed();
+      trimToSize();
+    }
+    journal.drain();
   }
 
   /** Closes this cache. Stored values will remain on the filesystem. */
@@ -629,8 +693,14 @@ public final class DiskLruCache implements Closeable {
       }
     }
     trimToSize();
-    journalWriter.close();
-    journalWriter = null;
+    synchronized (journalLock) {
+      try {
+        journal.drain();
+      } finally {
+        journalWriter.close();
+        journalWriter = null;
+      }
+    }
   }
 
   private void trimToSize() throws IOException {
@@ -706,6 +776,116 @@ public final class DiskLruCache implements Closeable {
     }
   }
 
+  /**
+   * Writes journal lines on a background thread. Lines are queued while
+   * holding the cache's lock, so they are written in the order of the changes
+   * they record. Each run writes everything queued with a single flush, which
+   * is shared by every caller waiting for one of its lines.
+   */
+  private final class JournalAppender implements Runnable {
+    /** Guarded by this appender. */
+    private final List<String> pending = new ArrayList<String>();
+    private long appendedCount;
+    private long flushedCount;
+    private boolean scheduled;
+    /** The last write failure. The journal writer is unusable until rebuilt. */
+    private IOException failure;
+
+    /** Queues {@code line} and returns its number, for {@link #awaitFlushed}. */
+    synchronized long append(String line) {
+      pending.add(line);
+      if (!scheduled) {
+        scheduled = true;
+        journalExecutorService.execute(this);
+      }
+      return ++appendedCount;
+    }
+
+    /** Blocks until the line numbered {@code line} has been flushed to the journal. */
+    synchronized void awaitFlushed(long line) throws IOException {
+      boolean interrupted = false;
+      while (flushedCount < line && failure == null) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (flushedCount < line) {
+        IOException e = new IOException("failed to write journal");
+        e.initCause(failure);
+        throw e;
+      }
+    }
+
+    synchronized boolean hasFailed() {
+      return failure != null;
+    }
+
+    /** Drops the queued lines, after the journal has been rebuilt to include them. */
+    synchronized void discardPending() {
+      pending.clear();
+      flushedCount = appendedCount;
+      failure = null;
+      notifyAll();
+    }
+
+    /** Writes and flushes the queued lines on the calling thread. */
+    void drain() throws IOException {
+      synchronized (journalLock) {
+        List<String> batch;
+        long batchEnd;
+        IOException previousFailure;
+        synchronized (this) {
+          if (pending.isEmpty()) {
+            return;
+          }
+          batch = new ArrayList<String>(pending);
+          pending.clear();
+          batchEnd = appendedCount;
+          previousFailure = failure;
+        }
+        if (journalWriter == null) {
+          return; // Closed.
+        }
+        try {
+          if (previousFailure != null) {
+            throw previousFailure;
+          }
+          for (int i = 0, size = batch.size(); i < size; i++) {
+            journalWriter.write(batch.get(i));
+          }
+          journalWriter.flush();
+        } catch (IOException e) {
+          synchronized (this) {
+            failure = e;
+            notifyAll();
+          }
+          throw e;
+        }
+        synchronized (this) {
+          flushedCount = batchEnd;
+          notifyAll();
+        }
+      }
+    }
+
+    @Override public void run() {
+      synchronized (this) {
+        scheduled = false;
+      }
+      try {
+        drain();
+      } catch (IOException e) {
+        // Reported to the callers waiting on these lines. Rebuilding gives us a working journal.
+        executorService.submit(cleanupCallable);
+      }
+    }
+  }
+
   private static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
     @Override
     public void write(int b) throws IOException {
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.okhttp.internal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A {@link DiskLruCache} split into shards by key, so that operations on
+ * different keys rarely contend for the same lock or journal. Each shard is a
+ * complete cache in its own subdirectory, with an equal part of the maximum
+ * size; entries are evicted in least recently used order within their shard.
+ *
+ * <p>A directory holding an unsharded cache is cleared when it is opened as a
+ * sharded one.
+ */
+public final class ShardedDiskLruCache implements Closeable {
+  static final int DEFAULT_SHARD_COUNT = 8;
+
+  private final File directory;
+  private final DiskLruCache[] shards;
+  private long maxSize;
+
+  private ShardedDiskLruCache(File directory, DiskLruCache[] shards, long maxSize) {
+    this.directory = directory;
+    this.shards = shards;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Opens the cache in {@code directory} with the default number of shards,
+   * creating a cache if none exists there.
+   */
+  public static ShardedDiskLruCache open(File directory, int appVersion, int valueCount,
+      long maxSize) throws IOException {
+    return open(directory, appVersion, valueCount, maxSize, DEFAULT_SHARD_COUNT);
+  }
+
+  /**
+   * Opens the cache in {@code directory}, creating a cache if none exists
+   * there.
+   *
+   * @param directory a writable directory
+   * @param valueCount the number of values per cache entry. Must be positive.
+   * @param maxSize the maximum number of bytes this cache should use to store
+   * @param shardCount the number of shards. Must be positive and must not
+   *     change between uses of a directory, or entries will be lost.
+   * @throws IOException if reading or writing the cache directory fails
+   */
+  public static ShardedDiskLruCache open(File directory, int appVersion, int valueCount,
+      long maxSize, int shardCount) throws IOException {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize <= 0");
+    }
+    if (shardCount <= 0) {
+      throw new IllegalArgumentException("shardCount <= 0");
+    }
+
+    // The values of an unsharded cache can't be found by key anymore.
+    if (new File(directory, DiskLruCache.JOURNAL_FILE).exists()
+        || new File(directory, DiskLruCache.JOURNAL_FILE_BACKUP).exists()) {
+      Util.deleteContents(directory);
+    }
+
+    DiskLruCache[] shards = new DiskLruCache[shardCount];
+    try {
+      for (int i = 0; i < shardCount; i++) {
+        shards[i] = DiskLruCache.open(new File(directory, Integer.toString(i)), appVersion,
+            valueCount, shardMaxSize(maxSize, shardCount));
+      }
+    } catch (IOException e) {
+      for (DiskLruCache shard : shards) {
+        Util.closeQuietly(shard);
+      }
+      throw e;
+    }
+    return new ShardedDiskLruCache(directory, shards, maxSize);
+  }
+
+  private static long shardMaxSize(long maxSize, int shardCount) {
+    return Math.max(1, maxSize / shardCount);
+  }
+
+  private DiskLruCache shard(String key) {
+    return shards[(key.hashCode() & 0x7fffffff) % shards.length];
+  }
+
+  /** See {@link DiskLruCache#get}. */
+  public DiskLruCache.Snapshot get(String key) throws IOException {
+    return shard(key).get(key);
+  }
+
+  /** See {@link DiskLruCache#edit}. */
+  public DiskLruCache.Editor edit(String key) throws IOException {
+    return shard(key).edit(key);
+  }
+
+  /** See {@link DiskLruCache#remove}. */
+  public boolean remove(String key) throws IOException {
+    return shard(key).remove(key);
+  }
+
+  /** Returns the directory where this cache stores its data. */
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Returns the maximum number of bytes that this cache should use to store
+   * its data.
+   */
+  public synchronized long getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Changes the maximum number of bytes the cache can store and queues jobs
+   * to trim the existing shards, if necessary.
+   */
+  public synchronized void setMaxSize(long maxSize) {
+    this.maxSize = maxSize;
+    for (DiskLruCache shard : shards) {
+      shard.setMaxSize(shardMaxSize(maxSize, shards.length));
+    }
+  }
+
+  /**
+   * Returns the number of bytes currently being used to store the values in
+   * this cache. This may be greater than the max size if a background
+   * deletion is pending.
+   */
+  public long size() {
+    long result = 0;
+    for (DiskLruCache shard : shards) {
+      result += shard.size();
+    }
+    return result;
+  }
+
+  /** Returns true if this cache has been closed. */
+  public boolean isClosed() {
+    return shards[0].isClosed();
+  }
+
+  /** Force buffered operations to the filesystem. */
+  public void flush() throws IOException {
+    for (DiskLruCache shard : shards) {
+      shard.flush();
+    }
+  }
+
+  /** Closes this cache. Stored values will remain on the filesystem. */
+  public void close() throws IOException {
+    IOException thrown = null;
+    for (DiskLruCache shard : shards) {
+      try {
+        shard.close();
+      } catch (IOException e) {
+        if (thrown == null) {
+          thrown = e;
+        }
+      }
+    }
+    if (thrown != null) {
+      throw thrown;
+    }
+  }
+
+  /**
+   * Closes the cache and deletes all of its stored values. This will delete
+   * all files in the cache directory including files that weren't created by
+   * the cache.
+   */
+  public void delete() throws IOException {
+    close();
+    Util.deleteContents(directory);
+  }
+}
@@ -21,7 +21,6 @@ import com.squareup.okhttp.Address;
 import com.squareup.okhttp.Connection;
 import com.squareup.okhttp.ResponseSource;
 import com.squareup.okhttp.TunnelRequest;
-import com.squareup.okhttp.internal.Dns;
 import com.squareup.okhttp.internal.Platform;
 import com.squareup.okhttp.internal.Util;
 import java.io.ByteArrayInputStream;
@@ -280,14 +279,16 @@ public class HttpEngine {
       Address address = new Address(uriHost, getEffectivePort(uri), sslSocketFactory,
           hostnameVerifier, policy.requestedProxy);
       routeSelector = new RouteSelector(address, uri, policy.proxySelector, policy.connectionPool,
-          Dns.DEFAULT, policy.getFailedRoutes());
+          policy.dns, policy.getFailedRoutes());
     }
-    connection = routeSelector.next();
-    if (!connection.isConnected()) {
-      connection.connect(policy.getConnectTimeout(), policy.getReadTimeout(), getTunnelConfig());
-      policy.connectionPool.maybeShare(connection);
-      policy.getFailedRoutes().remove(connection.getRoute());
+    Connection next = routeSelector.next();
+    if (!next.isConnected()) {
+      next = routeSelector.connect(next, policy.getConnectTimeout(), policy.getReadTimeout(),
+          getTunnelConfig());
+      policy.connectionPool.maybeShare(next);
+      policy.getFailedRoutes().remove(next.getRoute());
     }
+    connection = next;
     connected(connection);
     if (connection.getRoute().getProxy() != policy.requestedProxy) {
       // Update the request line if the proxy changed; it may need a host name.
@@ -22,6 +22,7 @@ import com.squareup.okhttp.ConnectionPool;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Route;
 import com.squareup.okhttp.internal.AbstractOutputStream;
+import com.squareup.okhttp.internal.Dns;
 import com.squareup.okhttp.internal.FaultRecoveringOutputStream;
 import com.squareup.okhttp.internal.Util;
 import java.io.FileNotFoundException;
@@ -89,6 +90,7 @@ public class HttpURLConnectionImpl extends HttpURLConnection {
   final CookieHandler cookieHandler;
   final OkResponseCache responseCache;
   final ConnectionPool connectionPool;
+  final Dns dns;
   /* SSL configuration; necessary for HTTP requests that get redirected to HTTPS. */
   SSLSocketFactory sslSocketFactory;
   HostnameVerifier hostnameVerifier;
@@ -111,6 +113,7 @@ public class HttpURLConnectionImpl extends HttpURLConnection {
     this.proxySelector = client.getProxySelector();
     this.cookieHandler = client.getCookieHandler();
     this.connectionPool = client.getConnectionPool();
+    this.dns = client.getDns() != null ? client.getDns() : Dns.DEFAULT;
     this.sslSocketFactory = client.getSslSocketFactory();
     this.hostnameVerifier = client.getHostnameVerifier();
     this.responseCache = responseCache;
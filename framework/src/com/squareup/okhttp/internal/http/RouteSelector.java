@@ -19,8 +19,12 @@ import com.squareup.okhttp.Address;
 import com.squareup.okhttp.Connection;
 import com.squareup.okhttp.ConnectionPool;
 import com.squareup.okhttp.Route;
+import com.squareup.okhttp.TunnelRequest;
 import com.squareup.okhttp.internal.Dns;
+import com.squareup.okhttp.internal.NamedRunnable;
+import com.squareup.okhttp.internal.Util;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
@@ -28,11 +32,18 @@ import java.net.ProxySelector;
 import java.net.SocketAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.net.ssl.SSLHandshakeException;
 
 import static com.squareup.okhttp.internal.Util.getEffectivePort;
@@ -50,6 +61,16 @@ public final class RouteSelector {
   /** No TLS mode. */
   private static final int TLS_MODE_NULL = -1;
 
+  /**
+   * How long a connect attempt runs alone before the next route is attempted
+   * alongside it.
+   */
+  private static final long CONNECT_STAGGER_MS = 250;
+
+  /** Runs the connect attempts that race the calling thread's. */
+  private static final ExecutorService connectExecutor = new ThreadPoolExecutor(0,
+      Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+
   private final Address address;
   private final URI uri;
   private final ProxySelector proxySelector;
@@ -110,6 +131,11 @@ public final class RouteSelector {
       return pooled;
     }
 
+    return nextUnpooled();
+  }
+
+  /** Returns a new connection to the next route to attempt. */
+  private Connection nextUnpooled() throws IOException {
     // Compute the next route to attempt.
     if (!hasNextTlsMode()) {
       if (!hasNextInetSocketAddress()) {
@@ -132,12 +158,129 @@ public final class RouteSelector {
       postponedRoutes.add(route);
       // We will only recurse in order to skip previously failed routes. They will be
       // tried last.
-      return next();
+      return nextUnpooled();
     }
 
     return new Connection(route);
   }
 
+  /**
+   * Connects {@code first}, a new connection returned by {@link #next}, or
+   * another route if one connects sooner. Each attempt that hasn't completed
+   * within {@link #CONNECT_STAGGER_MS} is raced by an attempt on the next route,
+   * and each attempt that fails is replaced by one straight away. The first
+   * connection to complete is returned and the others are closed.
+   *
+   * <p>Routes that only differ in TLS mode are never raced against each other,
+   * so that a slow server isn't downgraded to compatible TLS. Failed routes are
+   * reported to {@link #connectFailed} as they fail, so later requests postpone
+   * them.
+   *
+   * @throws IOException the last failure, if every route failed.
+   */
+  public Connection connect(Connection first, int connectTimeout, int readTimeout,
+      TunnelRequest tunnelRequest) throws IOException {
+    if (!hasNext()) {
+      // Nothing to race, so don't bother with another thread.
+      try {
+        first.connect(connectTimeout, readTimeout, tunnelRequest);
+      } catch (IOException e) {
+        connectFailed(first, e);
+        throw e;
+      }
+      return first;
+    }
+
+    BlockingQueue<ConnectAttempt> completed = new LinkedBlockingQueue<ConnectAttempt>();
+    List<ConnectAttempt> running = new ArrayList<ConnectAttempt>();
+    List<Connection> deferred = new ArrayList<Connection>();
+    IOException lastFailure = null;
+    Connection candidate = first;
+    try {
+      while (true) {
+        // Prefer a route we haven't seen, then one deferred behind a running attempt.
+        while (candidate == null && hasNext()) {
+          Connection connection = nextUnpooled();
+          if (isRacing(running, connection.getRoute())) {
+            deferred.add(connection);
+          } else {
+            candidate = connection;
+          }
+        }
+        if (candidate == null) {
+          candidate = takeDeferred(running, deferred);
+        }
+
+        ConnectAttempt done;
+        if (candidate != null) {
+          ConnectAttempt attempt =
+              new ConnectAttempt(candidate, connectTimeout, readTimeout, tunnelRequest, completed);
+          running.add(attempt);
+          connectExecutor.execute(attempt);
+          candidate = null;
+          done = completed.poll(CONNECT_STAGGER_MS, TimeUnit.MILLISECONDS);
+        } else if (!running.isEmpty()) {
+          done = completed.take();
+        } else {
+          throw lastFailure;
+        }
+        if (done == null) {
+          continue; // Still connecting. Race it with the next route.
+        }
+
+        running.remove(done);
+        if (done.failure == null) {
+          return done.connection;
+        }
+        connectFailed(done.connection, done.failure);
+        lastFailure = done.failure;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while connecting to " + address.getUriHost());
+    } finally {
+      for (ConnectAttempt loser : running) {
+        loser.cancel();
+      }
+      // Keep the routes we didn't get to for a later retry.
+      for (Connection connection : deferred) {
+        postponedRoutes.add(connection.getRoute());
+      }
+    }
+  }
+
+  /** Returns true if a running attempt connects to the same place as {@code route}. */
+  private static boolean isRacing(List<ConnectAttempt> running, Route route) {
+    for (ConnectAttempt attempt : running) {
+      Route racing = attempt.connection.getRoute();
+      if (racing.getProxy().equals(route.getProxy())
+          && racing.getSocketAddress().equals(route.getSocketAddress())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes and returns the first deferred connection that can be attempted
+   * now, preferring routes that haven't failed before. Returns null if there is
+   * none.
+   */
+  private Connection takeDeferred(List<ConnectAttempt> running, List<Connection> deferred) {
+    for (int pass = 0; pass < 2; pass++) {
+      boolean failedRoutesAllowed = pass == 1;
+      for (Iterator<Connection> i = deferred.iterator(); i.hasNext(); ) {
+        Connection connection = i.next();
+        Route route = connection.getRoute();
+        if (failedRoutes.contains(route) == failedRoutesAllowed && !isRacing(running, route)) {
+          i.remove();
+          return connection;
+        }
+      }
+    }
+    return null;
+  }
+
   /**
    * Clients should invoke this method when they encounter a connectivity
    * failure on a connection returned by this route selector.
@@ -272,4 +415,51 @@ public final class RouteSelector {
   private Route nextPostponed() {
     return postponedRoutes.remove(0);
   }
+
+  /** Connects one route on a background thread. */
+  private static final class ConnectAttempt extends NamedRunnable {
+    private final Connection connection;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final TunnelRequest tunnelRequest;
+    private final BlockingQueue<ConnectAttempt> completed;
+    private volatile boolean canceled;
+    private IOException failure;
+
+    ConnectAttempt(Connection connection, int connectTimeout, int readTimeout,
+        TunnelRequest tunnelRequest, BlockingQueue<ConnectAttempt> completed) {
+      super("OkHttp Connect " + connection.getRoute().getSocketAddress());
+      this.connection = connection;
+      this.connectTimeout = connectTimeout;
+      this.readTimeout = readTimeout;
+      this.tunnelRequest = tunnelRequest;
+      this.completed = completed;
+    }
+
+    @Override protected void execute() {
+      try {
+        if (canceled) {
+          throw new IOException("Canceled");
+        }
+        connection.connect(connectTimeout, readTimeout, tunnelRequest);
+      } catch (IOException e) {
+        failure = e;
+      } catch (RuntimeException e) {
+        // Closing a connection that is still connecting may surface as anything.
+        failure = new IOException(e.toString());
+      }
+      if (canceled) {
+        // The race was decided while we were connecting.
+        Util.closeQuietly(connection);
+        return;
+      }
+      completed.add(this);
+    }
+
+    /** Closes the connection, interrupting it if it is still connecting. */
+    void cancel() {
+      canceled = true;
+      Util.closeQuietly(connection);
+    }
+  }
 }
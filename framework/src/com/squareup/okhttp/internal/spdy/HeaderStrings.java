@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.okhttp.internal.spdy;
+
+/**
+ * A table of the strings that commonly appear in name/value blocks, shared by
+ * all connections. Decoding a name or value that's in the table returns the
+ * shared string instead of allocating a new one. The table is immutable.
+ */
+final class HeaderStrings {
+  private static final String[] COMMON = {
+      ":host", ":method", ":path", ":scheme", ":status", ":version",
+      "accept", "accept-charset", "accept-encoding", "accept-language", "accept-ranges", "age",
+      "allow", "authorization", "cache-control", "connection", "content-disposition",
+      "content-encoding", "content-language", "content-length", "content-location",
+      "content-md5", "content-range", "content-type", "cookie", "date", "etag", "expect",
+      "expires", "from", "host", "if-match", "if-modified-since", "if-none-match", "if-range",
+      "if-unmodified-since", "last-modified", "link", "location", "max-forwards", "pragma",
+      "proxy-authenticate", "proxy-authorization", "range", "referer", "refresh", "retry-after",
+      "server", "set-cookie", "strict-transport-security", "trailer", "transfer-encoding",
+      "upgrade", "user-agent", "vary", "via", "warning", "www-authenticate",
+
+      "GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "HTTP/1.1", "http", "https",
+      "200", "200 OK", "204", "204 No Content", "206", "206 Partial Content", "301",
+      "301 Moved Permanently", "302", "302 Found", "304", "304 Not Modified", "400",
+      "400 Bad Request", "401", "401 Unauthorized", "403", "403 Forbidden", "404",
+      "404 Not Found", "500", "500 Internal Server Error", "503", "503 Service Unavailable",
+      "*/*", "bytes", "chunked", "close", "deflate", "gzip", "gzip,deflate", "gzip, deflate",
+      "identity", "keep-alive", "max-age=0", "no-cache", "no-store", "private", "public",
+      "Accept-Encoding", "application/javascript", "application/json", "application/octet-stream",
+      "application/x-javascript", "image/gif", "image/jpeg", "image/png", "text/css",
+      "text/html", "text/html; charset=utf-8", "text/javascript", "text/plain",
+  };
+
+  /** Open-addressed by {@link #hash}; null slots are empty. */
+  private static final String[] TABLE;
+
+  static {
+    int capacity = Integer.highestOneBit(COMMON.length * 4);
+    TABLE = new String[capacity];
+    for (String s : COMMON) {
+      int slot = hash(s) & (capacity - 1);
+      while (TABLE[slot] != null) {
+        slot = (slot + 1) & (capacity - 1);
+      }
+      TABLE[slot] = s;
+    }
+  }
+
+  private HeaderStrings() {
+  }
+
+  /**
+   * Returns the shared string whose bytes are {@code bytes[0..length)}, or
+   * null if there's none.
+   */
+  static String lookup(byte[] bytes, int length) {
+    int h = 0;
+    for (int i = 0; i < length; i++) {
+      h = 31 * h + (bytes[i] & 0xff);
+    }
+    int mask = TABLE.length - 1;
+    for (int slot = h & mask; TABLE[slot] != null; slot = (slot + 1) & mask) {
+      if (matches(TABLE[slot], bytes, length)) {
+        return TABLE[slot];
+      }
+    }
+    return null;
+  }
+
+  /** Hashes the characters of an ASCII string as {@link #lookup} hashes its bytes. */
+  private static int hash(String s) {
+    int h = 0;
+    for (int i = 0; i < s.length(); i++) {
+      h = 31 * h + s.charAt(i);
+    }
+    return h;
+  }
+
+  private static boolean matches(String s, byte[] bytes, int length) {
+    if (s.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (s.charAt(i) != (bytes[i] & 0xff)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -46,6 +46,12 @@ public final class Ping {
     latch.countDown();
   }
 
+  /** Returns the round trip time of a received ping in nanoseconds. */
+  long receivedRoundTripTime() {
+    if (received == -1) throw new IllegalStateException();
+    return received - sent;
+  }
+
   /**
    * Returns the round trip time for this ping in nanoseconds, waiting for the
    * response to arrive if necessary. Returns -1 if the response was
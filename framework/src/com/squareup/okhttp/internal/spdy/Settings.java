@@ -22,6 +22,19 @@ final class Settings {
    */
   static final int DEFAULT_INITIAL_WINDOW_SIZE = 64 * 1024;
 
+  /**
+   * The default size that a stream's receive window may grow to when it
+   * limits the stream's throughput.
+   */
+  static final int DEFAULT_MAX_WINDOW_SIZE = 1024 * 1024;
+
+  /**
+   * The default limit on the receive windows of a connection's streams
+   * combined. spdy/3 has no connection-level window on the wire, so this only
+   * bounds how far this peer grows its stream windows.
+   */
+  static final int DEFAULT_CONNECTION_WINDOW_SIZE = 4 * 1024 * 1024;
+
   /** Peer request to clear durable settings. */
   static final int FLAG_CLEAR_PREVIOUSLY_PERSISTED_SETTINGS = 0x1;
 
@@ -21,12 +21,16 @@ import com.squareup.okhttp.internal.Util;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -46,16 +50,17 @@ import static java.util.concurrent.Executors.defaultThreadFactory;
 public final class SpdyConnection implements Closeable {
 
   // Internal state of this connection is guarded by 'this'. No blocking
-  // operations may be performed while holding this lock!
+  // operations may be performed while holding this lock! The streams map is
+  // concurrent so that the reader thread can look up streams without it.
   //
-  // Socket writes are guarded by spdyWriter.
+  // Socket writes are only made by the writer thread. Other threads enqueue
+  // frames on the writer, whose queue is guarded by the writer; they may then
+  // wait outside of any lock for the frame to be written.
   //
-  // Socket reads are unguarded but are only made by the reader thread.
-  //
-  // Certain operations (like SYN_STREAM) need to synchronize on both the
-  // spdyWriter (to do blocking I/O) and this (to create streams). Such
-  // operations must synchronize on 'this' last. This ensures that we never
-  // wait for a blocking operation while holding 'this'.
+  // Certain operations (like SYN_STREAM) need to enqueue a frame while
+  // holding 'this', so that frames are written in the order of the state
+  // changes they announce. Such operations must synchronize on 'this' first.
+  // The writer never synchronizes on 'this'.
 
   static final int FLAG_FIN = 0x1;
   static final int FLAG_UNIDIRECTIONAL = 0x2;
@@ -77,6 +82,9 @@ public final class SpdyConnection implements Closeable {
   static final int GOAWAY_PROTOCOL_ERROR = 1;
   static final int GOAWAY_INTERNAL_ERROR = 2;
 
+  /** Measure the round trip time again once the estimate is this old. */
+  private static final long ROUND_TRIP_PROBE_INTERVAL_NS = TimeUnit.SECONDS.toNanos(30);
+
   private static final ExecutorService executor =
       new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
           new SynchronousQueue<Runnable>(), defaultThreadFactory());
@@ -91,8 +99,9 @@ public final class SpdyConnection implements Closeable {
   private final IncomingStreamHandler handler;
   private final SpdyReader spdyReader;
   private final SpdyWriter spdyWriter;
+  private final Writer writer = new Writer();
 
-  private final Map<Integer, SpdyStream> streams = new HashMap<Integer, SpdyStream>();
+  private final Map<Integer, SpdyStream> streams = new ConcurrentHashMap<Integer, SpdyStream>();
   private final String hostName;
   private int lastGoodStreamId;
   private int nextStreamId;
@@ -106,6 +115,24 @@ public final class SpdyConnection implements Closeable {
   /** Lazily-created settings for this connection. */
   Settings settings;
 
+  /** The receive window of each stream when it is created. */
+  final int initialWindowSize;
+
+  /** The size that a stream's receive window may grow to. */
+  final int maxWindowSize;
+
+  /** The limit on the receive windows of all streams combined. */
+  private final int connectionWindowSize;
+
+  /** The receive windows of the streams in {@code streams} combined. Guarded by this. */
+  private long receiveWindowTotal;
+
+  /** The smoothed round trip time in ns, or -1 until measured. Guarded by this. */
+  private long roundTripTimeNs = -1;
+  private long roundTripMeasuredNs;
+  private Ping roundTripProbe;
+  private int roundTripProbeId;
+
   private SpdyConnection(Builder builder) {
     client = builder.client;
     handler = builder.handler;
@@ -113,32 +140,100 @@ public final class SpdyConnection implements Closeable {
     spdyWriter = new SpdyWriter(builder.out);
     nextStreamId = builder.client ? 1 : 2;
     nextPingId = builder.client ? 1 : 2;
+    initialWindowSize = builder.initialWindowSize;
+    maxWindowSize = Math.max(builder.initialWindowSize, builder.maxWindowSize);
+    connectionWindowSize = builder.connectionWindowSize;
 
     hostName = builder.hostName;
 
+    if (initialWindowSize != Settings.DEFAULT_INITIAL_WINDOW_SIZE) {
+      // Written before any other frame, so the peer applies it to every stream.
+      final Settings localSettings = new Settings();
+      localSettings.set(Settings.INITIAL_WINDOW_SIZE, 0, initialWindowSize);
+      writer.enqueue(new Frame(TYPE_SETTINGS, 0, Frame.CONTROL) {
+        @Override void write(SpdyWriter spdyWriter) throws IOException {
+          spdyWriter.settings(0, localSettings);
+        }
+      });
+    }
+
     new Thread(new Reader(), "Spdy Reader " + hostName).start();
+    new Thread(writer, "Spdy Writer " + hostName).start();
   }
 
   /**
    * Returns the number of {@link SpdyStream#isOpen() open streams} on this
    * connection.
    */
-  public synchronized int openStreamCount() {
+  public int openStreamCount() {
     return streams.size();
   }
 
-  private synchronized SpdyStream getStream(int id) {
+  private SpdyStream getStream(int id) {
     return streams.get(id);
   }
 
   synchronized SpdyStream removeStream(int streamId) {
     SpdyStream stream = streams.remove(streamId);
-    if (stream != null && streams.isEmpty()) {
-      setIdle(true);
+    if (stream != null) {
+      receiveWindowTotal -= stream.getReceiveWindowSize();
+      if (streams.isEmpty()) {
+        setIdle(true);
+      }
     }
     return stream;
   }
 
+  /**
+   * Grows the receive window of {@code stream} by up to {@code byteCount}, as
+   * far as the connection's window allows, and returns the number of bytes
+   * granted. The stream's window and the connection's total change together
+   * under this lock, so {@link #removeStream} always releases what was
+   * granted. Streams that were already removed are granted nothing.
+   */
+  synchronized int growReceiveWindow(int streamId, SpdyStream stream, int byteCount) {
+    if (streams.get(streamId) != stream) {
+      return 0;
+    }
+    long granted = Math.min(byteCount, connectionWindowSize - receiveWindowTotal);
+    if (granted <= 0) {
+      return 0;
+    }
+    receiveWindowTotal += granted;
+    stream.setReceiveWindowSize(stream.getReceiveWindowSize() + (int) granted);
+    return (int) granted;
+  }
+
+  /**
+   * Returns the round trip time of this connection in nanoseconds, or -1 if
+   * it hasn't been measured yet. Pings the peer in the background when the
+   * estimate is missing or old.
+   */
+  synchronized long roundTripTimeNs() {
+    if (roundTripProbe == null && !shutdown && (roundTripTimeNs == -1
+        || System.nanoTime() - roundTripMeasuredNs > ROUND_TRIP_PROBE_INTERVAL_NS)) {
+      // Not in 'pings', since nobody awaits it and it needn't be cancelled.
+      roundTripProbe = new Ping();
+      roundTripProbeId = nextPingId;
+      nextPingId += 2;
+      writePingLater(roundTripProbeId, roundTripProbe);
+    }
+    return roundTripTimeNs;
+  }
+
+  /** Returns true if {@code id} is the round trip probe's response. */
+  private synchronized boolean receiveRoundTrip(int id) {
+    if (roundTripProbe == null || id != roundTripProbeId) {
+      return false;
+    }
+    roundTripProbe.receive();
+    long sample = roundTripProbe.receivedRoundTripTime();
+    roundTripProbe = null;
+    roundTripTimeNs = roundTripTimeNs == -1 ? sample : (roundTripTimeNs * 7 + sample) / 8;
+    roundTripMeasuredNs = System.nanoTime();
+    return true;
+  }
+
   private synchronized void setIdle(boolean value) {
     idleStartTimeNs = value ? System.nanoTime() : 0L;
   }
@@ -167,70 +262,89 @@ public final class SpdyConnection implements Closeable {
     int associatedStreamId = 0;  // TODO: permit the caller to specify an associated stream?
     int priority = 0; // TODO: permit the caller to specify a priority?
     int slot = 0; // TODO: permit the caller to specify a slot?
-    SpdyStream stream;
-    int streamId;
+    final SpdyStream stream;
+    final int streamId;
+    Frame synStream;
 
-    synchronized (spdyWriter) {
-      synchronized (this) {
-        if (shutdown) {
-          throw new IOException("shutdown");
-        }
-        streamId = nextStreamId;
-        nextStreamId += 2;
-        stream = new SpdyStream(streamId, this, flags, priority, slot, requestHeaders, settings);
-        if (stream.isOpen()) {
-          streams.put(streamId, stream);
-          setIdle(false);
-        }
+    synchronized (this) {
+      if (shutdown) {
+        throw new IOException("shutdown");
+      }
+      streamId = nextStreamId;
+      nextStreamId += 2;
+      stream = new SpdyStream(streamId, this, flags, priority, slot, requestHeaders, settings);
+      if (stream.isOpen()) {
+        streams.put(streamId, stream);
+        receiveWindowTotal += stream.getReceiveWindowSize();
+        setIdle(false);
       }
 
-      spdyWriter.synStream(flags, streamId, associatedStreamId, priority, slot, requestHeaders);
+      // Enqueue while holding the lock so that stream IDs are written in order.
+      synStream = writer.enqueue(new Frame(TYPE_SYN_STREAM, streamId, Frame.CONTROL) {
+        @Override void write(SpdyWriter spdyWriter) throws IOException {
+          spdyWriter.synStream(flags, streamId, associatedStreamId, priority, slot,
+              requestHeaders);
+        }
+      });
     }
 
+    synStream.await();
     return stream;
   }
 
-  void writeSynReply(int streamId, int flags, List<String> alternating) throws IOException {
-    spdyWriter.synReply(flags, streamId, alternating);
+  void writeSynReply(final int streamId, final int flags, final List<String> alternating)
+      throws IOException {
+    writer.enqueue(new Frame(TYPE_SYN_REPLY, streamId, Frame.CONTROL) {
+      @Override void write(SpdyWriter spdyWriter) throws IOException {
+        spdyWriter.synReply(flags, streamId, alternating);
+      }
+    }).await();
   }
 
-  /** Writes a complete data frame. */
-  void writeFrame(byte[] bytes, int offset, int length) throws IOException {
-    synchronized (spdyWriter) {
-      spdyWriter.out.write(bytes, offset, length);
-    }
+  /**
+   * Writes a complete data frame, scheduled after the frames of streams with a
+   * higher priority. This blocks until the frame has been written, so {@code
+   * bytes} may be reused once it returns.
+   */
+  void writeFrame(int streamId, int priority, final byte[] bytes, final int offset,
+      final int length) throws IOException {
+    writer.enqueue(new Frame(TYPE_DATA, streamId, priority & 0x7, length) {
+      @Override void write(SpdyWriter spdyWriter) throws IOException {
+        spdyWriter.out.write(bytes, offset, length);
+      }
+    }).await();
   }
 
-  void writeSynResetLater(final int streamId, final int statusCode) {
-    executor.submit(
-        new NamedRunnable(String.format("Spdy Writer %s stream %d", hostName, streamId)) {
-          @Override public void execute() {
-            try {
-              writeSynReset(streamId, statusCode);
-            } catch (IOException ignored) {
-            }
-          }
-        });
+  void writeSynResetLater(int streamId, int statusCode) {
+    writer.enqueue(synReset(streamId, statusCode));
   }
 
   void writeSynReset(int streamId, int statusCode) throws IOException {
-    spdyWriter.rstStream(streamId, statusCode);
+    writer.enqueue(synReset(streamId, statusCode)).await();
   }
 
-  void writeWindowUpdateLater(final int streamId, final int deltaWindowSize) {
-    executor.submit(
-        new NamedRunnable(String.format("Spdy Writer %s stream %d", hostName, streamId)) {
-          @Override public void execute() {
-            try {
-              writeWindowUpdate(streamId, deltaWindowSize);
-            } catch (IOException ignored) {
-            }
-          }
-        });
+  private Frame synReset(final int streamId, final int statusCode) {
+    return new Frame(TYPE_RST_STREAM, streamId, Frame.CONTROL) {
+      @Override void write(SpdyWriter spdyWriter) throws IOException {
+        spdyWriter.rstStream(streamId, statusCode);
+      }
+    };
+  }
+
+  void writeWindowUpdateLater(int streamId, int deltaWindowSize) {
+    writer.enqueue(windowUpdate(streamId, deltaWindowSize));
   }
 
   void writeWindowUpdate(int streamId, int deltaWindowSize) throws IOException {
-    spdyWriter.windowUpdate(streamId, deltaWindowSize);
+    writer.enqueue(windowUpdate(streamId, deltaWindowSize)).await();
+  }
+
+  private Frame windowUpdate(final int streamId, final int deltaWindowSize) {
+    return new Frame(TYPE_WINDOW_UPDATE, streamId, Frame.CONTROL) {
+      @Override void write(SpdyWriter spdyWriter) throws IOException {
+        spdyWriter.windowUpdate(streamId, deltaWindowSize);
+      }
+    };
   }
 
   /**
@@ -253,23 +367,22 @@ public final class SpdyConnection implements Closeable {
     return ping;
   }
 
-  private void writePingLater(final int streamId, final Ping ping) {
-    executor.submit(new NamedRunnable(String.format("Spdy Writer %s ping %d", hostName, streamId)) {
-      @Override public void execute() {
-        try {
-          writePing(streamId, ping);
-        } catch (IOException ignored) {
-        }
-      }
-    });
+  private void writePingLater(int id, Ping ping) {
+    writer.enqueue(ping(id, ping));
   }
 
   private void writePing(int id, Ping ping) throws IOException {
-    synchronized (spdyWriter) {
-      // Observe the sent time immediately before performing I/O.
-      if (ping != null) ping.send();
-      spdyWriter.ping(0, id);
-    }
+    writer.enqueue(ping(id, ping)).await();
+  }
+
+  private Frame ping(final int id, final Ping ping) {
+    return new Frame(TYPE_PING, 0, Frame.CONTROL) {
+      @Override void write(SpdyWriter spdyWriter) throws IOException {
+        // Observe the sent time immediately before performing I/O.
+        if (ping != null) ping.send();
+        spdyWriter.ping(0, id);
+      }
+    };
   }
 
   private synchronized Ping removePing(int id) {
@@ -278,13 +391,22 @@ public final class SpdyConnection implements Closeable {
 
   /** Sends a noop frame to the peer. */
   public void noop() throws IOException {
-    spdyWriter.noop();
+    writer.enqueue(new Frame(TYPE_NOOP, 0, Frame.CONTROL) {
+      @Override void write(SpdyWriter spdyWriter) throws IOException {
+        spdyWriter.noop();
+      }
+    }).await();
   }
 
+  /**
+   * Blocks until the frames enqueued so far have been written. Frames written
+   * by the calling thread are already flushed by the time their write returns.
+   */
   public void flush() throws IOException {
-    synchronized (spdyWriter) {
-      spdyWriter.out.flush();
-    }
+    writer.enqueue(new Frame(TYPE_NOOP, 0, Frame.CONTROL) {
+      @Override void write(SpdyWriter spdyWriter) {
+      }
+    }).await();
   }
 
   /**
@@ -296,18 +418,21 @@ public final class SpdyConnection implements Closeable {
    * @param statusCode one of {@link #GOAWAY_OK}, {@link
    * #GOAWAY_INTERNAL_ERROR} or {@link #GOAWAY_PROTOCOL_ERROR}.
    */
-  public void shutdown(int statusCode) throws IOException {
-    synchronized (spdyWriter) {
-      int lastGoodStreamId;
-      synchronized (this) {
-        if (shutdown) {
-          return;
-        }
-        shutdown = true;
-        lastGoodStreamId = this.lastGoodStreamId;
+  public void shutdown(final int statusCode) throws IOException {
+    Frame goAway;
+    synchronized (this) {
+      if (shutdown) {
+        return;
       }
-      spdyWriter.goAway(0, lastGoodStreamId, statusCode);
+      shutdown = true;
+      final int lastGoodStreamId = this.lastGoodStreamId;
+      goAway = writer.enqueue(new Frame(TYPE_GOAWAY, 0, Frame.CONTROL) {
+        @Override void write(SpdyWriter spdyWriter) throws IOException {
+          spdyWriter.goAway(0, lastGoodStreamId, statusCode);
+        }
+      });
     }
+    goAway.await();
   }
 
   /**
@@ -334,6 +459,7 @@ public final class SpdyConnection implements Closeable {
       if (!streams.isEmpty()) {
         streamsToClose = streams.values().toArray(new SpdyStream[streams.size()]);
         streams.clear();
+        receiveWindowTotal = 0;
         setIdle(false);
       }
       if (pings != null) {
@@ -363,11 +489,8 @@ public final class SpdyConnection implements Closeable {
     } catch (IOException e) {
       thrown = e;
     }
-    try {
-      spdyWriter.close();
-    } catch (IOException e) {
-      if (thrown == null) thrown = e;
-    }
+    // The writer closes the output once it has written the frames enqueued so far.
+    writer.close();
 
     if (thrown != null) throw thrown;
   }
@@ -377,6 +500,9 @@ public final class SpdyConnection implements Closeable {
     private InputStream in;
     private OutputStream out;
     private IncomingStreamHandler handler = IncomingStreamHandler.REFUSE_INCOMING_STREAMS;
+    private int initialWindowSize = Settings.DEFAULT_INITIAL_WINDOW_SIZE;
+    private int maxWindowSize = Settings.DEFAULT_MAX_WINDOW_SIZE;
+    private int connectionWindowSize = Settings.DEFAULT_CONNECTION_WINDOW_SIZE;
     public boolean client;
 
     public Builder(boolean client, Socket socket) throws IOException {
@@ -411,6 +537,40 @@ public final class SpdyConnection implements Closeable {
       return this;
     }
 
+    /**
+     * Sets the receive window of each stream when it is created. The peer is
+     * sent the size if it differs from the spdy/3 default.
+     */
+    public Builder initialWindowSize(int initialWindowSize) {
+      if (initialWindowSize <= 0) {
+        throw new IllegalArgumentException("initialWindowSize <= 0");
+      }
+      this.initialWindowSize = initialWindowSize;
+      return this;
+    }
+
+    /**
+     * Sets the size that a stream's receive window may grow to when the
+     * window limits the stream's throughput. Growth is disabled if this is no
+     * larger than the initial window.
+     */
+    public Builder maxWindowSize(int maxWindowSize) {
+      this.maxWindowSize = maxWindowSize;
+      return this;
+    }
+
+    /**
+     * Sets the limit on the receive windows of all streams combined. Streams
+     * are always given their initial window; this bounds how far they grow.
+     */
+    public Builder connectionWindowSize(int connectionWindowSize) {
+      if (connectionWindowSize < 0) {
+        throw new IllegalArgumentException("connectionWindowSize < 0");
+      }
+      this.connectionWindowSize = connectionWindowSize;
+      return this;
+    }
+
     public SpdyConnection build() {
       return new SpdyConnection(this);
     }
@@ -433,6 +593,7 @@ public final class SpdyConnection implements Closeable {
           close(shutdownStatusCode, rstStatusCode);
         } catch (IOException ignored) {
         }
+        spdyReader.recycle();
       }
     }
 
@@ -464,6 +625,10 @@ public final class SpdyConnection implements Closeable {
         }
         lastGoodStreamId = streamId;
         previous = streams.put(streamId, synStream);
+        receiveWindowTotal += synStream.getReceiveWindowSize();
+        if (previous != null) {
+          receiveWindowTotal -= previous.getReceiveWindowSize();
+        }
       }
       if (previous != null) {
         previous.closeLater(SpdyStream.RST_PROTOCOL_ERROR);
@@ -544,7 +709,7 @@ public final class SpdyConnection implements Closeable {
       if (client != (streamId % 2 == 1)) {
         // Respond to a client ping if this is a server and vice versa.
         writePingLater(streamId, null);
-      } else {
+      } else if (!receiveRoundTrip(streamId)) {
         Ping ping = removePing(streamId);
         if (ping != null) {
           ping.receive();
@@ -563,6 +728,7 @@ public final class SpdyConnection implements Closeable {
           int streamId = entry.getKey();
           if (streamId > lastGoodStreamId && entry.getValue().isLocallyInitiated()) {
             entry.getValue().receiveRstStream(SpdyStream.RST_REFUSED_STREAM);
+            receiveWindowTotal -= entry.getValue().getReceiveWindowSize();
             i.remove();
           }
         }
@@ -576,4 +742,196 @@ public final class SpdyConnection implements Closeable {
       }
     }
   }
+
+  /**
+   * A frame waiting to be written by the writer thread. Threads that need to
+   * observe the outcome of the write {@link #await} it.
+   */
+  private abstract static class Frame {
+    /** The queue of control frames, which are written before any data. */
+    static final int CONTROL = -1;
+
+    /** The number of bytes assumed for a frame that doesn't know its length. */
+    static final int CONTROL_LENGTH = 16;
+
+    final int type;
+    final int streamId;
+
+    /** {@link #CONTROL}, or the priority of a data frame's stream. */
+    final int priority;
+    final int length;
+
+    private boolean done;
+    private IOException failure;
+
+    Frame(int type, int streamId, int priority) {
+      this(type, streamId, priority, CONTROL_LENGTH);
+    }
+
+    Frame(int type, int streamId, int priority, int length) {
+      this.type = type;
+      this.streamId = streamId;
+      this.priority = priority;
+      this.length = length;
+    }
+
+    abstract void write(SpdyWriter spdyWriter) throws IOException;
+
+    synchronized void complete(IOException failure) {
+      this.failure = failure;
+      this.done = true;
+      notifyAll();
+    }
+
+    /**
+     * Blocks until this frame has been written and flushed.
+     *
+     * @throws IOException if the frame could not be written.
+     */
+    synchronized void await() throws IOException {
+      // Data frames reference the caller's buffer, so we can't give up on
+      // them early. The writer always completes its frames, even when it fails.
+      boolean interrupted = false;
+      while (!done) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  /**
+   * Writes enqueued frames to the socket from a dedicated thread. Control
+   * frames are written in the order they were enqueued, ahead of any data
+   * frames; data frames are written in order of their stream's priority, and
+   * in the order they were enqueued within a priority. Each batch of frames
+   * is flushed once, so concurrent streams share fewer, larger writes.
+   */
+  private final class Writer implements Runnable {
+    /** Stop taking frames for a batch once it holds this many bytes. */
+    private static final int MAX_BATCH_LENGTH = 16 * 1024;
+
+    /** The control queue, then one queue per SPDY priority, 0 (highest) to 7. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final LinkedList<Frame>[] queues = new LinkedList[9];
+    private int queuedCount;
+    private boolean closed;
+
+    /** Non-null once the writer has stopped. */
+    private IOException failure;
+
+    Writer() {
+      for (int i = 0; i < queues.length; i++) {
+        queues[i] = new LinkedList<Frame>();
+      }
+    }
+
+    /** Enqueues {@code frame} and returns it. Never blocks. */
+    synchronized Frame enqueue(Frame frame) {
+      if (failure != null) {
+        frame.complete(failure);
+        return frame;
+      }
+      if (closed) {
+        frame.complete(new IOException("closed"));
+        return frame;
+      }
+      if (frame.type == TYPE_RST_STREAM) {
+        // Don't write data the peer will only reject once the stream is reset.
+        dropData(frame.streamId, new IOException("stream was reset"));
+      }
+      queues[frame.priority + 1].add(frame);
+      queuedCount++;
+      notifyAll();
+      return frame;
+    }
+
+    private void dropData(int streamId, IOException failure) {
+      for (int i = 1; i < queues.length; i++) {
+        for (Iterator<Frame> f = queues[i].iterator(); f.hasNext(); ) {
+          Frame frame = f.next();
+          if (frame.streamId == streamId) {
+            f.remove();
+            queuedCount--;
+            frame.complete(failure);
+          }
+        }
+      }
+    }
+
+    /** Stops the writer once it has written the frames enqueued so far. */
+    synchronized void close() {
+      closed = true;
+      notifyAll();
+    }
+
+    @Override public void run() {
+      IOException thrown = null;
+      List<Frame> batch = new ArrayList<Frame>();
+      try {
+        while (true) {
+          synchronized (this) {
+            while (queuedCount == 0 && !closed) {
+              wait();
+            }
+            if (queuedCount == 0) {
+              break;
+            }
+            takeBatch(batch);
+          }
+
+          try {
+            for (Frame frame : batch) {
+              frame.write(spdyWriter);
+            }
+            spdyWriter.flush();
+          } catch (IOException e) {
+            thrown = e;
+          }
+          for (Frame frame : batch) {
+            frame.complete(thrown);
+          }
+          batch.clear();
+          if (thrown != null) {
+            break;
+          }
+        }
+      } catch (InterruptedException e) {
+        thrown = new InterruptedIOException();
+      } finally {
+        synchronized (this) {
+          failure = thrown != null ? thrown : new IOException("closed");
+          for (LinkedList<Frame> queue : queues) {
+            for (Frame frame : queue) {
+              frame.complete(failure);
+            }
+            queue.clear();
+          }
+          queuedCount = 0;
+        }
+        Util.closeQuietly(spdyWriter);
+      }
+    }
+
+    /** Moves the next frames to write, in order, from the queues to {@code batch}. */
+    private void takeBatch(List<Frame> batch) {
+      int length = 0;
+      for (LinkedList<Frame> queue : queues) {
+        while (!queue.isEmpty() && length < MAX_BATCH_LENGTH) {
+          Frame frame = queue.removeFirst();
+          batch.add(frame);
+          length += frame.length;
+          queuedCount--;
+        }
+      }
+    }
+  }
 }
@@ -74,11 +74,16 @@ final class SpdyReader implements Closeable {
   }
 
   private final DataInputStream in;
+  private final Inflater inflater;
   private final DataInputStream nameValueBlockIn;
   private int compressedLimit;
 
+  /** Reused to decode names and values. Grows to fit the longest. */
+  private byte[] stringBuffer = new byte[64];
+
   SpdyReader(InputStream in) {
     this.in = new DataInputStream(in);
+    this.inflater = ZlibPool.takeInflater();
     this.nameValueBlockIn = newNameValueBlockStream();
   }
 
@@ -220,19 +225,6 @@ final class SpdyReader implements Closeable {
       }
     };
 
-    // Subclass inflater to install a dictionary when it's needed.
-    Inflater inflater = new Inflater() {
-      @Override
-      public int inflate(byte[] buffer, int offset, int count) throws DataFormatException {
-        int result = super.inflate(buffer, offset, count);
-        if (result == 0 && needsDictionary()) {
-          setDictionary(DICTIONARY);
-          result = super.inflate(buffer, offset, count);
-        }
-        return result;
-      }
-    };
-
     return new DataInputStream(new InflaterInputStream(throttleStream, inflater));
   }
 
@@ -266,9 +258,13 @@ final class SpdyReader implements Closeable {
 
   private String readString() throws DataFormatException, IOException {
     int length = nameValueBlockIn.readInt();
-    byte[] bytes = new byte[length];
-    Util.readFully(nameValueBlockIn, bytes);
-    return new String(bytes, 0, length, "UTF-8");
+    if (length < 0) throw ioException("string length < 0: %d", length);
+    if (length > stringBuffer.length) {
+      stringBuffer = new byte[Math.max(length, stringBuffer.length * 2)];
+    }
+    Util.readFully(nameValueBlockIn, stringBuffer, 0, length);
+    String common = HeaderStrings.lookup(stringBuffer, length);
+    return common != null ? common : new String(stringBuffer, 0, length, "UTF-8");
   }
 
   private void readPing(Handler handler, int flags, int length) throws IOException {
@@ -304,8 +300,21 @@ final class SpdyReader implements Closeable {
     throw new IOException(String.format(message, args));
   }
 
+  /**
+   * Closes the input, which makes a blocked {@link #nextFrame} fail. The
+   * inflater stream isn't closed, since that would end the inflater; it is
+   * released by {@link #recycle}.
+   */
   @Override public void close() throws IOException {
-    Util.closeAll(in, nameValueBlockIn);
+    in.close();
+  }
+
+  /**
+   * Recycles the inflater. Must only be called by the thread that reads
+   * frames, once it has stopped.
+   */
+  void recycle() {
+    ZlibPool.recycle(inflater);
   }
 
   public interface Handler {
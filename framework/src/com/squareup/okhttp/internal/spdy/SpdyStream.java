@@ -66,9 +66,10 @@ public final class SpdyStream {
 
   /**
    * The number of unacknowledged bytes at which the input stream will send
-   * the peer a {@code WINDOW_UPDATE} frame. Must be less than this client's
-   * window size, otherwise the remote peer will stop sending data on this
-   * stream. (Chrome 25 uses 5 MiB.)
+   * the peer a {@code WINDOW_UPDATE} frame, for a stream with the default
+   * window size. Streams send the update at half of their current receive
+   * window, otherwise the remote peer will stop sending data on the stream.
+   * (Chrome 25 uses 5 MiB.)
    */
   public static final int WINDOW_UPDATE_THRESHOLD = Settings.DEFAULT_INITIAL_WINDOW_SIZE / 2;
 
@@ -79,6 +80,13 @@ public final class SpdyStream {
   private long readTimeoutMillis = 0;
   private int writeWindowSize;
 
+  /**
+   * The number of bytes the peer may send before waiting for a {@code
+   * WINDOW_UPDATE}, counting bytes not yet acknowledged. Only changed by the
+   * reader thread, as it grows, while holding the connection's lock.
+   */
+  private volatile int receiveWindowSize;
+
   /** Headers sent by the stream initiator. Immutable and non null. */
   private final List<String> requestHeaders;
 
@@ -104,6 +112,7 @@ public final class SpdyStream {
     this.priority = priority;
     this.slot = slot;
     this.requestHeaders = requestHeaders;
+    this.receiveWindowSize = connection.initialWindowSize;
 
     if (isLocallyInitiated()) {
       // I am the sender
@@ -373,6 +382,42 @@ public final class SpdyStream {
     return priority;
   }
 
+  /** Returns the number of data bytes received from the peer on this stream. */
+  public synchronized long getBytesReceived() {
+    return in.bytesReceived;
+  }
+
+  /** Returns the number of data bytes written to the peer on this stream. */
+  public synchronized long getBytesSent() {
+    return out.bytesSent;
+  }
+
+  /**
+   * Returns the size of this stream's receive window in bytes. The window
+   * grows while it limits the rate at which the peer can send.
+   */
+  public int getReceiveWindowSize() {
+    return receiveWindowSize;
+  }
+
+  void setReceiveWindowSize(int receiveWindowSize) {
+    assert (Thread.holdsLock(connection));
+    this.receiveWindowSize = receiveWindowSize;
+  }
+
+  /**
+   * Returns the rate at which data was received on this stream, in bytes per
+   * second, between the first and the last data frame. Returns 0 until two
+   * data frames have been received.
+   */
+  public synchronized long getReceiveBytesPerSecond() {
+    long elapsedNs = in.lastReceivedNs - in.firstReceivedNs;
+    if (elapsedNs <= 0) {
+      return 0;
+    }
+    return (long) (in.bytesReceived * 1e9 / elapsedNs);
+  }
+
   int getSlot() {
     return slot;
   }
@@ -395,7 +440,11 @@ public final class SpdyStream {
     //         ^       ^
     //       limit    pos
 
-    private final byte[] buffer = new byte[Settings.DEFAULT_INITIAL_WINDOW_SIZE];
+    /**
+     * Allocated when the first data frame arrives. Only replaced by the
+     * reader thread, while holding the lock, when the window grows.
+     */
+    private byte[] buffer;
 
     /** the next byte to be read, or -1 if the buffer is empty. Never buffer.length */
     private int pos = -1;
@@ -419,6 +468,16 @@ public final class SpdyStream {
      */
     private int unacknowledgedBytes = 0;
 
+    private long bytesReceived;
+    private long firstReceivedNs;
+    private long lastReceivedNs;
+
+    // The bytes received over at least one round trip, to tell whether the
+    // window limits the peer. Only used by the reader thread.
+    private boolean sampling;
+    private long sampleStartNs;
+    private long sampleStartBytes;
+
     @Override public int available() throws IOException {
       synchronized (SpdyStream.this) {
         checkNotClosed();
@@ -469,7 +528,7 @@ public final class SpdyStream {
 
         // Flow control: notify the peer that we're ready for more data!
         unacknowledgedBytes += copied;
-        if (unacknowledgedBytes >= WINDOW_UPDATE_THRESHOLD) {
+        if (unacknowledgedBytes >= receiveWindowSize / 2) {
           connection.writeWindowUpdateLater(id, unacknowledgedBytes);
           unacknowledgedBytes = 0;
         }
@@ -523,7 +582,13 @@ public final class SpdyStream {
       int firstNewByte;
       boolean finished;
       boolean flowControlError;
+      int length = byteCount;
+      byte[] buffer;
       synchronized (SpdyStream.this) {
+        if (this.buffer == null) {
+          this.buffer = new byte[receiveWindowSize];
+        }
+        buffer = this.buffer;
         finished = this.finished;
         pos = this.pos;
         firstNewByte = this.limit;
@@ -568,7 +633,79 @@ public final class SpdyStream {
           this.pos = firstNewByte;
           SpdyStream.this.notifyAll();
         }
+
+        long now = System.nanoTime();
+        if (bytesReceived == 0) {
+          firstReceivedNs = now;
+        }
+        lastReceivedNs = now;
+        bytesReceived += length;
+        growWindowIfLimited(now);
+      }
+    }
+
+    /**
+     * Grows the receive window when the peer sent most of it in each round
+     * trip, which means the window rather than the link limits throughput.
+     * The window is sized from the measured bandwidth-delay product, at least
+     * doubling each time, up to the connection's limits.
+     */
+    private void growWindowIfLimited(long now) {
+      assert (Thread.holdsLock(SpdyStream.this));
+      int windowSize = receiveWindowSize;
+      if (windowSize >= connection.maxWindowSize) {
+        return;
+      }
+      long roundTripTimeNs = connection.roundTripTimeNs();
+      if (roundTripTimeNs <= 0) {
+        return;
+      }
+      if (!sampling) {
+        sampling = true;
+        sampleStartNs = now;
+        sampleStartBytes = bytesReceived;
+        return;
+      }
+      long elapsedNs = now - sampleStartNs;
+      if (elapsedNs < roundTripTimeNs) {
+        return;
+      }
+      long bytesPerRoundTrip = (bytesReceived - sampleStartBytes) * roundTripTimeNs / elapsedNs;
+      sampleStartNs = now;
+      sampleStartBytes = bytesReceived;
+      if (bytesPerRoundTrip * 4 < windowSize * 3L) {
+        return;
+      }
+
+      long target = Math.min(connection.maxWindowSize,
+          Math.max(windowSize * 2L, bytesPerRoundTrip * 2));
+      int growth = connection.growReceiveWindow(id, SpdyStream.this, (int) (target - windowSize));
+      if (growth == 0) {
+        return;
+      }
+      growBuffer(windowSize + growth);
+      // The peer adds the delta to the stream's window.
+      connection.writeWindowUpdateLater(id, growth);
+    }
+
+    /** Replaces the buffer with a larger one, moving unread bytes to its start. */
+    private void growBuffer(int size) {
+      byte[] grown = new byte[size];
+      if (pos != -1) {
+        int count;
+        if (limit > pos) {
+          count = limit - pos;
+          System.arraycopy(buffer, pos, grown, 0, count);
+        } else {
+          int firstCount = buffer.length - pos;
+          System.arraycopy(buffer, pos, grown, 0, firstCount);
+          System.arraycopy(buffer, 0, grown, firstCount, limit);
+          count = firstCount + limit;
+        }
+        pos = 0;
+        limit = count;
       }
+      buffer = grown;
     }
 
     @Override public void close() throws IOException {
@@ -632,6 +769,9 @@ public final class SpdyStream {
      */
     private int unacknowledgedBytes = 0;
 
+    /** The total number of bytes committed to data frames. */
+    private long bytesSent;
+
     @Override public void write(int b) throws IOException {
       Util.writeSingleByte(this, b);
     }
@@ -658,7 +798,6 @@ public final class SpdyStream {
       checkNotClosed();
       if (pos > DATA_FRAME_HEADER_LENGTH) {
         writeFrame(false);
-        connection.flush();
       }
     }
 
@@ -671,7 +810,6 @@ public final class SpdyStream {
         closed = true;
       }
       writeFrame(true);
-      connection.flush();
       cancelStreamIfNecessary();
     }
 
@@ -682,6 +820,7 @@ public final class SpdyStream {
       synchronized (SpdyStream.this) {
         waitUntilWritable(length, last);
         unacknowledgedBytes += length;
+        bytesSent += length;
       }
       int flags = 0;
       if (last) {
@@ -689,7 +828,7 @@ public final class SpdyStream {
       }
       pokeInt(buffer, 0, id & 0x7fffffff, BIG_ENDIAN);
       pokeInt(buffer, 4, (flags & 0xff) << 24 | length & 0xffffff, BIG_ENDIAN);
-      connection.writeFrame(buffer, 0, pos);
+      connection.writeFrame(id, priority, buffer, 0, pos);
       pos = DATA_FRAME_HEADER_LENGTH;
     }
 
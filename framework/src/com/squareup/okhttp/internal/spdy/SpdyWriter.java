@@ -17,7 +17,7 @@
 package com.squareup.okhttp.internal.spdy;
 
 import com.squareup.okhttp.internal.Platform;
-import com.squareup.okhttp.internal.Util;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.DataOutputStream;
@@ -26,17 +26,25 @@ import java.io.OutputStream;
 import java.util.List;
 import java.util.zip.Deflater;
 
-/** Write spdy/3 frames. */
+/**
+ * Write spdy/3 frames. Frames are buffered until {@link #flush} is called, so
+ * that several frames can share a write to the socket.
+ */
 final class SpdyWriter implements Closeable {
+  private static final int BUFFER_SIZE = 8192;
+
   final DataOutputStream out;
+  private final Deflater deflater;
   private final ByteArrayOutputStream nameValueBlockBuffer;
   private final DataOutputStream nameValueBlockOut;
 
+  /** Reused to encode ASCII names and values. Grows to fit the longest. */
+  private byte[] stringBuffer = new byte[64];
+
   SpdyWriter(OutputStream out) {
-    this.out = new DataOutputStream(out);
+    this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
 
-    Deflater deflater = new Deflater();
-    deflater.setDictionary(SpdyReader.DICTIONARY);
+    deflater = ZlibPool.takeDeflater();
     nameValueBlockBuffer = new ByteArrayOutputStream();
     nameValueBlockOut = new DataOutputStream(
         Platform.get().newDeflaterOutputStream(nameValueBlockBuffer, deflater, true));
@@ -55,7 +63,6 @@ final class SpdyWriter implements Closeable {
     out.writeInt(associatedStreamId & 0x7fffffff);
     out.writeShort((priority & 0x7) << 13 | (unused & 0x1f) << 8 | (slot & 0xff));
     nameValueBlockBuffer.writeTo(out);
-    out.flush();
   }
 
   public synchronized void synReply(int flags, int streamId, List<String> nameValueBlock)
@@ -68,7 +75,6 @@ final class SpdyWriter implements Closeable {
     out.writeInt((flags & 0xff) << 24 | length & 0xffffff);
     out.writeInt(streamId & 0x7fffffff);
     nameValueBlockBuffer.writeTo(out);
-    out.flush();
   }
 
   public synchronized void headers(int flags, int streamId, List<String> nameValueBlock)
@@ -81,7 +87,6 @@ final class SpdyWriter implements Closeable {
     out.writeInt((flags & 0xff) << 24 | length & 0xffffff);
     out.writeInt(streamId & 0x7fffffff);
     nameValueBlockBuffer.writeTo(out);
-    out.flush();
   }
 
   public synchronized void rstStream(int streamId, int statusCode) throws IOException {
@@ -92,7 +97,6 @@ final class SpdyWriter implements Closeable {
     out.writeInt((flags & 0xff) << 24 | length & 0xffffff);
     out.writeInt(streamId & 0x7fffffff);
     out.writeInt(statusCode);
-    out.flush();
   }
 
   public synchronized void data(int flags, int streamId, byte[] data) throws IOException {
@@ -100,7 +104,6 @@ final class SpdyWriter implements Closeable {
     out.writeInt(streamId & 0x7fffffff);
     out.writeInt((flags & 0xff) << 24 | length & 0xffffff);
     out.write(data);
-    out.flush();
   }
 
   private void writeNameValueBlockToBuffer(List<String> nameValueBlock) throws IOException {
@@ -108,12 +111,30 @@ final class SpdyWriter implements Closeable {
     int numberOfPairs = nameValueBlock.size() / 2;
     nameValueBlockOut.writeInt(numberOfPairs);
     for (String s : nameValueBlock) {
-      nameValueBlockOut.writeInt(s.length());
-      nameValueBlockOut.write(s.getBytes("UTF-8"));
+      writeString(s);
     }
     nameValueBlockOut.flush();
   }
 
+  private void writeString(String s) throws IOException {
+    int length = s.length();
+    if (length > stringBuffer.length) {
+      stringBuffer = new byte[Math.max(length, stringBuffer.length * 2)];
+    }
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c >= 0x80) {
+        byte[] bytes = s.getBytes("UTF-8");
+        nameValueBlockOut.writeInt(bytes.length);
+        nameValueBlockOut.write(bytes);
+        return;
+      }
+      stringBuffer[i] = (byte) c;
+    }
+    nameValueBlockOut.writeInt(length);
+    nameValueBlockOut.write(stringBuffer, 0, length);
+  }
+
   public synchronized void settings(int flags, Settings settings) throws IOException {
     int type = SpdyConnection.TYPE_SETTINGS;
     int size = settings.size();
@@ -127,7 +148,6 @@ final class SpdyWriter implements Closeable {
       out.writeInt((settingsFlags & 0xff) << 24 | (i & 0xffffff));
       out.writeInt(settings.get(i));
     }
-    out.flush();
   }
 
   public synchronized void noop() throws IOException {
@@ -136,7 +156,6 @@ final class SpdyWriter implements Closeable {
     int flags = 0;
     out.writeInt(0x80000000 | (SpdyConnection.VERSION & 0x7fff) << 16 | type & 0xffff);
     out.writeInt((flags & 0xff) << 24 | length & 0xffffff);
-    out.flush();
   }
 
   public synchronized void ping(int flags, int id) throws IOException {
@@ -145,7 +164,6 @@ final class SpdyWriter implements Closeable {
     out.writeInt(0x80000000 | (SpdyConnection.VERSION & 0x7fff) << 16 | type & 0xffff);
     out.writeInt((flags & 0xff) << 24 | length & 0xffffff);
     out.writeInt(id);
-    out.flush();
   }
 
   public synchronized void goAway(int flags, int lastGoodStreamId, int statusCode)
@@ -156,7 +174,6 @@ final class SpdyWriter implements Closeable {
     out.writeInt((flags & 0xff) << 24 | length & 0xffffff);
     out.writeInt(lastGoodStreamId);
     out.writeInt(statusCode);
-    out.flush();
   }
 
   public synchronized void windowUpdate(int streamId, int deltaWindowSize) throws IOException {
@@ -167,10 +184,22 @@ final class SpdyWriter implements Closeable {
     out.writeInt((flags & 0xff) << 24 | length & 0xffffff);
     out.writeInt(streamId);
     out.writeInt(deltaWindowSize);
+  }
+
+  public synchronized void flush() throws IOException {
     out.flush();
   }
 
+  /**
+   * Closes the output and recycles the deflater, which must not be used
+   * afterwards. The deflater stream isn't closed, since that would end the
+   * deflater.
+   */
   @Override public void close() throws IOException {
-    Util.closeAll(out, nameValueBlockOut);
+    try {
+      out.close();
+    } finally {
+      ZlibPool.recycle(deflater);
+    }
   }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.okhttp.internal.spdy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Recycles the zlib streams of closed connections. Each connection compresses
+ * its name/value blocks with one deflater and one inflater, which hold
+ * hundreds of kilobytes of native memory between them. Reusing them saves
+ * short-lived connections from allocating that memory each time.
+ *
+ * <p>A zlib stream carries its connection's compression context, so it is
+ * only used by one connection at a time and is reset when recycled.
+ */
+final class ZlibPool {
+  /** The most zlib streams of each kind kept for reuse. */
+  private static final int MAX_IDLE = 4;
+
+  private static final List<Deflater> deflaters = new ArrayList<Deflater>();
+  private static final List<Inflater> inflaters = new ArrayList<Inflater>();
+
+  private ZlibPool() {
+  }
+
+  /** Returns a deflater primed with the spdy/3 dictionary. */
+  static Deflater takeDeflater() {
+    Deflater deflater = null;
+    synchronized (deflaters) {
+      if (!deflaters.isEmpty()) {
+        deflater = deflaters.remove(deflaters.size() - 1);
+      }
+    }
+    if (deflater == null) {
+      deflater = new Deflater();
+    }
+    deflater.setDictionary(SpdyReader.DICTIONARY);
+    return deflater;
+  }
+
+  /** Returns an inflater that installs the spdy/3 dictionary when needed. */
+  static Inflater takeInflater() {
+    synchronized (inflaters) {
+      if (!inflaters.isEmpty()) {
+        return inflaters.remove(inflaters.size() - 1);
+      }
+    }
+    return new DictionaryInflater();
+  }
+
+  /** Resets {@code deflater} for another connection, or frees it if enough are idle. */
+  static void recycle(Deflater deflater) {
+    deflater.reset();
+    synchronized (deflaters) {
+      if (deflaters.size() < MAX_IDLE) {
+        deflaters.add(deflater);
+        return;
+      }
+    }
+    deflater.end();
+  }
+
+  /** Resets {@code inflater} for another connection, or frees it if enough are idle. */
+  static void recycle(Inflater inflater) {
+    inflater.reset();
+    synchronized (inflaters) {
+      if (inflaters.size() < MAX_IDLE) {
+        inflaters.add(inflater);
+        return;
+      }
+    }
+    inflater.end();
+  }
+
+  /** Installs the dictionary when the stream asks for it. */
+  private static final class DictionaryInflater extends Inflater {
+    @Override public int inflate(byte[] buffer, int offset, int count)
+        throws DataFormatException {
+      int result = super.inflate(buffer, offset, count);
+      if (result == 0 && needsDictionary()) {
+        setDictionary(SpdyReader.DICTIONARY);
+        result = super.inflate(buffer, offset, count);
+      }
+      return result;
+    }
+  }
+}
@@ -18,8 +18,6 @@
 */
 package org.apache.cordova;
 
-import java.util.List;
-
 import org.apache.cordova.api.CallbackContext;
 import org.apache.cordova.api.CordovaInterface;
 import org.apache.cordova.api.CordovaPlugin;
@@ -28,10 +26,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
 import android.os.Handler;
@@ -40,8 +35,16 @@ import android.os.Looper;
 /**
  * This class listens to the accelerometer sensor and stores the latest
  * acceleration values x,y,z.
+ * <p>
+ * start() takes an optional options object.  Its frequency, in Hz, sets the sampling
+ * delay the sensor is registered with; without it SENSOR_DELAY_UI is used.  A positive
+ * batchInterval, in msec, switches to batched mode: samples are buffered and sent every
+ * batchInterval as one packed result of timestamp,x,y,z per sample, either as an array of
+ * numbers or, if binary is set, as an ArrayBuffer of little endian doubles.
+ * <p>
+ * The sensor is registered through the SensorHub, shared with any other listener.
  */
-public class AccelListener extends CordovaPlugin implements SensorEventListener {
+public class AccelListener extends CordovaPlugin implements SensorHub.Listener {
 
     public static int STOPPED = 0;
     public static int STARTING = 1;
@@ -51,13 +54,26 @@ public class AccelListener extends CordovaPlugin implements SensorEventListener
     private float x,y,z;                                // most recent acceleration values
     private long timestamp;                         // time of most recent value
     private int status;                                 // status of listener
-    private int accuracy = SensorManager.SENSOR_STATUS_UNRELIABLE;
 
-    private SensorManager sensorManager;    // Sensor manager
-    private Sensor mSensor;                           // Acceleration sensor returned by sensor manager
+    private SensorHub sensorHub;                      // Shared sensor registrations
 
     private CallbackContext callbackContext;              // Keeps track of the JS callback context.
 
+    private int frequency;                          // requested sampling rate in Hz, 0 for SENSOR_DELAY_UI
+    private int batchInterval;                      // msec between batches, 0 to send every sample
+    private boolean binary;                         // whether batches are sent as ArrayBuffers
+    private SensorSampleBuffer samples;             // samples waiting for the next batch
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flush = new Runnable() {
+        public void run() {
+            AccelListener.this.flush();
+            if (AccelListener.this.status != AccelListener.STOPPED) {
+                handler.postDelayed(this, AccelListener.this.batchInterval);
+            }
+        }
+    };
+
     /**
      * Create an accelerometer listener.
      */
@@ -79,7 +95,7 @@ public class AccelListener extends CordovaPlugin implements SensorEventListener
     @Override
     public void initialize(CordovaInterface cordova, CordovaWebView webView) {
         super.initialize(cordova, webView);
-        this.sensorManager = (SensorManager) cordova.getActivity().getSystemService(Context.SENSOR_SERVICE);
+        this.sensorHub = SensorHub.getInstance(cordova.getActivity());
     }
 
     /**
@@ -94,7 +110,13 @@ public class AccelListener extends CordovaPlugin implements SensorEventListener
         PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT, "");
         
         if (action.equals("start")) {
+            // Samples buffered under the old options go to the callback that asked for them
+            this.flush();
             this.callbackContext = callbackContext;
+            if (this.setOptions(args.optJSONObject(0)) && this.status != AccelListener.STOPPED) {
+                // Re-register with the new sampling rate
+                this.stop();
+            }
             if (this.status != AccelListener.RUNNING) {
                 // If not running, then this is an async call, so don't worry about waiting
                 // We drop the callback onto our stack, call start, and let start and the sensor callback fire off the callback down the road
@@ -125,6 +147,19 @@ public class AccelListener extends CordovaPlugin implements SensorEventListener
         this.stop();
     }
 
+    /**
+     * Unregister the sensors while the activity is in the background.
+     */
+    @Override
+    public void onPause(boolean multitasking) {
+        this.sensorHub.pause();
+    }
+
+    @Override
+    public void onResume(boolean multitasking) {
+        this.sensorHub.resume();
+    }
+
     //--------------------------------------------------------------------------
     // LOCAL METHODS
     //--------------------------------------------------------------------------
@@ -142,14 +177,12 @@ public class AccelListener extends CordovaPlugin implements SensorEventListener
 
         this.setStatus(AccelListener.STARTING);
 
-        // Get accelerometer from sensor manager
-        List<Sensor> list = this.sensorManager.getSensorList(Sensor.TYPE_ACCELEROMETER);
-
-        // If found, then register as listener
-        if ((list != null) && (list.size() > 0)) {
-          this.mSensor = list.get(0);
-          this.sensorManager.registerListener(this, this.mSensor, SensorManager.SENSOR_DELAY_UI);
+        // Register with the hub, if the device has an accelerometer
+        if (this.sensorHub.addListener(Sensor.TYPE_ACCELEROMETER, this, this.getSensorDelay(), 0)) {
           this.setStatus(AccelListener.STARTING);
+          if (this.batchInterval > 0) {
+              this.handler.postDelayed(this.flush, this.batchInterval);
+          }
         } else {
           this.setStatus(AccelListener.ERROR_FAILED_TO_START);
           this.fail(AccelListener.ERROR_FAILED_TO_START, "No sensors found to register accelerometer listening to.");
@@ -157,8 +190,7 @@ public class AccelListener extends CordovaPlugin implements SensorEventListener
         }
 
         // Set a timeout callback on the main thread.
-        Handler handler = new Handler(Looper.getMainLooper());
-        handler.postDelayed(new Runnable() {
+        this.handler.postDelayed(new Runnable() {
             public void run() {
                 AccelListener.this.timeout();
             }
@@ -172,10 +204,11 @@ public class AccelListener extends CordovaPlugin implements SensorEventListener
      */
     private void stop() {
         if (this.status != AccelListener.STOPPED) {
-            this.sensorManager.unregisterListener(this);
+            this.sensorHub.removeListener(Sensor.TYPE_ACCELEROMETER, this);
+            this.handler.removeCallbacks(this.flush);
+            this.flush();
         }
         this.setStatus(AccelListener.STOPPED);
-        this.accuracy = SensorManager.SENSOR_STATUS_UNRELIABLE;
     }
 
     /**
@@ -190,49 +223,31 @@ public class AccelListener extends CordovaPlugin implements SensorEventListener
         }
     }
 
-    /**
-     * Called when the accuracy of the sensor has changed.
-     *
-     * @param sensor
-     * @param accuracy
-     */
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-        // Only look at accelerometer events
-        if (sensor.getType() != Sensor.TYPE_ACCELEROMETER) {
-            return;
-        }
-
-        // If not running, then just return
-        if (this.status == AccelListener.STOPPED) {
-            return;
-        }
-        this.accuracy = accuracy;
-    }
-
     /**
      * Sensor listener event.
      *
-     * @param SensorEvent event
+     * @param type          The sensor type.
+     * @param timestamp     Time of the sample in msec since the epoch.
+     * @param values        The acceleration along x, y and z.
+     * @param accuracy      The accuracy of the sensor.
      */
-    public void onSensorChanged(SensorEvent event) {
-        // Only look at accelerometer events
-        if (event.sensor.getType() != Sensor.TYPE_ACCELEROMETER) {
-            return;
-        }
-
+    public void onSample(int type, long timestamp, float[] values, int accuracy) {
         // If not running, then just return
         if (this.status == AccelListener.STOPPED) {
             return;
         }
         this.setStatus(AccelListener.RUNNING);
 
-        if (this.accuracy >= SensorManager.SENSOR_STATUS_ACCURACY_MEDIUM) {
-
-            // Save time that event was received
-            this.timestamp = System.currentTimeMillis();
-            this.x = event.values[0];
-            this.y = event.values[1];
-            this.z = event.values[2];
+        if (accuracy < SensorManager.SENSOR_STATUS_ACCURACY_MEDIUM) {
+            return;
+        }
+        if (this.batchInterval > 0) {
+            this.samples.add(timestamp, values);
+        } else {
+            this.timestamp = timestamp;
+            this.x = values[0];
+            this.y = values[1];
+            this.z = values[2];
 
             this.win();
         }
@@ -263,6 +278,61 @@ public class AccelListener extends CordovaPlugin implements SensorEventListener
         callbackContext.sendPluginResult(err);
     }
 
+    /**
+     * Sends the buffered samples as one result.
+     */
+    private void flush() {
+        if (this.samples == null || this.callbackContext == null) {
+            return;
+        }
+        PluginResult result = this.samples.drain(this.binary);
+        if (result != null) {
+            result.setKeepCallback(true);
+            this.callbackContext.sendPluginResult(result);
+        }
+    }
+
+    /**
+     * Reads the options passed to start.
+     *
+     * @param options   The options, or null for the defaults.
+     * @return          Whether the sampling rate changed.
+     */
+    private boolean setOptions(JSONObject options) {
+        int oldFrequency = this.frequency;
+        int oldBatchInterval = this.batchInterval;
+        this.frequency = 0;
+        this.batchInterval = 0;
+        this.binary = false;
+        if (options != null) {
+            this.frequency = Math.max(0, options.optInt("frequency", 0));
+            this.batchInterval = Math.max(0, options.optInt("batchInterval", 0));
+            this.binary = options.optBoolean("binary", false);
+        }
+        if (this.batchInterval > 0) {
+            // Room for two batches at the expected rate, SENSOR_DELAY_UI is about 16 Hz
+            int rate = this.frequency > 0 ? this.frequency : 16;
+            int capacity = Math.max(32, (int) ((long) rate * this.batchInterval * 2 / 1000));
+            if (this.samples == null || this.samples.getCapacity() != capacity) {
+                this.samples = new SensorSampleBuffer(capacity, 3);
+            }
+        } else {
+            this.samples = null;
+        }
+        return this.frequency != oldFrequency || this.batchInterval != oldBatchInterval;
+    }
+
+    /**
+     * Converts the requested frequency to the delay in microseconds the sensor is
+     * registered with.
+     */
+    private int getSensorDelay() {
+        if (this.frequency <= 0) {
+            return SensorHub.DELAY_UI;
+        }
+        return 1000000 / this.frequency;
+    }
+
     private void win() {
         // Success return object
         PluginResult result = new PluginResult(PluginResult.Status.OK, this.getAccelerationJSON());
@@ -23,13 +23,20 @@ import org.apache.cordova.api.CordovaPlugin;
 
 import android.content.Context;
 import android.media.AudioManager;
+import android.os.Handler;
+import android.os.Looper;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.cordova.api.PluginResult;
 import org.json.JSONArray;
 import org.json.JSONException;
-import java.util.HashMap;
+import org.json.JSONObject;
+import android.util.Log;
 
 /**
  * This class called by CordovaActivity to play and record audio.
@@ -41,19 +48,49 @@ import java.util.HashMap;
  * Local audio files must reside in one of two places:
  * 		android_asset: 		file name must start with /android_asset/sound.mp3
  * 		sdcard:				file name is just sound.mp3
+ *
+ * Short sound effects can be preloaded into a SoundPool with preloadSound, after which
+ * playing them starts without preparing a MediaPlayer.  The MediaPlayers for everything
+ * else are kept in a pool of at most MaxMediaPlayers (a preference, 8 by default); when it
+ * is full the least recently used idle player is released, and recreated if used again.
+ *
+ * Instead of polling getCurrentPositionAudio for each player, JavaScript can call
+ * startPositionUpdates once: a single ticker then sends the position and state of every
+ * player that is running or changed state, all in one message per tick.
  */
 public class AudioHandler extends CordovaPlugin {
 
     public static String TAG = "AudioHandler";
-    HashMap<String, AudioPlayer> players;	// Audio player object
+    private static final int DEFAULT_MAX_PLAYERS = 8;
+
+    LinkedHashMap<String, AudioPlayer> players;	// Audio player object, least recently used first
     ArrayList<AudioPlayer> pausedForPhone;     // Audio players that were paused when phone call came in
+    SoundEffectPool soundEffects;               // Preloaded sound effects
+    private int maxPlayers = -1;
+
+    private static final int DEFAULT_POSITION_INTERVAL = 250;
+    private final Handler ticker = new Handler(Looper.getMainLooper());
+    private CallbackContext positionCallback;   // Receives the updates of the ticker
+    private int positionInterval;               // msec between ticks
+    private final HashMap<String, Integer> reportedStates = new HashMap<String, Integer>();
+    private final Runnable tick = new Runnable() {
+        public void run() {
+            sendPositionUpdates();
+        }
+    };
+
+    // Time from asking to play to playback starting, for MediaPlayers and the SoundPool
+    private final long[] latencyCount = new long[2];
+    private final long[] latencyTotal = new long[2];
+    private final long[] latencyMax = new long[2];
 
     /**
      * Constructor.
      */
     public AudioHandler() {
-        this.players = new HashMap<String, AudioPlayer>();
+        this.players = new LinkedHashMap<String, AudioPlayer>(16, 0.75f, true);
         this.pausedForPhone = new ArrayList<AudioPlayer>();
+        this.soundEffects = new SoundEffectPool(this);
     }
 
     /**
@@ -76,6 +113,31 @@ public class AudioHandler extends CordovaPlugin {
         else if (action.equals("startPlayingAudio")) {
             this.startPlayingAudio(args.getString(0), FileHelper.stripFileProtocol(args.getString(1)));
         }
+        else if (action.equals("preloadSound")) {
+            this.soundEffects.preload(args.getString(0), FileHelper.stripFileProtocol(args.getString(1)), callbackContext);
+            return true;
+        }
+        else if (action.equals("playSound")) {
+            boolean b = this.soundEffects.play(args.getString(0), (float) args.optDouble(1, 1.0));
+            callbackContext.sendPluginResult(new PluginResult(status, b));
+            return true;
+        }
+        else if (action.equals("unloadSound")) {
+            boolean b = this.soundEffects.unload(args.getString(0));
+            callbackContext.sendPluginResult(new PluginResult(status, b));
+            return true;
+        }
+        else if (action.equals("startPositionUpdates")) {
+            this.startPositionUpdates(args.optInt(0, DEFAULT_POSITION_INTERVAL), callbackContext);
+            return true;
+        }
+        else if (action.equals("stopPositionUpdates")) {
+            this.stopPositionUpdates();
+        }
+        else if (action.equals("getPlayMetrics")) {
+            callbackContext.success(this.getPlayMetrics());
+            return true;
+        }
         else if (action.equals("seekToAudio")) {
             this.seekToAudio(args.getString(0), args.getInt(1));
         }
@@ -104,7 +166,7 @@ public class AudioHandler extends CordovaPlugin {
             String id = args.getString(0);
             String src = FileHelper.stripFileProtocol(args.getString(1));
             AudioPlayer audio = new AudioPlayer(this, id, src);
-            this.players.put(id, audio);
+            this.addPlayer(id, audio);
         }
         else if (action.equals("release")) {
             boolean b = this.release(args.getString(0));
@@ -124,10 +186,14 @@ public class AudioHandler extends CordovaPlugin {
      * Stop all audio players and recorders.
      */
     public void onDestroy() {
-        for (AudioPlayer audio : this.players.values()) {
-            audio.destroy();
+        this.stopPositionUpdates();
+        synchronized (this.players) {
+            for (AudioPlayer audio : this.players.values()) {
+                audio.destroy();
+            }
+            this.players.clear();
         }
-        this.players.clear();
+        this.soundEffects.release();
     }
 
     /**
@@ -154,7 +220,7 @@ public class AudioHandler extends CordovaPlugin {
             if ("ringing".equals(data) || "offhook".equals(data)) {
 
                 // Get all audio players and pause them
-                for (AudioPlayer audio : this.players.values()) {
+                for (AudioPlayer audio : this.getPlayers()) {
                     if (audio.getState() == AudioPlayer.STATE.MEDIA_RUNNING.ordinal()) {
                         this.pausedForPhone.add(audio);
                         audio.pausePlaying();
@@ -183,11 +249,14 @@ public class AudioHandler extends CordovaPlugin {
      * @param id				The id of the audio player
      */
     private boolean release(String id) {
-        if (!this.players.containsKey(id)) {
-            return false;
+        boolean sound = this.soundEffects.unload(id);
+        AudioPlayer audio;
+        synchronized (this.players) {
+            audio = this.players.remove(id);
+        }
+        if (audio == null) {
+            return sound;
         }
-        AudioPlayer audio = this.players.get(id);
-        this.players.remove(id);
         audio.destroy();
         return true;
     }
@@ -198,10 +267,10 @@ public class AudioHandler extends CordovaPlugin {
      * @param file				The name of the file
      */
     public void startRecordingAudio(String id, String file) {
-        AudioPlayer audio = this.players.get(id);
+        AudioPlayer audio = this.getPlayer(id);
         if ( audio == null) {
             audio = new AudioPlayer(this, id, file);
-            this.players.put(id, audio);
+            this.addPlayer(id, audio);
         }
         audio.startRecording(file);
     }
@@ -211,7 +280,7 @@ public class AudioHandler extends CordovaPlugin {
      * @param id				The id of the audio player
      */
     public void stopRecordingAudio(String id) {
-        AudioPlayer audio = this.players.get(id);
+        AudioPlayer audio = this.getPlayer(id);
         if (audio != null) {
             audio.stopRecording();
         }
@@ -223,10 +292,14 @@ public class AudioHandler extends CordovaPlugin {
      * @param file				The name of the audio file.
      */
     public void startPlayingAudio(String id, String file) {
-        AudioPlayer audio = this.players.get(id);
+        // Preloaded sound effects skip the MediaPlayer
+        if (this.soundEffects.play(id, 1.0f)) {
+            return;
+        }
+        AudioPlayer audio = this.getPlayer(id);
         if (audio == null) {
             audio = new AudioPlayer(this, id, file);
-            this.players.put(id, audio);
+            this.addPlayer(id, audio);
         }
         audio.startPlaying(file);
     }
@@ -237,7 +310,7 @@ public class AudioHandler extends CordovaPlugin {
      * @param milliseconds		int: number of milliseconds to skip 1000 = 1 second
      */
     public void seekToAudio(String id, int milliseconds) {
-        AudioPlayer audio = this.players.get(id);
+        AudioPlayer audio = this.getPlayer(id);
         if (audio != null) {
             audio.seekToPlaying(milliseconds);
         }
@@ -248,7 +321,7 @@ public class AudioHandler extends CordovaPlugin {
      * @param id				The id of the audio player
      */
     public void pausePlayingAudio(String id) {
-        AudioPlayer audio = this.players.get(id);
+        AudioPlayer audio = this.getPlayer(id);
         if (audio != null) {
             audio.pausePlaying();
         }
@@ -259,7 +332,7 @@ public class AudioHandler extends CordovaPlugin {
      * @param id				The id of the audio player
      */
     public void stopPlayingAudio(String id) {
-        AudioPlayer audio = this.players.get(id);
+        AudioPlayer audio = this.getPlayer(id);
         if (audio != null) {
             audio.stopPlaying();
             //audio.destroy();
@@ -273,7 +346,7 @@ public class AudioHandler extends CordovaPlugin {
      * @return 					position in msec
      */
     public float getCurrentPositionAudio(String id) {
-        AudioPlayer audio = this.players.get(id);
+        AudioPlayer audio = this.getPlayer(id);
         if (audio != null) {
             return (audio.getCurrentPosition() / 1000.0f);
         }
@@ -289,7 +362,7 @@ public class AudioHandler extends CordovaPlugin {
     public float getDurationAudio(String id, String file) {
 
         // Get audio file
-        AudioPlayer audio = this.players.get(id);
+        AudioPlayer audio = this.getPlayer(id);
         if (audio != null) {
             return (audio.getDuration(file));
         }
@@ -297,11 +370,173 @@ public class AudioHandler extends CordovaPlugin {
         // If not already open, then open the file
         else {
             audio = new AudioPlayer(this, id, file);
-            this.players.put(id, audio);
+            this.addPlayer(id, audio);
             return (audio.getDuration(file));
         }
     }
 
+    /**
+     * Starts sending the position and state of the players to the callback every interval.
+     * Replaces any earlier callback.
+     *
+     * @param interval          msec between updates
+     * @param callbackContext   The callback to keep sending updates to
+     */
+    private synchronized void startPositionUpdates(int interval, CallbackContext callbackContext) {
+        this.stopPositionUpdates();
+        this.positionInterval = Math.max(interval, 16);
+        this.positionCallback = callbackContext;
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+        this.ticker.post(this.tick);
+    }
+
+    /**
+     * Stops the ticker and releases its callback.
+     */
+    private synchronized void stopPositionUpdates() {
+        this.ticker.removeCallbacks(this.tick);
+        if (this.positionCallback != null) {
+            this.positionCallback.sendPluginResult(new PluginResult(PluginResult.Status.NO_RESULT));
+            this.positionCallback = null;
+        }
+        this.reportedStates.clear();
+    }
+
+    /**
+     * Sends one message with the id, state and position in seconds of each player that is
+     * running or changed state since the last tick, if there are any.
+     */
+    private synchronized void sendPositionUpdates() {
+        if (this.positionCallback == null) {
+            return;
+        }
+        JSONArray updates = new JSONArray();
+        HashMap<String, Integer> states = new HashMap<String, Integer>();
+        try {
+            for (AudioPlayer audio : this.getPlayers()) {
+                int state = audio.getState();
+                states.put(audio.getId(), state);
+                Integer reported = this.reportedStates.get(audio.getId());
+                if (state != AudioPlayer.STATE.MEDIA_RUNNING.ordinal() && reported != null && reported == state) {
+                    continue;
+                }
+                JSONObject update = new JSONObject();
+                update.put("id", audio.getId());
+                update.put("state", state);
+                long position = audio.getPlaybackPosition();
+                update.put("position", position < 0 ? -1 : position / 1000.0);
+                updates.put(update);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Unable to build position updates", e);
+        }
+        // Forget the players that were released
+        this.reportedStates.clear();
+        this.reportedStates.putAll(states);
+
+        if (updates.length() > 0) {
+            PluginResult result = new PluginResult(PluginResult.Status.OK, updates);
+            result.setKeepCallback(true);
+            this.positionCallback.sendPluginResult(result);
+        }
+        this.ticker.postDelayed(this.tick, this.positionInterval);
+    }
+
+    /**
+     * Adds a player to the pool, releasing the least recently used idle players while
+     * the pool is over its size.  A released player is recreated when its id is used again.
+     */
+    private void addPlayer(String id, AudioPlayer audio) {
+        if (this.maxPlayers < 0) {
+            try {
+                this.maxPlayers = Integer.parseInt(this.webView.getProperty("MaxMediaPlayers", Integer.toString(DEFAULT_MAX_PLAYERS)));
+            } catch (NumberFormatException e) {
+                this.maxPlayers = DEFAULT_MAX_PLAYERS;
+            }
+        }
+        ArrayList<AudioPlayer> evicted = new ArrayList<AudioPlayer>();
+        synchronized (this.players) {
+            this.players.put(id, audio);
+
+            int excess = this.players.size() - this.maxPlayers;
+            Iterator<Map.Entry<String, AudioPlayer>> it = this.players.entrySet().iterator();
+            while (excess > 0 && it.hasNext()) {
+                AudioPlayer eldest = it.next().getValue();
+                // Only idle players can be recreated without losing anything; if there aren't
+                // enough of them the pool stays over its size
+                int state = eldest.getState();
+                if (eldest == audio || (state != AudioPlayer.STATE.MEDIA_NONE.ordinal()
+                        && state != AudioPlayer.STATE.MEDIA_STOPPED.ordinal())
+                        || this.pausedForPhone.contains(eldest)) {
+                    continue;
+                }
+                it.remove();
+                evicted.add(eldest);
+                excess--;
+            }
+        }
+        for (AudioPlayer eldest : evicted) {
+            Log.d(TAG, "Releasing least recently used player " + eldest.getId());
+            eldest.destroy();
+        }
+    }
+
+    /**
+     * Returns the player for the id, marking it as the most recently used one.
+     */
+    private AudioPlayer getPlayer(String id) {
+        synchronized (this.players) {
+            return this.players.get(id);
+        }
+    }
+
+    /**
+     * Returns a snapshot of all players, safe to iterate on any thread.
+     */
+    private ArrayList<AudioPlayer> getPlayers() {
+        synchronized (this.players) {
+            return new ArrayList<AudioPlayer>(this.players.values());
+        }
+    }
+
+    /**
+     * Records how long playback took to start after it was asked for.
+     *
+     * @param soundPool         Whether the sound was played from the SoundPool
+     * @param latency           Time in msec
+     */
+    void recordPlayLatency(boolean soundPool, long latency) {
+        // Not synchronized on this: players call it while holding their own lock, and the
+        // ticker holds this while it asks the players for their position.
+        synchronized (this.latencyCount) {
+            int i = soundPool ? 1 : 0;
+            this.latencyCount[i]++;
+            this.latencyTotal[i] += latency;
+            this.latencyMax[i] = Math.max(this.latencyMax[i], latency);
+        }
+    }
+
+    /**
+     * Returns the play start latencies recorded so far, in msec.
+     */
+    private JSONObject getPlayMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        String[] names = { "mediaPlayer", "soundPool" };
+        synchronized (this.latencyCount) {
+            for (int i = 0; i < names.length; i++) {
+                JSONObject m = new JSONObject();
+                m.put("count", this.latencyCount[i]);
+                m.put("average", this.latencyCount[i] == 0 ? 0 : this.latencyTotal[i] / (double) this.latencyCount[i]);
+                m.put("max", this.latencyMax[i]);
+                metrics.put(names[i], m);
+            }
+        }
+        metrics.put("players", this.getPlayers().size());
+        return metrics;
+    }
+
     /**
      * Set the audio device to be used for playback.
      *
@@ -347,7 +582,7 @@ public class AudioHandler extends CordovaPlugin {
      * @param volume            Volume to adjust to 0.0f - 1.0f
      */
     public void setVolume(String id, float volume) {
-        AudioPlayer audio = this.players.get(id);
+        AudioPlayer audio = this.getPlayer(id);
         if (audio != null) {
             audio.setVolume(volume);
         } else {
@@ -25,6 +25,7 @@ import android.media.MediaPlayer.OnErrorListener;
 import android.media.MediaPlayer.OnPreparedListener;
 import android.media.MediaRecorder;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.File;
@@ -36,6 +37,10 @@ import java.io.IOException;
  * It is called by the AudioHandler Cordova class.
  * Only one file can be played or recorded per class instance.
  *
+ * The player is used from the plugin thread, the main looper (which runs the AudioHandler's
+ * position ticker and the MediaPlayer callbacks), and is destroyed from either, so every
+ * method that touches it synchronizes on the AudioPlayer.
+ *
  * Local audio files must reside in one of two places:
  *      android_asset:      file name must start with /android_asset/sound.mp3
  *      sdcard:             file name is just sound.mp3
@@ -83,6 +88,7 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
     private MediaPlayer player = null;      // Audio player object
     private boolean prepareOnly = true;     // playback after file prepare flag
     private int seekOnPrepared = 0;     // seek to this location once media is prepared
+    private long playRequested = -1;        // time playback was asked for, until it starts
 
     /**
      * Constructor.
@@ -107,7 +113,7 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
     /**
      * Destroy player and stop audio playing or recording.
      */
-    public void destroy() {
+    public synchronized void destroy() {
         // Stop any play or record
         if (this.player != null) {
             if ((this.state == STATE.MEDIA_RUNNING) || (this.state == STATE.MEDIA_PAUSED)) {
@@ -129,7 +135,7 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
      *
      * @param file              The name of the file
      */
-    public void startRecording(String file) {
+    public synchronized void startRecording(String file) {
         switch (this.mode) {
         case PLAY:
             Log.d(LOG_TAG, "AudioPlayer Error: Can't record in play mode.");
@@ -184,7 +190,7 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
     /**
      * Stop recording and save to the file specified when recording started.
      */
-    public void stopRecording() {
+    public synchronized void stopRecording() {
         if (this.recorder != null) {
             try{
                 if (this.state == STATE.MEDIA_RUNNING) {
@@ -209,9 +215,11 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
      *
      * @param file              The name of the audio file.
      */
-    public void startPlaying(String file) {
+    public synchronized void startPlaying(String file) {
+        this.playRequested = SystemClock.elapsedRealtime();
         if (this.readyPlayer(file) && this.player != null) {
             this.player.start();
+            this.recordPlayLatency();
             this.setState(STATE.MEDIA_RUNNING);
             this.seekOnPrepared = 0; //insures this is always reset
         } else {
@@ -222,7 +230,7 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
     /**
      * Seek or jump to a new time in the track.
      */
-    public void seekToPlaying(int milliseconds) {
+    public synchronized void seekToPlaying(int milliseconds) {
         if (this.readyPlayer(this.audioFile)) {
             this.player.seekTo(milliseconds);
             Log.d(LOG_TAG, "Send a onStatus update for the new seek");
@@ -236,7 +244,7 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
     /**
      * Pause playing.
      */
-    public void pausePlaying() {
+    public synchronized void pausePlaying() {
 
         // If playing, then pause
         if (this.state == STATE.MEDIA_RUNNING && this.player != null) {
@@ -252,7 +260,7 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
     /**
      * Stop playing the audio file.
      */
-    public void stopPlaying() {
+    public synchronized void stopPlaying() {
         if ((this.state == STATE.MEDIA_RUNNING) || (this.state == STATE.MEDIA_PAUSED)) {
             this.player.pause();
             this.player.seekTo(0);
@@ -270,7 +278,7 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
      *
      * @param player           The MediaPlayer that reached the end of the file
      */
-    public void onCompletion(MediaPlayer player) {
+    public synchronized void onCompletion(MediaPlayer player) {
         Log.d(LOG_TAG, "on completion is calling stopped");
         this.setState(STATE.MEDIA_STOPPED);
     }
@@ -280,11 +288,23 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
      *
      * @return                  position in msec or -1 if not playing
      */
-    public long getCurrentPosition() {
-        if ((this.state == STATE.MEDIA_RUNNING) || (this.state == STATE.MEDIA_PAUSED)) {
-            int curPos = this.player.getCurrentPosition();
+    public synchronized long getCurrentPosition() {
+        long curPos = this.getPlaybackPosition();
+        if (curPos >= 0) {
             this.handler.webView.sendJavascript("cordova.require('cordova/plugin/Media').onStatus('" + this.id + "', " + MEDIA_POSITION + ", " + curPos / 1000.0f + ");");
-            return curPos;
+        }
+        return curPos;
+    }
+
+    /**
+     * Get current position of playback without notifying JavaScript.
+     *
+     * @return                  position in msec or -1 if not playing
+     */
+    public synchronized long getPlaybackPosition() {
+        if (this.player != null && this.mode == MODE.PLAY
+                && ((this.state == STATE.MEDIA_RUNNING) || (this.state == STATE.MEDIA_PAUSED))) {
+            return this.player.getCurrentPosition();
         }
         else {
             return -1;
@@ -315,7 +335,7 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
       *                             -1=can't be determined
       *                             -2=not allowed
       */
-    public float getDuration(String file) {
+    public synchronized float getDuration(String file) {
 
         // Can't get duration of recording
         if (this.recorder != null) {
@@ -343,7 +363,7 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
      *
      * @param player           The MediaPlayer that is ready for playback
      */
-    public void onPrepared(MediaPlayer player) {
+    public synchronized void onPrepared(MediaPlayer player) {
         // Listen for playback completion
         this.player.setOnCompletionListener(this);
         // seek to any location received while not prepared
@@ -351,6 +371,7 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
         // If start playing after prepared
         if (!this.prepareOnly) {
             this.player.start();
+            this.recordPlayLatency();
             this.setState(STATE.MEDIA_RUNNING);
             this.seekOnPrepared = 0; //reset only when played
         } else {
@@ -365,6 +386,16 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
         this.handler.webView.sendJavascript("cordova.require('cordova/plugin/Media').onStatus('" + this.id + "', " + MEDIA_DURATION + "," + this.duration + ");");
     }
 
+    /**
+     * Reports how long it took playback to start after it was asked for.
+     */
+    private void recordPlayLatency() {
+        if (this.playRequested >= 0) {
+            this.handler.recordPlayLatency(false, SystemClock.elapsedRealtime() - this.playRequested);
+            this.playRequested = -1;
+        }
+    }
+
     /**
      * By default Android returns the length of audio in mills but we want seconds
      *
@@ -382,12 +413,15 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
      * @param arg1              the type of error that has occurred: (MEDIA_ERROR_UNKNOWN, MEDIA_ERROR_SERVER_DIED)
      * @param arg2              an extra code, specific to the error.
      */
-    public boolean onError(MediaPlayer player, int arg1, int arg2) {
+    public synchronized boolean onError(MediaPlayer player, int arg1, int arg2) {
         Log.d(LOG_TAG, "AudioPlayer.onError(" + arg1 + ", " + arg2 + ")");
 
         // TODO: Not sure if this needs to be sent?
-        this.player.stop();
-        this.player.release();
+        if (this.player != null) {
+            this.player.stop();
+            this.player.release();
+            this.player = null;
+        }
 
         // Send error notification to JavaScript
         this.handler.webView.sendJavascript("cordova.require('cordova/plugin/Media').onStatus('" + this.id + "', { \"code\":" + arg1 + "});");
@@ -419,12 +453,21 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
         this.mode = mode;
     }
 
+    /**
+     * Get the id of the player.
+     *
+     * @return String
+     */
+    public String getId() {
+        return this.id;
+    }
+
     /**
      * Get the audio state.
      *
      * @return int
      */
-    public int getState() {
+    public synchronized int getState() {
         return this.state.ordinal();
     }
 
@@ -433,8 +476,10 @@ public class AudioPlayer implements OnCompletionListener, OnPreparedListener, On
      *
      * @param volume
      */
-    public void setVolume(float volume) {
-        this.player.setVolume(volume, volume);
+    public synchronized void setVolume(float volume) {
+        if (this.player != null) {
+            this.player.setVolume(volume, volume);
+        }
     }
 
     /**
@@ -0,0 +1,228 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.cordova.api.CordovaInterface;
+import org.apache.cordova.api.UrlPrefixTrie;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.Log;
+import android.webkit.CookieManager;
+import android.webkit.WebResourceResponse;
+
+/**
+ * Loads remote resources for the WebView through the app's shared HTTP client, so that they
+ * are kept in its response cache.
+ * <p>
+ * Only whitelisted URLs starting with one of the prefixes in the CachedUrlPrefixes preference
+ * (comma separated) are loaded.  Since the WebView doesn't tell which method a request uses,
+ * the prefixes should only cover resources that are fetched with GET.  A cached response that
+ * is stale by no more than StaleWhileRevalidate seconds (3600 by default) is served at once and
+ * refreshed in the background.  When the network can't be reached, any cached response is
+ * served however stale it is.  Everything else, including redirects and errors, is left to
+ * the WebView, since WebResourceResponse can't carry a status code.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public class CachingResourceLoader {
+
+    private static final String LOG_TAG = "CachingResourceLoader";
+    private static final int DEFAULT_STALE_WHILE_REVALIDATE = 60 * 60;
+
+    private final CordovaInterface cordova;
+    private final UrlPrefixTrie<Boolean> prefixes;
+    private final int staleWhileRevalidate;
+    private final String userAgent;
+    private final ConcurrentHashMap<String, Boolean> refreshing = new ConcurrentHashMap<String, Boolean>();
+
+    private CachingResourceLoader(CordovaInterface cordova, UrlPrefixTrie<Boolean> prefixes,
+            int staleWhileRevalidate, String userAgent) {
+        this.cordova = cordova;
+        this.prefixes = prefixes;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.userAgent = userAgent;
+    }
+
+    /**
+     * @return  The loader configured by the preferences, or null if no prefixes are cached.
+     */
+    public static CachingResourceLoader create(CordovaInterface cordova, String userAgent) {
+        CordovaPreferences prefs = Config.getPreferences();
+        if (prefs == null) {
+            return null;
+        }
+        UrlPrefixTrie<Boolean> prefixes = new UrlPrefixTrie<Boolean>();
+        for (String prefix : prefs.getString("CachedUrlPrefixes", "").split(",")) {
+            prefix = prefix.trim();
+            if (prefix.startsWith("http://") || prefix.startsWith("https://")) {
+                prefixes.put(prefix, Boolean.TRUE);
+            }
+        }
+        if (prefixes.isEmpty()) {
+            return null;
+        }
+        int staleWhileRevalidate = Math.max(0, prefs.getInteger("StaleWhileRevalidate", DEFAULT_STALE_WHILE_REVALIDATE));
+        return new CachingResourceLoader(cordova, prefixes, staleWhileRevalidate, userAgent);
+    }
+
+    /**
+     * Loads the resource, from the cache if possible.  Called on the WebView's loading thread.
+     *
+     * @return  The resource, or null if the WebView should load it itself.
+     */
+    public WebResourceResponse load(String url) {
+        if (this.prefixes.match(url) == null || !Config.isUrlWhiteListed(url)) {
+            return null;
+        }
+        try {
+            // Anything fresh enough, without touching the network
+            HttpURLConnection conn = open(url, "only-if-cached, max-stale=" + this.staleWhileRevalidate);
+            if (conn.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                if (isStale(conn)) {
+                    refresh(url);
+                }
+                return toResponse(conn);
+            }
+            conn.disconnect();
+
+            try {
+                conn = open(url, null);
+                int code = conn.getResponseCode();
+                if (code == HttpURLConnection.HTTP_OK) {
+                    storeCookies(url, conn);
+                    return toResponse(conn);
+                }
+                conn.disconnect();
+                return null;
+            } catch (IOException e) {
+                // Offline, serve whatever we have
+                conn = open(url, "only-if-cached, max-stale=" + Integer.MAX_VALUE);
+                if (conn.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                    Log.d(LOG_TAG, "Serving cached " + url + " while offline: " + e.getMessage());
+                    return toResponse(conn);
+                }
+                conn.disconnect();
+                return null;
+            }
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Unable to load " + url + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private HttpURLConnection open(String url, String cacheControl) throws IOException {
+        HttpURLConnection conn = this.cordova.getHttpClient().open(new URL(url));
+        conn.setInstanceFollowRedirects(false);
+        if (cacheControl != null) {
+            conn.setRequestProperty("Cache-Control", cacheControl);
+        }
+        if (this.userAgent != null) {
+            conn.setRequestProperty("User-Agent", this.userAgent);
+        }
+        String cookie = CookieManager.getInstance().getCookie(url);
+        if (cookie != null) {
+            conn.setRequestProperty("Cookie", cookie);
+        }
+        return conn;
+    }
+
+    private static boolean isStale(HttpURLConnection conn) {
+        for (Map.Entry<String, List<String>> header : conn.getHeaderFields().entrySet()) {
+            if ("Warning".equalsIgnoreCase(header.getKey())) {
+                for (String warning : header.getValue()) {
+                    if (warning.startsWith("110 ")) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fetches the resource again in the background, so that the cache holds a fresh copy.
+     */
+    private void refresh(final String url) {
+        if (this.refreshing.putIfAbsent(url, Boolean.TRUE) != null) {
+            return;
+        }
+        this.cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                HttpURLConnection conn = null;
+                try {
+                    conn = open(url, "max-age=0");
+                    if (conn.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                        storeCookies(url, conn);
+                        // The cache is written as the body is read
+                        InputStream in = conn.getInputStream();
+                        byte[] buffer = new byte[8192];
+                        while (in.read(buffer) != -1) {
+                        }
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    Log.d(LOG_TAG, "Unable to refresh " + url + ": " + e.getMessage());
+                } finally {
+                    if (conn != null) {
+                        conn.disconnect();
+                    }
+                    refreshing.remove(url);
+                }
+            }
+        });
+    }
+
+    private static WebResourceResponse toResponse(HttpURLConnection conn) throws IOException {
+        String mimeType = "application/octet-stream";
+        String encoding = "UTF-8";
+        String contentType = conn.getContentType();
+        if (contentType != null) {
+            String[] parts = contentType.split(";");
+            mimeType = parts[0].trim();
+            for (int i = 1; i < parts.length; i++) {
+                String part = parts[i].trim();
+                if (part.regionMatches(true, 0, "charset=", 0, 8)) {
+                    encoding = part.substring(8).replace("\"", "");
+                }
+            }
+        }
+        return new WebResourceResponse(mimeType, encoding, conn.getInputStream());
+    }
+
+    /**
+     * Passes the cookies a response from the network set on to the WebView.
+     */
+    private static void storeCookies(String url, HttpURLConnection conn) {
+        for (Map.Entry<String, List<String>> header : conn.getHeaderFields().entrySet()) {
+            if ("Set-Cookie".equalsIgnoreCase(header.getKey())) {
+                for (String cookie : header.getValue()) {
+                    CookieManager.getInstance().setCookie(url, cookie);
+                }
+            }
+        }
+    }
+}
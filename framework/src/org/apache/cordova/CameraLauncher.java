@@ -18,7 +18,6 @@
 */
 package org.apache.cordova;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -38,16 +37,12 @@ import android.content.ContentValues;
 import android.content.Intent;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
-import android.graphics.Bitmap.CompressFormat;
 import android.graphics.Rect;
 import android.media.MediaScannerConnection;
 import android.media.MediaScannerConnection.MediaScannerConnectionClient;
 import android.net.Uri;
 import android.os.Environment;
 import android.provider.MediaStore;
-import android.util.Base64;
 import android.util.Log;
 
 /**
@@ -90,9 +85,13 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
     public CallbackContext callbackContext;
     private int numPics;
 
+    private int base64ChunkSize;            // Length of the chunks a DATA_URL is sent back in, 0 to send it at once
+
     private MediaScannerConnection conn;    // Used to update gallery app with newly-written files
     private Uri scanMe;                     // Uri of image to be added to content store
 
+    private ImageProcessor imageProcessor;  // Decodes and encodes pictures within the memory budget
+
     //This should never be null!
     //private CordovaInterface cordova;
 
@@ -141,6 +140,7 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
             //this.allowEdit = args.getBoolean(7); // This field is unused.
             this.correctOrientation = args.getBoolean(8);
             this.saveToPhotoAlbum = args.getBoolean(9);
+            this.base64ChunkSize = args.optInt(12, 0);
 
             // If the user specifies a 0 or smaller width/height
             // make it -1 so later comparisons succeed
@@ -261,7 +261,23 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      * @param resultCode        The integer result code returned by the child activity through its setResult().
      * @param intent            An Intent, which can return result data to the caller (various data can be attached to Intent "extras").
      */
-    public void onActivityResult(int requestCode, int resultCode, Intent intent) {
+    public void onActivityResult(final int requestCode, final int resultCode, final Intent intent) {
+        // Decoding and compressing pictures takes a while, so keep it off the UI thread
+        this.cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                processActivityResult(requestCode, resultCode, intent);
+            }
+        });
+    }
+
+    /**
+     * Processes the picture returned by the camera view or picture library.
+     *
+     * @param requestCode       The request code originally supplied to startActivityForResult().
+     * @param resultCode        The integer result code returned by the child activity through its setResult().
+     * @param intent            An Intent, which can return result data to the caller (various data can be attached to Intent "extras").
+     */
+    private void processActivityResult(int requestCode, int resultCode, Intent intent) {
 
         // Get src and dest types from request code
         int srcType = (requestCode / 16) - 1;
@@ -290,10 +306,13 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
 
                     // If sending base64 image back
                     if (destType == DATA_URL) {
-                        bitmap = getScaledBitmap(FileHelper.stripFileProtocol(imageUri.toString()));
+                        bitmap = getScaledBitmap(FileHelper.stripFileProtocol(imageUri.toString()), this.correctOrientation ? rotate : 0);
                         if (bitmap == null) {
                             // Try to get the bitmap from intent.
                             bitmap = (Bitmap)intent.getExtras().get("data");
+                            if (bitmap != null && rotate != 0 && this.correctOrientation) {
+                                bitmap = getImageProcessor().transform(bitmap, bitmap.getWidth(), bitmap.getHeight(), rotate);
+                            }
                         }
                         
                         // Double-check the bitmap.
@@ -303,10 +322,6 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
                             return;
                         }
 
-                        if (rotate != 0 && this.correctOrientation) {
-                            bitmap = getRotatedBitmap(rotate, bitmap, exif);
-                        }
-
                         this.processPicture(bitmap);
                         checkForDuplicateImage(DATA_URL);
                     }
@@ -332,19 +347,21 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
 
                             this.callbackContext.success(uri.toString());
                         } else {
-                            bitmap = getScaledBitmap(FileHelper.stripFileProtocol(imageUri.toString()));
-
-                            if (rotate != 0 && this.correctOrientation) {
-                                bitmap = getRotatedBitmap(rotate, bitmap, exif);
+                            bitmap = getScaledBitmap(FileHelper.stripFileProtocol(imageUri.toString()), this.correctOrientation ? rotate : 0);
+                            if (bitmap == null) {
+                                this.failPicture("Unable to create bitmap!");
+                                return;
                             }
 
                             // Add compressed version of captured image to returned media store Uri
                             OutputStream os = this.cordova.getActivity().getContentResolver().openOutputStream(uri);
-                            bitmap.compress(Bitmap.CompressFormat.JPEG, this.mQuality, os);
-                            os.close();
+                            getImageProcessor().writeJpeg(bitmap, this.mQuality, os);
 
                             // Restore exif data to file
                             if (this.encodingType == JPEG) {
+                                if (rotate != 0 && this.correctOrientation) {
+                                    exif.resetOrientation();
+                                }
                                 String exifPath;
                                 if (this.saveToPhotoAlbum) {
                                     exifPath = FileHelper.getRealPath(uri, this.cordova);
@@ -406,9 +423,12 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
                             this.failPicture("Unable to retrieve path to picture!");
                             return;
                         }
+                        if (this.correctOrientation) {
+                            rotate = getImageOrientation(uri);
+                        }
                         Bitmap bitmap = null;
                         try {
-                            bitmap = getScaledBitmap(uriString);
+                            bitmap = getScaledBitmap(uriString, rotate);
                         } catch (IOException e) {
                             e.printStackTrace();
                         }
@@ -418,15 +438,6 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
                             return;
                         }
 
-                        if (this.correctOrientation) {
-                            rotate = getImageOrientation(uri);
-                            if (rotate != 0) {
-                                Matrix matrix = new Matrix();
-                                matrix.setRotate(rotate);
-                                bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-                            }
-                        }
-
                         // If sending base64 image back
                         if (destType == DATA_URL) {
                             this.processPicture(bitmap);
@@ -453,8 +464,7 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
                                     }
 
                                     OutputStream os = new FileOutputStream(resizePath);
-                                    bitmap.compress(Bitmap.CompressFormat.JPEG, this.mQuality, os);
-                                    os.close();
+                                    getImageProcessor().writeJpeg(bitmap, this.mQuality, os);
 
                                     // Restore exif data to file
                                     if (realPath != null && this.encodingType == JPEG) {
@@ -474,11 +484,8 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
                                 this.callbackContext.success(uri.toString());
                             }
                         }
-                        if (bitmap != null) {
-	                        bitmap.recycle();
-	                        bitmap = null;
-                        }
-                        System.gc();
+                        getImageProcessor().release(bitmap);
+                        bitmap = null;
                     }
                 }
             }
@@ -504,26 +511,6 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
         return rotate;
     }
 
-    /**
-     * Figure out if the bitmap should be rotated. For instance if the picture was taken in
-     * portrait mode
-     *
-     * @param rotate
-     * @param bitmap
-     * @return rotated bitmap
-     */
-    private Bitmap getRotatedBitmap(int rotate, Bitmap bitmap, ExifHelper exif) {
-        Matrix matrix = new Matrix();
-        if (rotate == 180) {
-            matrix.setRotate(rotate);
-        } else {
-            matrix.setRotate(rotate, (float) bitmap.getWidth() / 2, (float) bitmap.getHeight() / 2);
-        }
-        bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-        exif.resetOrientation();
-        return bitmap;
-    }
-
     /**
      * In the special case where the default width, height and quality are unchanged
      * we just write the file out to disk saving the expensive Bitmap.compress function.
@@ -570,41 +557,32 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
     }
 
     /**
-     * Return a scaled bitmap based on the target width and height
+     * Return a scaled bitmap based on the target width and height, rotated clockwise
      *
      * @param imagePath
+     * @param rotate
      * @return
      * @throws IOException 
      */
-    private Bitmap getScaledBitmap(String imageUrl) throws IOException {
-        // If no new width or height were specified return the original bitmap
-        if (this.targetWidth <= 0 && this.targetHeight <= 0) {
-            return BitmapFactory.decodeStream(FileHelper.getInputStreamFromUriString(imageUrl, cordova));
-        }
+    private Bitmap getScaledBitmap(String imageUrl, int rotate) throws IOException {
+        return getImageProcessor().decode(imageUrl, this.targetWidth, this.targetHeight, rotate);
+    }
 
-        // figure out the original width and height of the image
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeStream(FileHelper.getInputStreamFromUriString(imageUrl, cordova), null, options);
-        
-        //CB-2292: WTF? Why is the width null?
-        if(options.outWidth == 0 || options.outHeight == 0)
-        {
-            return null;
-        }
-        
-        // determine the correct aspect ratio
-        int[] widthHeight = calculateAspectRatio(options.outWidth, options.outHeight);
-
-        // Load in the smallest bitmap possible that is closest to the size we want
-        options.inJustDecodeBounds = false;
-        options.inSampleSize = calculateSampleSize(options.outWidth, options.outHeight, this.targetWidth, this.targetHeight);
-        Bitmap unscaledBitmap = BitmapFactory.decodeStream(FileHelper.getInputStreamFromUriString(imageUrl, cordova), null, options);
-        if (unscaledBitmap == null) {
-            return null;
+    /**
+     * Returns the image processor, creating it on first use.  Its memory budget comes from
+     * the CameraMemoryBudget preference in bytes, and defaults to a quarter of the heap.
+     */
+    private synchronized ImageProcessor getImageProcessor() {
+        if (this.imageProcessor == null) {
+            long budget = Runtime.getRuntime().maxMemory() / 4;
+            try {
+                budget = Long.parseLong(this.webView.getProperty("CameraMemoryBudget", Long.toString(budget)));
+            } catch (NumberFormatException e) {
+                LOG.d(LOG_TAG, "Invalid CameraMemoryBudget, using " + budget);
+            }
+            this.imageProcessor = new ImageProcessor(this.cordova, budget);
         }
-
-        return Bitmap.createScaledBitmap(unscaledBitmap, widthHeight[0], widthHeight[1], true);
+        return this.imageProcessor;
     }
 
     /**
@@ -615,43 +593,7 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      * @return
      */
     public int[] calculateAspectRatio(int origWidth, int origHeight) {
-        int newWidth = this.targetWidth;
-        int newHeight = this.targetHeight;
-
-        // If no new width or height were specified return the original bitmap
-        if (newWidth <= 0 && newHeight <= 0) {
-            newWidth = origWidth;
-            newHeight = origHeight;
-        }
-        // Only the width was specified
-        else if (newWidth > 0 && newHeight <= 0) {
-            newHeight = (newWidth * origHeight) / origWidth;
-        }
-        // only the height was specified
-        else if (newWidth <= 0 && newHeight > 0) {
-            newWidth = (newHeight * origWidth) / origHeight;
-        }
-        // If the user specified both a positive width and height
-        // (potentially different aspect ratio) then the width or height is
-        // scaled so that the image fits while maintaining aspect ratio.
-        // Alternatively, the specified width and height could have been
-        // kept and Bitmap.SCALE_TO_FIT specified when scaling, but this
-        // would result in whitespace in the new image.
-        else {
-            double newRatio = newWidth / (double) newHeight;
-            double origRatio = origWidth / (double) origHeight;
-
-            if (origRatio > newRatio) {
-                newHeight = (newWidth * origHeight) / origWidth;
-            } else if (origRatio < newRatio) {
-                newWidth = (newHeight * origWidth) / origHeight;
-            }
-        }
-
-        int[] retval = new int[2];
-        retval[0] = newWidth;
-        retval[1] = newHeight;
-        return retval;
+        return ImageProcessor.calculateAspectRatio(origWidth, origHeight, this.targetWidth, this.targetHeight);
     }
 
     /**
@@ -665,15 +607,8 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      * @return
      */
     public static int calculateSampleSize(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
-        final float srcAspect = (float)srcWidth / (float)srcHeight;
-        final float dstAspect = (float)dstWidth / (float)dstHeight;
-
-        if (srcAspect > dstAspect) {
-            return srcWidth / dstWidth;
-        } else {
-            return srcHeight / dstHeight;
-        }
-      }
+        return ImageProcessor.calculateSampleSize(srcWidth, srcHeight, dstWidth, dstHeight);
+    }
 
     /**
      * Creates a cursor that can be used to determine how many images we have.
@@ -694,9 +629,7 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      * @param newImage
      */
     private void cleanup(int imageType, Uri oldImage, Uri newImage, Bitmap bitmap) {
-        if (bitmap != null) {
-            bitmap.recycle();
-        }
+        getImageProcessor().release(bitmap);
 
         // Clean up initial camera-written image file.
         (new File(FileHelper.stripFileProtocol(oldImage.toString()))).delete();
@@ -706,8 +639,6 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
         if (this.saveToPhotoAlbum && newImage != null) {
             this.scanForGallery(newImage);
         }
-
-        System.gc();
     }
 
     /**
@@ -753,25 +684,25 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
 
     /**
      * Compress bitmap using jpeg, convert to Base64 encoded string, and return to JavaScript.
+     * If a chunk size was requested the string is sent in chunks as it is encoded.
      *
      * @param bitmap
      */
     public void processPicture(Bitmap bitmap) {
-        ByteArrayOutputStream jpeg_data = new ByteArrayOutputStream();
         try {
-            if (bitmap.compress(CompressFormat.JPEG, mQuality, jpeg_data)) {
-                byte[] code = jpeg_data.toByteArray();
-                byte[] output = Base64.encode(code, Base64.DEFAULT);
-                String js_out = new String(output);
-                this.callbackContext.success(js_out);
-                js_out = null;
-                output = null;
-                code = null;
+            if (this.base64ChunkSize > 0) {
+                if (!getImageProcessor().sendBase64Jpeg(bitmap, mQuality, this.callbackContext, this.base64ChunkSize)) {
+                    this.failPicture("Error compressing image.");
+                }
+            } else {
+                String js_out = getImageProcessor().encodeBase64Jpeg(bitmap, mQuality);
+                if (js_out != null) {
+                    this.callbackContext.success(js_out);
+                }
             }
         } catch (Exception e) {
             this.failPicture("Error compressing image.");
         }
-        jpeg_data = null;
     }
 
     /**
@@ -804,4 +735,13 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
     public void onScanCompleted(String path, Uri uri) {
         this.conn.disconnect();
     }
+
+    /**
+     * Free the bitmap kept for reuse when the activity goes away.
+     */
+    public void onDestroy() {
+        if (this.imageProcessor != null) {
+            this.imageProcessor.trim();
+        }
+    }
 }
@@ -22,6 +22,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.Future;
 
 import android.os.Build;
 import org.apache.cordova.api.CallbackContext;
@@ -36,17 +38,13 @@ import android.app.Activity;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.database.Cursor;
-import android.graphics.BitmapFactory;
-import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Environment;
 import android.provider.MediaStore;
-import android.util.Log;
 
 public class Capture extends CordovaPlugin {
 
     private static final String VIDEO_3GPP = "video/3gpp";
-    private static final String VIDEO_MP4 = "video/mp4";
     private static final String AUDIO_3GPP = "audio/3gpp";
     private static final String IMAGE_JPEG = "image/jpeg";
 
@@ -64,7 +62,10 @@ public class Capture extends CordovaPlugin {
     private long limit;                             // the number of pics/vids/clips to take
     private double duration;                        // optional duration parameter for video recording
     private JSONArray results;                      // The array of results to be returned to the user
-    private int numPics;                            // Number of pictures before capture activity
+    private ArrayList<Future<JSONObject>> formatData; // The pending MediaFileData of each result
+    private long lastImageId;                       // Id of the newest image before capture activity
+
+    private MediaMetadataCache metadataCache;
 
     //private CordovaInterface cordova;
 
@@ -82,6 +83,7 @@ public class Capture extends CordovaPlugin {
         this.limit = 1;
         this.duration = 0.0f;
         this.results = new JSONArray();
+        this.formatData = new ArrayList<Future<JSONObject>>();
 
         JSONObject options = args.optJSONObject(0);
         if (options != null) {
@@ -90,8 +92,19 @@ public class Capture extends CordovaPlugin {
         }
 
         if (action.equals("getFormatData")) {
-            JSONObject obj = getFormatData(args.getString(0), args.getString(1));
-            callbackContext.success(obj);
+            final String filePath = args.getString(0);
+            final String mimeType = args.getString(1);
+            final CallbackContext formatCallback = callbackContext;
+            this.cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    JSONObject obj = getMetadataCache().getFormatData(filePath, mimeType);
+                    if (obj != null) {
+                        formatCallback.success(obj);
+                    } else {
+                        formatCallback.error(createErrorObject(CAPTURE_INTERNAL_ERR, "Error reading media file data."));
+                    }
+                }
+            });
             return true;
         }
         else if (action.equals("captureAudio")) {
@@ -111,80 +124,14 @@ public class Capture extends CordovaPlugin {
     }
 
     /**
-     * Provides the media data file data depending on it's mime type
-     *
-     * @param filePath path to the file
-     * @param mimeType of the file
-     * @return a MediaFileData object
+     * Returns the cache holding the MediaFileData and thumbnails of captured files,
+     * creating it on first use.
      */
-    private JSONObject getFormatData(String filePath, String mimeType) throws JSONException {
-        JSONObject obj = new JSONObject();
-        // setup defaults
-        obj.put("height", 0);
-        obj.put("width", 0);
-        obj.put("bitrate", 0);
-        obj.put("duration", 0);
-        obj.put("codecs", "");
-
-        // If the mimeType isn't set the rest will fail
-        // so let's see if we can determine it.
-        if (mimeType == null || mimeType.equals("") || "null".equals(mimeType)) {
-            mimeType = FileHelper.getMimeType(filePath, cordova);
+    private synchronized MediaMetadataCache getMetadataCache() {
+        if (this.metadataCache == null) {
+            this.metadataCache = new MediaMetadataCache(this.cordova);
         }
-        Log.d(LOG_TAG, "Mime type = " + mimeType);
-
-        if (mimeType.equals(IMAGE_JPEG) || filePath.endsWith(".jpg")) {
-            obj = getImageData(filePath, obj);
-        }
-        else if (mimeType.endsWith(AUDIO_3GPP)) {
-            obj = getAudioVideoData(filePath, obj, false);
-        }
-        else if (mimeType.equals(VIDEO_3GPP) || mimeType.equals(VIDEO_MP4)) {
-            obj = getAudioVideoData(filePath, obj, true);
-        }
-        return obj;
-    }
-
-    /**
-     * Get the Image specific attributes
-     *
-     * @param filePath path to the file
-     * @param obj represents the Media File Data
-     * @return a JSONObject that represents the Media File Data
-     * @throws JSONException
-     */
-    private JSONObject getImageData(String filePath, JSONObject obj) throws JSONException {
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(FileHelper.stripFileProtocol(filePath), options);
-        obj.put("height", options.outHeight);
-        obj.put("width", options.outWidth);
-        return obj;
-    }
-
-    /**
-     * Get the Image specific attributes
-     *
-     * @param filePath path to the file
-     * @param obj represents the Media File Data
-     * @param video if true get video attributes as well
-     * @return a JSONObject that represents the Media File Data
-     * @throws JSONException
-     */
-    private JSONObject getAudioVideoData(String filePath, JSONObject obj, boolean video) throws JSONException {
-        MediaPlayer player = new MediaPlayer();
-        try {
-            player.setDataSource(filePath);
-            player.prepare();
-            obj.put("duration", player.getDuration() / 1000);
-            if (video) {
-                obj.put("height", player.getVideoHeight());
-                obj.put("width", player.getVideoWidth());
-            }
-        } catch (IOException e) {
-            Log.d(LOG_TAG, "Error: loading video file");
-        }
-        return obj;
+        return this.metadataCache;
     }
 
     /**
@@ -200,8 +147,8 @@ public class Capture extends CordovaPlugin {
      * Sets up an intent to capture images.  Result handled by onActivityResult()
      */
     private void captureImage() {
-        // Save the number of images currently on disk for later
-        this.numPics = queryImgDB(whichContentStore()).getCount();
+        // Save the newest image currently on disk for later
+        this.lastImageId = queryLastImageId(whichContentStore());
 
         Intent intent = new Intent(android.provider.MediaStore.ACTION_IMAGE_CAPTURE);
 
@@ -242,11 +189,11 @@ public class Capture extends CordovaPlugin {
                 // Get the uri of the audio clip
                 Uri data = intent.getData();
                 // create a file object from the uri
-                results.put(createMediaFile(data));
+                addResult(data);
 
                 if (results.length() >= limit) {
                     // Send Uri back to JavaScript for listening to audio
-                    this.callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, results));
+                    sendResults();
                 } else {
                     // still need to capture more audio clips
                     captureAudio();
@@ -286,13 +233,13 @@ public class Capture extends CordovaPlugin {
                     fis.close();
 
                     // Add image to results
-                    results.put(createMediaFile(uri));
+                    addResult(uri);
 
                     checkForDuplicateImage();
 
                     if (results.length() >= limit) {
                         // Send Uri back to JavaScript for viewing image
-                        this.callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, results));
+                        sendResults();
                     } else {
                         // still need to capture more images
                         captureImage();
@@ -305,11 +252,11 @@ public class Capture extends CordovaPlugin {
                 // Get the uri of the video clip
                 Uri data = intent.getData();
                 // create a file object from the uri
-                results.put(createMediaFile(data));
+                addResult(data);
 
                 if (results.length() >= limit) {
                     // Send Uri back to JavaScript for viewing video
-                    this.callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, results));
+                    sendResults();
                 } else {
                     // still need to capture more video clips
                     captureVideo(duration);
@@ -320,7 +267,7 @@ public class Capture extends CordovaPlugin {
         else if (resultCode == Activity.RESULT_CANCELED) {
             // If we have partial results send them back to the user
             if (results.length() > 0) {
-                this.callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, results));
+                sendResults();
             }
             // user canceled the action
             else {
@@ -331,7 +278,7 @@ public class Capture extends CordovaPlugin {
         else {
             // If we have partial results send them back to the user
             if (results.length() > 0) {
-                this.callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, results));
+                sendResults();
             }
             // something bad happened
             else {
@@ -340,6 +287,44 @@ public class Capture extends CordovaPlugin {
         }
     }
 
+    /**
+     * Adds the captured file to the results and starts extracting its MediaFileData, so
+     * that it runs while the next item is captured.
+     *
+     * @param data the Uri of the audio/image/video
+     */
+    private void addResult(Uri data) {
+        JSONObject mediaFile = createMediaFile(data);
+        results.put(mediaFile);
+        formatData.add(getMetadataCache().prefetch(mediaFile.optString("fullPath"), mediaFile.optString("type", null)));
+    }
+
+    /**
+     * Waits for the MediaFileData of the results on the thread pool, then sends the results
+     * back to JavaScript with the thumbnail of each file that has one.
+     */
+    private void sendResults() {
+        final CallbackContext callbackContext = this.callbackContext;
+        final JSONArray results = this.results;
+        final ArrayList<Future<JSONObject>> formatData = this.formatData;
+        this.cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                for (int i = 0; i < formatData.size(); i++) {
+                    JSONObject data = MediaMetadataCache.get(formatData.get(i));
+                    if (data != null && data.has("thumbnail")) {
+                        try {
+                            results.getJSONObject(i).put("thumbnail", data.getString("thumbnail"));
+                        } catch (JSONException e) {
+                            // this will never happen
+                            e.printStackTrace();
+                        }
+                    }
+                }
+                callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, results));
+            }
+        });
+    }
+
     /**
      * Creates a JSONObject that represents a File from the Uri
      *
@@ -400,34 +385,51 @@ public class Capture extends CordovaPlugin {
 
 
     /**
-     * Creates a cursor that can be used to determine how many images we have.
+     * Returns the id of the newest image in the content store.
      *
-     * @return a cursor
+     * @return the id, or -1 if there are no images
      */
-    private Cursor queryImgDB(Uri contentStore) {
-        return this.cordova.getActivity().getContentResolver().query(
+    private long queryLastImageId(Uri contentStore) {
+        Cursor cursor = this.cordova.getActivity().getContentResolver().query(
             contentStore,
             new String[] { MediaStore.Images.Media._ID },
             null,
             null,
-            null);
+            MediaStore.Images.Media._ID + " DESC LIMIT 1");
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
      * Used to find out if we are in a situation where the Camera Intent adds to images
-     * to the content store.
+     * to the content store.  Only the images added since the capture started are read.
      */
     private void checkForDuplicateImage() {
         Uri contentStore = whichContentStore();
-        Cursor cursor = queryImgDB(contentStore);
-        int currentNumOfImages = cursor.getCount();
-
-        // delete the duplicate file if the difference is 2
-        if ((currentNumOfImages - numPics) == 2) {
-            cursor.moveToLast();
-            int id = Integer.valueOf(cursor.getString(cursor.getColumnIndex(MediaStore.Images.Media._ID))) - 1;
-            Uri uri = Uri.parse(contentStore + "/" + id);
-            this.cordova.getActivity().getContentResolver().delete(uri, null, null);
+        Cursor cursor = this.cordova.getActivity().getContentResolver().query(
+            contentStore,
+            new String[] { MediaStore.Images.Media._ID },
+            MediaStore.Images.Media._ID + " > ?",
+            new String[] { Long.toString(this.lastImageId) },
+            MediaStore.Images.Media._ID + " ASC");
+        if (cursor == null) {
+            return;
+        }
+        try {
+            // delete the duplicate file if the difference is 2
+            if (cursor.getCount() == 2) {
+                cursor.moveToFirst();
+                Uri uri = Uri.parse(contentStore + "/" + cursor.getLong(0));
+                this.cordova.getActivity().getContentResolver().delete(uri, null, null);
+            }
+        } finally {
+            cursor.close();
         }
     }
 
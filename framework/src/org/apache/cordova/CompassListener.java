@@ -18,8 +18,6 @@
 */
 package org.apache.cordova;
 
-import java.util.List;
-
 import org.apache.cordova.api.CallbackContext;
 import org.apache.cordova.api.CordovaInterface;
 import org.apache.cordova.api.CordovaPlugin;
@@ -28,19 +26,15 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
-import android.content.Context;
-
 import android.os.Handler;
 import android.os.Looper;
 
 /**
  * This class listens to the compass sensor and stores the latest heading value.
+ * The heading is fused from the accelerometer and magnetometer by the SensorHub,
+ * which shares their registrations with any other listener.
  */
-public class CompassListener extends CordovaPlugin implements SensorEventListener {
+public class CompassListener extends CordovaPlugin implements SensorHub.Listener {
 
     public static int STOPPED = 0;
     public static int STARTING = 1;
@@ -55,8 +49,7 @@ public class CompassListener extends CordovaPlugin implements SensorEventListene
     long lastAccessTime;                // time the value was last retrieved
     int accuracy;                       // accuracy of the sensor
 
-    private SensorManager sensorManager;// Sensor manager
-    Sensor mSensor;                     // Compass sensor returned by sensor manager
+    private SensorHub sensorHub;        // Shared sensor registrations
 
     private CallbackContext callbackContext;
 
@@ -78,7 +71,7 @@ public class CompassListener extends CordovaPlugin implements SensorEventListene
      */
     public void initialize(CordovaInterface cordova, CordovaWebView webView) {
         super.initialize(cordova, webView);
-        this.sensorManager = (SensorManager) cordova.getActivity().getSystemService(Context.SENSOR_SERVICE);
+        this.sensorHub = SensorHub.getInstance(cordova.getActivity());
     }
 
     /**
@@ -146,6 +139,17 @@ public class CompassListener extends CordovaPlugin implements SensorEventListene
         this.stop();
     }
 
+    /**
+     * Unregister the sensors while the activity is in the background.
+     */
+    public void onPause(boolean multitasking) {
+        this.sensorHub.pause();
+    }
+
+    public void onResume(boolean multitasking) {
+        this.sensorHub.resume();
+    }
+
     //--------------------------------------------------------------------------
     // LOCAL METHODS
     //--------------------------------------------------------------------------
@@ -162,14 +166,8 @@ public class CompassListener extends CordovaPlugin implements SensorEventListene
             return this.status;
         }
 
-        // Get compass sensor from sensor manager
-        @SuppressWarnings("deprecation")
-        List<Sensor> list = this.sensorManager.getSensorList(Sensor.TYPE_ORIENTATION);
-
-        // If found, then register as listener
-        if (list != null && list.size() > 0) {
-            this.mSensor = list.get(0);
-            this.sensorManager.registerListener(this, this.mSensor, SensorManager.SENSOR_DELAY_NORMAL);
+        // Register with the hub, if the device has the sensors for a heading
+        if (this.sensorHub.addListener(SensorHub.TYPE_HEADING, this, SensorHub.DELAY_NORMAL, 0)) {
             this.lastAccessTime = System.currentTimeMillis();
             this.setStatus(CompassListener.STARTING);
         }
@@ -187,15 +185,11 @@ public class CompassListener extends CordovaPlugin implements SensorEventListene
      */
     public void stop() {
         if (this.status != CompassListener.STOPPED) {
-            this.sensorManager.unregisterListener(this);
+            this.sensorHub.removeListener(SensorHub.TYPE_HEADING, this);
         }
         this.setStatus(CompassListener.STOPPED);
     }
 
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-        // TODO Auto-generated method stub
-    }
-
     /**
      * Called after a delay to time out if the listener has not attached fast enough.
      */
@@ -211,16 +205,21 @@ public class CompassListener extends CordovaPlugin implements SensorEventListene
     /**
      * Sensor listener event.
      *
-     * @param SensorEvent event
+     * @param type          The sensor type.
+     * @param timestamp     Time of the sample in msec since the epoch.
+     * @param values        The heading from magnetic north.
+     * @param accuracy      The accuracy of the sensor.
      */
-    public void onSensorChanged(SensorEvent event) {
-
-        // We only care about the orientation as far as it refers to Magnetic North
-        float heading = event.values[0];
+    public void onSample(int type, long timestamp, float[] values, int accuracy) {
+        // If not running, then just return
+        if (this.status == CompassListener.STOPPED) {
+            return;
+        }
 
         // Save heading
-        this.timeStamp = System.currentTimeMillis();
-        this.heading = heading;
+        this.timeStamp = timestamp;
+        this.heading = values[0];
+        this.accuracy = accuracy;
         this.setStatus(CompassListener.RUNNING);
 
         // If heading hasn't been read for TIMEOUT time, then turn off compass sensor to save power
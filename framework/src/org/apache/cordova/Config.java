@@ -33,6 +33,7 @@ import org.apache.cordova.api.LOG;
 import org.xmlpull.v1.XmlPullParserException;
 
 import android.app.Activity;
+import android.os.Bundle;
 
 import android.content.res.XmlResourceParser;
 import android.graphics.Color;
@@ -46,12 +47,17 @@ public class Config {
     private ArrayList<Pattern> whiteList = new ArrayList<Pattern>();
     private HashMap<String, Boolean> whiteListCache = new HashMap<String, Boolean>();
     private String startUrl;
+    private HashMap<String, Object> preferenceValues;
 
     private static Config self = null;
+    private static volatile CordovaPreferences preferences = null;
 
     public static void init(Activity action) {
         //Just re-initialize this! Seriously, we lose this all the time
         self = new Config(action);
+        if (self.preferenceValues != null) {
+            preferences = new CordovaPreferences(self.preferenceValues);
+        }
     }
 
     // Intended to be used for testing only; creates an empty configuration.
@@ -71,6 +77,15 @@ public class Config {
             return;
         }
 
+        // Preferences from config.xml replace extras of the same name
+        this.preferenceValues = new HashMap<String, Object>();
+        Bundle extras = action.getIntent().getExtras();
+        if (extras != null) {
+            for (String key : extras.keySet()) {
+                this.preferenceValues.put(key, extras.get(key));
+            }
+        }
+
         int id = action.getResources().getIdentifier("config", "xml", action.getPackageName());
         if (id == 0) {
             id = action.getResources().getIdentifier("cordova", "xml", action.getPackageName());
@@ -115,6 +130,7 @@ public class Config {
                     if (name.equals("loglevel")) {
                         String level = xml.getAttributeValue(null, "value");
                         LOG.setLogLevel(level);
+                        this.preferenceValues.put(name, level);
                     } else if (name.equals("splashscreen")) {
                         String value = xml.getAttributeValue(null, "value");
                         int resource = 0;
@@ -125,34 +141,41 @@ public class Config {
                         resource = action.getResources().getIdentifier(value, "drawable", action.getPackageName());
                         
                         action.getIntent().putExtra(name, resource);
+                        this.preferenceValues.put(name, resource);
                     }
                     else if(name.equals("backgroundColor")) {
                         int value = xml.getAttributeIntValue(null, "value", Color.BLACK);
                         action.getIntent().putExtra(name, value);
+                        this.preferenceValues.put(name, value);
                     }
                     else if(name.equals("loadUrlTimeoutValue")) {
                         int value = xml.getAttributeIntValue(null, "value", 20000);
                         action.getIntent().putExtra(name, value);
+                        this.preferenceValues.put(name, value);
                     }
                     else if(name.equals("keepRunning"))
                     {
                         boolean value = xml.getAttributeValue(null, "value").equals("true");
                         action.getIntent().putExtra(name, value);
+                        this.preferenceValues.put(name, value);
                     }
                     else if(name.equals("InAppBrowserStorageEnabled"))
                     {
                         boolean value = xml.getAttributeValue(null, "value").equals("true");
                         action.getIntent().putExtra(name, value);
+                        this.preferenceValues.put(name, value);
                     }
                     else if(name.equals("disallowOverscroll"))
                     {
                         boolean value = xml.getAttributeValue(null, "value").equals("true");
                         action.getIntent().putExtra(name, value);
+                        this.preferenceValues.put(name, value);
                     }
                     else
                     {
                         String value = xml.getAttributeValue(null, "value");
                         action.getIntent().putExtra(name, value);
+                        this.preferenceValues.put(name, value);
                     }
                     /*
                     LOG.i("CordovaLog", "Found preference for %s=%s", name, value);
@@ -289,6 +312,25 @@ public class Config {
         }
     }
 
+    /**
+     * Returns the preferences read from config.xml and the activity's extras.  They are
+     * immutable, so they can be read from any thread without locking.
+     *
+     * @return  The preferences, or null if no activity has read config.xml yet.
+     */
+    public static CordovaPreferences getPreferences() {
+        return preferences;
+    }
+
+    /**
+     * Sets a preference, replacing the preferences with a copy holding the new value.
+     */
+    public static synchronized void setPreference(String name, Object value) {
+        if (preferences != null) {
+            preferences = preferences.with(name, value);
+        }
+    }
+
     public static String getStartUrl() {
         if (self == null || self.startUrl == null) {
             return "file:///android_asset/www/index.html";
@@ -165,6 +165,12 @@ public abstract class ContactAccessor {
      */
     public abstract JSONArray search(JSONArray filter, JSONObject options);
 
+    /**
+     * Handles searching through SDK-specific contacts API, handing the matching
+     * contacts to the handler one page at a time instead of as a single array.
+     */
+    public abstract void search(JSONArray filter, JSONObject options, SearchPageHandler handler);
+
     /**
      * Handles searching through SDK-specific contacts API.
      * @throws JSONException
@@ -176,6 +182,38 @@ public abstract class ContactAccessor {
      */
     public abstract boolean remove(String id);
 
+    /**
+     * Handles adding or updating many JSON Contact objects in the database at once.
+     * @return one result object per contact
+     */
+    public abstract JSONArray saveAll(JSONArray contacts, boolean fetchContacts);
+
+    /**
+     * Handles removing many contacts from the database at once.
+     * @return one result object per id
+     */
+    public abstract JSONArray removeAll(JSONArray ids);
+
+    /**
+     * Releases any resources held by the accessor.  Does nothing by default.
+     */
+    public void destroy() {
+    }
+
+    /**
+     * Receives the pages produced by a streamed search.
+     */
+    public interface SearchPageHandler {
+        /**
+         * Called once for every page of contacts, in contact id order.  Every page but
+         * the last holds exactly pageSize contacts; the last one holds fewer (possibly none).
+         *
+         * @param page the contacts in this page
+         * @param last true if no further pages will follow
+         */
+        void onPage(JSONArray page, boolean last);
+    }
+
    /**
      * A class that represents the where clause to be used in the database query 
      */
@@ -47,9 +47,8 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 //import android.app.Activity;
 //import android.content.Context;
 
@@ -79,6 +78,19 @@ public class ContactAccessorSdk5 extends ContactAccessor {
      */
     private static final long MAX_PHOTO_SIZE = 1048576;
 
+    /**
+     * Largest number of contacts fetched per page.  Keeps the IN (...) clause of a page
+     * well below SQLite's limit of 999 bound arguments.
+     */
+    private static final int MAX_PAGE_SIZE = 500;
+
+    /**
+     * Number of operations after which saveAll applies a batch.  A batch may exceed it
+     * by the operations of one contact, and has to stay below the 500 operations the
+     * provider allows between yield points.
+     */
+    private static final int MAX_BATCH_OPERATIONS = 300;
+
     private static final String EMAIL_REGEXP = ".+@.+\\.+.+"; /* <anything>@<anything>.<anything>*/
 
     /**
@@ -121,6 +133,11 @@ public class ContactAccessorSdk5 extends ContactAccessor {
         dbMap.put("urls.value", ContactsContract.CommonDataKinds.Website.URL);
     }
 
+    /**
+     * The in-memory index used by searches that ask for it, created on first use.
+     */
+    private ContactIndex index;
+
     /**
      * Create an contact accessor.
      */
@@ -138,9 +155,34 @@ public class ContactAccessorSdk5 extends ContactAccessor {
      */
     @Override
     public JSONArray search(JSONArray fields, JSONObject options) {
+        final JSONArray contacts = new JSONArray();
+        search(fields, options, new SearchPageHandler() {
+            public void onPage(JSONArray page, boolean last) {
+                for (int i = 0; i < page.length(); i++) {
+                    contacts.put(page.opt(i));
+                }
+            }
+        });
+        return contacts;
+    }
+
+    /**
+     * This method takes the fields required and search options and streams the matching
+     * contacts to the handler in pages.  Besides the usual filter and multiple options
+     * it honours pageSize, offset and limit.  Only one page of contacts is ever held in
+     * memory, and every page is fetched with a bounded IN (...) query.
+     *
+     * @param fields an array of items to be used as search criteria
+     * @param options that can be applied to contact searching
+     * @param handler receives the pages of contacts
+     */
+    @Override
+    public void search(JSONArray fields, JSONObject options, SearchPageHandler handler) {
         // Get the find options
         String searchTerm = "";
         int limit = Integer.MAX_VALUE;
+        int offset = 0;
+        int pageSize = MAX_PAGE_SIZE;
         boolean multiple = true;
 
         if (options != null) {
@@ -160,44 +202,201 @@ public class ContactAccessorSdk5 extends ContactAccessor {
             } catch (JSONException e) {
                 // Multiple was not specified so we assume the default is true.
             }
+
+            int requestedLimit = options.optInt("limit", 0);
+            if (requestedLimit > 0) {
+                limit = Math.min(limit, requestedLimit);
+            }
+            offset = Math.max(0, options.optInt("offset", 0));
+            int requestedPageSize = options.optInt("pageSize", 0);
+            if (requestedPageSize > 0) {
+                pageSize = Math.min(requestedPageSize, MAX_PAGE_SIZE);
+            }
         }
         else {
             searchTerm = "%";
         }
-        
-
-        //Log.d(LOG_TAG, "Search Term = " + searchTerm);
-        //Log.d(LOG_TAG, "Field Length = " + fields.length());
-        //Log.d(LOG_TAG, "Fields = " + fields.toString());
 
         // Loop through the fields the user provided to see what data should be returned.
         HashMap<String, Boolean> populate = buildPopulationSet(fields);
 
-        // Build the ugly where clause and where arguments for one big query.
-        WhereOptions whereOptions = buildWhereClause(fields, searchTerm);
+        // Only fetch the columns for the fields that will be populated.
+        String[] projection = buildProjection(populate);
+
+        // Serve the search from the in-memory index when asked to and it can answer it
+        if (options != null && options.optBoolean("useIndex", false)) {
+            List<ContactIndex.Entry> matches = getIndex().search(fields, options.optString("filter"));
+            if (matches != null) {
+                int first = Math.min(offset, matches.size());
+                int end = (int) Math.min((long) offset + limit, matches.size());
+                while (true) {
+                    int pageEnd = Math.min(first + pageSize, end);
+                    List<ContactIndex.Entry> entries = matches.subList(first, pageEnd);
+                    boolean last = entries.size() < pageSize;
+                    handler.onPage(populateIndexedContacts(entries, projection, populate), last);
+                    if (last) {
+                        return;
+                    }
+                    first = pageEnd;
+                }
+            }
+        }
+
+        // Get the ids of the matching contacts in ascending order.  When every contact is
+        // wanted the offset and limit go straight into the query, otherwise the matching
+        // rows have to be walked to find distinct ids.
+        Cursor idCursor;
+        int idsToSkip;
+        if (searchTerm.equals("%")) {
+            idCursor = mApp.getActivity().getContentResolver().query(ContactsContract.Contacts.CONTENT_URI,
+                    new String[] { ContactsContract.Contacts._ID },
+                    "(" + ContactsContract.Contacts.DISPLAY_NAME + " LIKE ? )",
+                    new String[] { searchTerm },
+                    ContactsContract.Contacts._ID + " ASC LIMIT "
+                            + (limit == Integer.MAX_VALUE ? -1 : limit) + " OFFSET " + offset);
+            idsToSkip = 0;
+        }
+        else {
+            WhereOptions whereOptions = buildWhereClause(fields, searchTerm);
+            idCursor = mApp.getActivity().getContentResolver().query(ContactsContract.Data.CONTENT_URI,
+                    new String[] { ContactsContract.Data.CONTACT_ID },
+                    whereOptions.getWhere(),
+                    whereOptions.getWhereArgs(),
+                    ContactsContract.Data.CONTACT_ID + " ASC");
+            idsToSkip = offset;
+        }
 
-        // Get all the id's where the search term matches the fields passed in.
-        Cursor idCursor = mApp.getActivity().getContentResolver().query(ContactsContract.Data.CONTENT_URI,
-                new String[] { ContactsContract.Data.CONTACT_ID },
-                whereOptions.getWhere(),
-                whereOptions.getWhereArgs(),
-                ContactsContract.Data.CONTACT_ID + " ASC");
+        ArrayList<String> pageIds = new ArrayList<String>(Math.min(pageSize, limit));
+        try {
+            String lastId = null;
+            int found = 0;
+            while (found < limit && idCursor.moveToNext()) {
+                // The id is the only column in the projection
+                String id = idCursor.getString(0);
+                // Rows come back sorted so duplicates of an id are always adjacent
+                if (id.equals(lastId)) {
+                    continue;
+                }
+                lastId = id;
+                if (idsToSkip > 0) {
+                    idsToSkip--;
+                    continue;
+                }
+                pageIds.add(id);
+                found++;
+                if (pageIds.size() == pageSize) {
+                    handler.onPage(fetchContacts(pageIds, projection, populate), false);
+                    pageIds.clear();
+                }
+            }
+        } finally {
+            idCursor.close();
+        }
+        handler.onPage(fetchContacts(pageIds, projection, populate), true);
+    }
 
-        // Create a set of unique ids
-        Set<String> contactIds = new HashSet<String>();
-        int idColumn = -1;
-        while (idCursor.moveToNext()) {
-            if (idColumn < 0) {
-                idColumn = idCursor.getColumnIndex(ContactsContract.Data.CONTACT_ID);
+    /**
+     * Builds the JSON representation of contacts found in the index.  When nothing but the
+     * display name is wanted the index already holds everything needed, otherwise the data
+     * rows of the contacts are fetched.
+     *
+     * @param entries      the contacts found in the index, at most MAX_PAGE_SIZE of them
+     * @param projection   the columns to fetch
+     * @param populate     whether or not you should populate a certain value
+     * @return             a JSONArray of contacts
+     */
+    private JSONArray populateIndexedContacts(List<ContactIndex.Entry> entries, String[] projection,
+            HashMap<String, Boolean> populate) {
+        boolean namesOnly = true;
+        for (String key : populate.keySet()) {
+            if (!key.equals("displayName") && isRequired(key, populate)) {
+                namesOnly = false;
+                break;
             }
-            contactIds.add(idCursor.getString(idColumn));
         }
-        idCursor.close();
 
-        // Build a query that only looks at ids
-        WhereOptions idOptions = buildIdClause(contactIds, searchTerm);
+        if (!namesOnly) {
+            ArrayList<String> contactIds = new ArrayList<String>(entries.size());
+            for (ContactIndex.Entry entry : entries) {
+                contactIds.add(entry.id);
+            }
+            return fetchContacts(contactIds, projection, populate);
+        }
+
+        JSONArray contacts = new JSONArray();
+        for (ContactIndex.Entry entry : entries) {
+            JSONObject contact = new JSONObject();
+            try {
+                contact.put("id", entry.id);
+                contact.put("rawId", entry.rawId);
+                if (isRequired("displayName", populate)) {
+                    contact.put("displayName", entry.getDisplayName());
+                }
+            } catch (JSONException e) {
+                Log.e(LOG_TAG, e.getMessage(), e);
+            }
+            contacts.put(contact);
+        }
+        return contacts;
+    }
+
+    /**
+     * Returns the in-memory contact index, creating it on first use.
+     */
+    private synchronized ContactIndex getIndex() {
+        if (index == null) {
+            index = new ContactIndex(mApp.getActivity().getContentResolver(), mApp.getThreadPool());
+        }
+        return index;
+    }
+
+    /**
+     * Stops maintaining the in-memory contact index.
+     */
+    @Override
+    public synchronized void destroy() {
+        if (index != null) {
+            index.close();
+            index = null;
+        }
+    }
+
+    /**
+     * Fetches the data rows of the given contacts and builds their JSON representation.
+     *
+     * @param contactIds   the ids of the contacts to fetch, at most MAX_PAGE_SIZE of them
+     * @param projection   the columns to fetch
+     * @param populate     whether or not you should populate a certain value
+     * @return             a JSONArray of contacts
+     */
+    private JSONArray fetchContacts(List<String> contactIds, String[] projection,
+            HashMap<String, Boolean> populate) {
+        if (contactIds.isEmpty()) {
+            return new JSONArray();
+        }
+
+        StringBuilder selection = new StringBuilder(ContactsContract.Data.CONTACT_ID + " IN (");
+        for (int i = 0; i < contactIds.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(")");
+
+        Cursor c = mApp.getActivity().getContentResolver().query(ContactsContract.Data.CONTENT_URI,
+                projection,
+                selection.toString(),
+                contactIds.toArray(new String[contactIds.size()]),
+                ContactsContract.Data.CONTACT_ID + " ASC");
 
-        // Determine which columns we should be fetching.
+        return populateContactArray(contactIds.size(), populate, c);
+    }
+
+    /**
+     * Determines which columns need to be fetched to populate the requested fields.
+     *
+     * @param populate     whether or not you should populate a certain value
+     * @return             the projection to query with
+     */
+    private String[] buildProjection(HashMap<String, Boolean> populate) {
         HashSet<String> columnsToFetch = new HashSet<String>();
         columnsToFetch.add(ContactsContract.Data.CONTACT_ID);
         columnsToFetch.add(ContactsContract.Data.RAW_CONTACT_ID);
@@ -244,6 +443,7 @@ public class ContactAccessorSdk5 extends ContactAccessor {
             columnsToFetch.add(ContactsContract.CommonDataKinds.Im._ID);
             columnsToFetch.add(ContactsContract.CommonDataKinds.Im.DATA);
             columnsToFetch.add(ContactsContract.CommonDataKinds.Im.TYPE);
+            columnsToFetch.add(ContactsContract.CommonDataKinds.Im.PROTOCOL);
         }
         if (isRequired("note", populate)) {
             columnsToFetch.add(ContactsContract.CommonDataKinds.Note.NOTE);
@@ -263,16 +463,8 @@ public class ContactAccessorSdk5 extends ContactAccessor {
         if (isRequired("photos", populate)) {
             columnsToFetch.add(ContactsContract.CommonDataKinds.Photo._ID);
         }
-        
-        // Do the id query
-        Cursor c = mApp.getActivity().getContentResolver().query(ContactsContract.Data.CONTENT_URI,
-                columnsToFetch.toArray(new String[] {}),
-                idOptions.getWhere(),
-                idOptions.getWhereArgs(),
-                ContactsContract.Data.CONTACT_ID + " ASC");
 
-        JSONArray contacts = populateContactArray(limit, populate, c);
-        return contacts;
+        return columnsToFetch.toArray(new String[columnsToFetch.size()]);
     }
 
     /**
@@ -454,41 +646,6 @@ public class ContactAccessorSdk5 extends ContactAccessor {
         return contacts;
     }
 
-    /**
-     * Builds a where clause all all the ids passed into the method
-     * @param contactIds a set of unique contact ids
-     * @param searchTerm what to search for
-     * @return an object containing the selection and selection args
-     */
-    private WhereOptions buildIdClause(Set<String> contactIds, String searchTerm) {
-        WhereOptions options = new WhereOptions();
-
-        // If the user is searching for every contact then short circuit the method
-        // and return a shorter where clause to be searched.
-        if (searchTerm.equals("%")) {
-            options.setWhere("(" + ContactsContract.Data.CONTACT_ID + " LIKE ? )");
-            options.setWhereArgs(new String[] { searchTerm });
-            return options;
-        }
-
-        // This clause means that there are specific ID's to be populated
-        Iterator<String> it = contactIds.iterator();
-        StringBuffer buffer = new StringBuffer("(");
-
-        while (it.hasNext()) {
-            buffer.append("'" + it.next() + "'");
-            if (it.hasNext()) {
-                buffer.append(",");
-            }
-        }
-        buffer.append(")");
-
-        options.setWhere(ContactsContract.Data.CONTACT_ID + " IN " + buffer.toString());
-        options.setWhereArgs(null);
-
-        return options;
-    }
-
     /**
      * Create a new contact using a JSONObject to hold all the data.
      * @param contact
@@ -913,6 +1070,28 @@ public class ContactAccessorSdk5 extends ContactAccessor {
      * @returns the id if the contact is successfully saved, null otherwise.
      */
     public String save(JSONObject contact) {
+        String[] account = findAccount();
+        String accountType = account[0];
+        String accountName = account[1];
+
+        String id = getJsonString(contact, "id");
+        // Create new contact
+        if (id == null) {
+            return createNewContact(contact, accountType, accountName);
+        }
+        // Modify existing contact
+        else {
+            return modifyContact(id, contact, accountType, accountName);
+        }
+    }
+
+    /**
+     * Picks the account new contacts are saved under, preferring Exchange and Google
+     * accounts when the device has more than one.
+     *
+     * @return the account type and account name, either of which may be null
+     */
+    private String[] findAccount() {
         AccountManager mgr = AccountManager.get(mApp.getActivity());
         Account[] accounts = mgr.getAccounts();
         String accountName = null;
@@ -950,15 +1129,212 @@ public class ContactAccessorSdk5 extends ContactAccessor {
             }
         }
 
-        String id = getJsonString(contact, "id");
-        // Create new contact
-        if (id == null) {
-            return createNewContact(contact, accountType, accountName);
+        return new String[] { accountType, accountName };
+    }
+
+    /**
+     * Saves many contacts with as few provider transactions as possible.  The operations
+     * of consecutive contacts are merged into batches of about MAX_BATCH_OPERATIONS
+     * operations.  If a batch fails as a whole, its contacts are retried one at a time
+     * so that a single bad contact does not fail the others.
+     *
+     * @param contacts the contacts to be saved
+     * @param fetchContacts whether to read back the saved contacts
+     * @return one result per contact, in the same order, holding either the id (and the
+     *         saved contact when asked for) or an error code
+     */
+    @Override
+    public JSONArray saveAll(JSONArray contacts, boolean fetchContacts) {
+        String[] account = findAccount();
+        String[] ids = new String[contacts.length()];
+
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+        // Input position and first operation of each contact in the current batch
+        ArrayList<int[]> batched = new ArrayList<int[]>();
+        for (int i = 0; i < contacts.length(); i++) {
+            JSONObject contact = contacts.optJSONObject(i);
+            if (contact == null) {
+                continue;
+            }
+            if (ops.size() >= MAX_BATCH_OPERATIONS) {
+                applySaveBatch(ops, batched, contacts, ids);
+            }
+            batched.add(new int[] { i, ops.size() });
+            String id = getJsonString(contact, "id");
+            if (id == null) {
+                addNewContactOperations(ops, contact, account[0], account[1]);
+            } else {
+                int rawId = getRawId(contact);
+                if (rawId < 0) {
+                    // Reported as an error for this item only
+                    batched.remove(batched.size() - 1);
+                    continue;
+                }
+                ids[i] = id;
+                addModifyContactOperations(ops, id, rawId, contact, account[0], account[1]);
+            }
         }
-        // Modify existing contact
-        else {
-            return modifyContact(id, contact, accountType, accountName);
+        if (!ops.isEmpty()) {
+            applySaveBatch(ops, batched, contacts, ids);
         }
+
+        HashMap<String, JSONObject> saved = new HashMap<String, JSONObject>();
+        if (fetchContacts) {
+            JSONArray fields = new JSONArray();
+            fields.put("*");
+            HashMap<String, Boolean> populate = buildPopulationSet(fields);
+            String[] projection = buildProjection(populate);
+            ArrayList<String> pageIds = new ArrayList<String>();
+            for (int i = 0; i <= ids.length; i++) {
+                if (i < ids.length && ids[i] != null) {
+                    pageIds.add(ids[i]);
+                }
+                if (pageIds.size() == MAX_PAGE_SIZE || (i == ids.length && !pageIds.isEmpty())) {
+                    JSONArray page = fetchContacts(pageIds, projection, populate);
+                    for (int j = 0; j < page.length(); j++) {
+                        JSONObject contact = page.optJSONObject(j);
+                        saved.put(contact.optString("id"), contact);
+                    }
+                    pageIds.clear();
+                }
+            }
+        }
+
+        JSONArray results = new JSONArray();
+        for (int i = 0; i < ids.length; i++) {
+            results.put(itemResult(ids[i], fetchContacts ? saved.get(ids[i]) : null, fetchContacts));
+        }
+        return results;
+    }
+
+    /**
+     * Applies one batch of saveAll operations and records the id of every saved contact.
+     *
+     * @param ops the batched operations, cleared afterwards
+     * @param batched the input position and first operation of every contact in the batch, cleared afterwards
+     * @param contacts the contacts passed to saveAll
+     * @param ids the ids of the saved contacts, indexed by input position
+     */
+    private void applySaveBatch(ArrayList<ContentProviderOperation> ops, ArrayList<int[]> batched,
+            JSONArray contacts, String[] ids) {
+        try {
+            ContentProviderResult[] cpResults = mApp.getActivity().getContentResolver().applyBatch(ContactsContract.AUTHORITY, ops);
+            for (int[] item : batched) {
+                if (ids[item[0]] == null) {
+                    ids[item[0]] = cpResults[item[1]].uri.getLastPathSegment();
+                }
+            }
+        } catch (RemoteException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            retrySaveBatch(batched, contacts, ids);
+        } catch (OperationApplicationException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            retrySaveBatch(batched, contacts, ids);
+        }
+        ops.clear();
+        batched.clear();
+    }
+
+    /**
+     * Saves the contacts of a failed batch one at a time.  A failed batch is rolled back
+     * as a whole, so none of its contacts were saved.
+     */
+    private void retrySaveBatch(ArrayList<int[]> batched, JSONArray contacts, String[] ids) {
+        for (int[] item : batched) {
+            ids[item[0]] = save(contacts.optJSONObject(item[0]));
+        }
+    }
+
+    /**
+     * Removes many contacts with as few provider transactions as possible.
+     *
+     * @param ids the ids of the contacts to remove
+     * @return one result per id, in the same order, holding either the id or an error code
+     */
+    @Override
+    public JSONArray removeAll(JSONArray ids) {
+        boolean[] removed = new boolean[ids.length()];
+
+        // Look up the keys of a page of contacts at a time, then delete them in one batch
+        for (int first = 0; first < ids.length(); first += MAX_PAGE_SIZE) {
+            int end = Math.min(first + MAX_PAGE_SIZE, ids.length());
+            String[] pageIds = new String[end - first];
+            StringBuilder selection = new StringBuilder(ContactsContract.Contacts._ID + " IN (");
+            for (int i = first; i < end; i++) {
+                pageIds[i - first] = ids.optString(i);
+                selection.append(i == first ? "?" : ",?");
+            }
+            selection.append(")");
+
+            HashMap<String, String> lookupKeys = new HashMap<String, String>();
+            Cursor cursor = mApp.getActivity().getContentResolver().query(ContactsContract.Contacts.CONTENT_URI,
+                    new String[] { ContactsContract.Contacts._ID, ContactsContract.Contacts.LOOKUP_KEY },
+                    selection.toString(),
+                    pageIds,
+                    null);
+            while (cursor.moveToNext()) {
+                lookupKeys.put(cursor.getString(0), cursor.getString(1));
+            }
+            cursor.close();
+
+            ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+            ArrayList<Integer> positions = new ArrayList<Integer>();
+            for (int i = first; i < end; i++) {
+                String lookupKey = lookupKeys.get(pageIds[i - first]);
+                if (lookupKey == null) {
+                    Log.d(LOG_TAG, "Could not find contact with ID");
+                    continue;
+                }
+                ops.add(ContentProviderOperation.newDelete(
+                        Uri.withAppendedPath(ContactsContract.Contacts.CONTENT_LOOKUP_URI, lookupKey)).build());
+                positions.add(i);
+            }
+            if (ops.isEmpty()) {
+                continue;
+            }
+
+            try {
+                ContentProviderResult[] cpResults = mApp.getActivity().getContentResolver().applyBatch(ContactsContract.AUTHORITY, ops);
+                for (int i = 0; i < cpResults.length; i++) {
+                    removed[positions.get(i)] = cpResults[i].count != null && cpResults[i].count > 0;
+                }
+            } catch (RemoteException e) {
+                Log.e(LOG_TAG, e.getMessage(), e);
+            } catch (OperationApplicationException e) {
+                Log.e(LOG_TAG, e.getMessage(), e);
+            }
+        }
+
+        JSONArray results = new JSONArray();
+        for (int i = 0; i < removed.length; i++) {
+            results.put(itemResult(removed[i] ? ids.optString(i) : null, null, false));
+        }
+        return results;
+    }
+
+    /**
+     * Creates the result reported for one item of saveAll or removeAll.
+     *
+     * @param id the id of the contact, or null if the item failed
+     * @param contact the saved contact, if it was read back
+     * @param fetched whether the saved contact was asked for
+     * @return a JSONObject holding the id and contact, or an error code
+     */
+    private JSONObject itemResult(String id, JSONObject contact, boolean fetched) {
+        JSONObject result = new JSONObject();
+        try {
+            if (id == null || (fetched && contact == null)) {
+                result.put("error", ContactManager.UNKNOWN_ERROR);
+            } else {
+                result.put("id", id);
+                if (contact != null) {
+                    result.put("contact", contact);
+                }
+            }
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+        }
+        return result;
     }
 
     /**
@@ -969,12 +1345,68 @@ public class ContactAccessorSdk5 extends ContactAccessor {
      * @param account the account to be saved under
      */
     private String modifyContact(String id, JSONObject contact, String accountType, String accountName) {
-        // Get the RAW_CONTACT_ID which is needed to insert new values in an already existing contact.
-        // But not needed to update existing values.
-        int rawId = (new Integer(getJsonString(contact, "rawId"))).intValue();
+        int rawId = getRawId(contact);
+        if (rawId < 0) {
+            return null;
+        }
 
         // Create a list of attributes to add to the contact database
         ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+        addModifyContactOperations(ops, id, rawId, contact, accountType, accountName);
+
+        boolean retVal = true;
+
+        //Modify contact
+        try {
+            mApp.getActivity().getContentResolver().applyBatch(ContactsContract.AUTHORITY, ops);
+        } catch (RemoteException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            Log.e(LOG_TAG, Log.getStackTraceString(e), e);
+            retVal = false;
+        } catch (OperationApplicationException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            Log.e(LOG_TAG, Log.getStackTraceString(e), e);
+            retVal = false;
+        }
+
+        // if the save was a success return the contact ID
+        if (retVal) {
+            return id;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Get the RAW_CONTACT_ID which is needed to insert new values in an already existing contact.
+     *
+     * @param contact the contact to be saved
+     * @return the raw contact id, or -1 if the contact has none or it is not a number
+     */
+    private int getRawId(JSONObject contact) {
+        String rawId = getJsonString(contact, "rawId");
+        if (rawId != null) {
+            try {
+                return Integer.parseInt(rawId);
+            } catch (NumberFormatException e) {
+                Log.d(LOG_TAG, "Invalid rawId: " + rawId);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appends the operations that modify an existing contact to the list.  None of them
+     * refer back to other operations, so they can share a batch with other contacts.
+     *
+     * @param ops the list of database actions
+     * @param id the contact id
+     * @param rawId the raw contact id, for inserting new values into the contact
+     * @param contact the contact to be saved
+     * @param account the account to be saved under
+     */
+    private void addModifyContactOperations(ArrayList<ContentProviderOperation> ops, String id,
+            int rawId, JSONObject contact, String accountType, String accountName) {
 
         //Add contact type
         ops.add(ContentProviderOperation.newUpdate(ContactsContract.RawContacts.CONTENT_URI)
@@ -1394,40 +1826,19 @@ public class ContactAccessorSdk5 extends ContactAccessor {
         } catch (JSONException e) {
             Log.d(LOG_TAG, "Could not get photos");
         }
-
-        boolean retVal = true;
-
-        //Modify contact
-        try {
-            mApp.getActivity().getContentResolver().applyBatch(ContactsContract.AUTHORITY, ops);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            Log.e(LOG_TAG, Log.getStackTraceString(e), e);
-            retVal = false;
-        } catch (OperationApplicationException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            Log.e(LOG_TAG, Log.getStackTraceString(e), e);
-            retVal = false;
-        }
-
-        // if the save was a success return the contact ID
-        if (retVal) {
-            return id;
-        } else {
-            return null;
-        }
     }
 
     /**
      * Add a website to a list of database actions to be performed
      *
      * @param ops the list of database actions
+     * @param rawContactIndex the position of the raw contact insert in the list
      * @param website the item to be inserted
      */
-    private void insertWebsite(ArrayList<ContentProviderOperation> ops,
+    private void insertWebsite(ArrayList<ContentProviderOperation> ops, int rawContactIndex,
             JSONObject website) {
         ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
+                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex)
                 .withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.Website.CONTENT_ITEM_TYPE)
                 .withValue(ContactsContract.CommonDataKinds.Website.DATA, getJsonString(website, "value"))
                 .withValue(ContactsContract.CommonDataKinds.Website.TYPE, getContactType(getJsonString(website, "type")))
@@ -1438,11 +1849,12 @@ public class ContactAccessorSdk5 extends ContactAccessor {
      * Add an im to a list of database actions to be performed
      *
      * @param ops the list of database actions
+     * @param rawContactIndex the position of the raw contact insert in the list
      * @param im the item to be inserted
      */
-    private void insertIm(ArrayList<ContentProviderOperation> ops, JSONObject im) {
+    private void insertIm(ArrayList<ContentProviderOperation> ops, int rawContactIndex, JSONObject im) {
         ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
+                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex)
                 .withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.Im.CONTENT_ITEM_TYPE)
                 .withValue(ContactsContract.CommonDataKinds.Im.DATA, getJsonString(im, "value"))
                 .withValue(ContactsContract.CommonDataKinds.Im.TYPE, getImType(getJsonString(im, "type")))
@@ -1453,12 +1865,13 @@ public class ContactAccessorSdk5 extends ContactAccessor {
      * Add an organization to a list of database actions to be performed
      *
      * @param ops the list of database actions
+     * @param rawContactIndex the position of the raw contact insert in the list
      * @param org the item to be inserted
      */
-    private void insertOrganization(ArrayList<ContentProviderOperation> ops,
+    private void insertOrganization(ArrayList<ContentProviderOperation> ops, int rawContactIndex,
             JSONObject org) {
         ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
+                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex)
                 .withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.Organization.CONTENT_ITEM_TYPE)
                 .withValue(ContactsContract.CommonDataKinds.Organization.TYPE, getOrgType(getJsonString(org, "type")))
                 .withValue(ContactsContract.CommonDataKinds.Organization.DEPARTMENT, getJsonString(org, "department"))
@@ -1471,12 +1884,13 @@ public class ContactAccessorSdk5 extends ContactAccessor {
      * Add an address to a list of database actions to be performed
      *
      * @param ops the list of database actions
+     * @param rawContactIndex the position of the raw contact insert in the list
      * @param address the item to be inserted
      */
-    private void insertAddress(ArrayList<ContentProviderOperation> ops,
+    private void insertAddress(ArrayList<ContentProviderOperation> ops, int rawContactIndex,
             JSONObject address) {
         ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
+                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex)
                 .withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE)
                 .withValue(ContactsContract.CommonDataKinds.StructuredPostal.TYPE, getAddressType(getJsonString(address, "type")))
                 .withValue(ContactsContract.CommonDataKinds.StructuredPostal.FORMATTED_ADDRESS, getJsonString(address, "formatted"))
@@ -1492,12 +1906,13 @@ public class ContactAccessorSdk5 extends ContactAccessor {
      * Add an email to a list of database actions to be performed
      *
      * @param ops the list of database actions
+     * @param rawContactIndex the position of the raw contact insert in the list
      * @param email the item to be inserted
      */
-    private void insertEmail(ArrayList<ContentProviderOperation> ops,
+    private void insertEmail(ArrayList<ContentProviderOperation> ops, int rawContactIndex,
             JSONObject email) {
         ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
+                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex)
                 .withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE)
                 .withValue(ContactsContract.CommonDataKinds.Email.DATA, getJsonString(email, "value"))
                 .withValue(ContactsContract.CommonDataKinds.Email.TYPE, getContactType(getJsonString(email, "type")))
@@ -1508,12 +1923,13 @@ public class ContactAccessorSdk5 extends ContactAccessor {
      * Add a phone to a list of database actions to be performed
      *
      * @param ops the list of database actions
+     * @param rawContactIndex the position of the raw contact insert in the list
      * @param phone the item to be inserted
      */
-    private void insertPhone(ArrayList<ContentProviderOperation> ops,
+    private void insertPhone(ArrayList<ContentProviderOperation> ops, int rawContactIndex,
             JSONObject phone) {
         ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
+                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex)
                 .withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE)
                 .withValue(ContactsContract.CommonDataKinds.Phone.NUMBER, getJsonString(phone, "value"))
                 .withValue(ContactsContract.CommonDataKinds.Phone.TYPE, getPhoneType(getJsonString(phone, "type")))
@@ -1524,13 +1940,14 @@ public class ContactAccessorSdk5 extends ContactAccessor {
      * Add a phone to a list of database actions to be performed
      *
      * @param ops the list of database actions
+     * @param rawContactIndex the position of the raw contact insert in the list
      * @param phone the item to be inserted
      */
-    private void insertPhoto(ArrayList<ContentProviderOperation> ops,
+    private void insertPhoto(ArrayList<ContentProviderOperation> ops, int rawContactIndex,
             JSONObject photo) {
         byte[] bytes = getPhotoBytes(getJsonString(photo, "value"));
         ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
+                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex)
                 .withValue(ContactsContract.Data.IS_SUPER_PRIMARY, 1)
                 .withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.Photo.CONTENT_ITEM_TYPE)
                 .withValue(ContactsContract.CommonDataKinds.Photo.PHOTO, bytes)
@@ -1597,6 +2014,34 @@ public class ContactAccessorSdk5 extends ContactAccessor {
     private String createNewContact(JSONObject contact, String accountType, String accountName) {
         // Create a list of attributes to add to the contact database
         ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+        addNewContactOperations(ops, contact, accountType, accountName);
+
+        String newId = null;
+        //Add contact
+        try {
+            ContentProviderResult[] cpResults = mApp.getActivity().getContentResolver().applyBatch(ContactsContract.AUTHORITY, ops);
+            if (cpResults.length >= 0) {
+                newId = cpResults[0].uri.getLastPathSegment();
+            }
+        } catch (RemoteException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+        } catch (OperationApplicationException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+        }
+        return newId;
+    }
+
+    /**
+     * Appends the operations that create a new contact to the list.  The first one inserts
+     * the raw contact, and the others refer back to it by its position in the list.
+     *
+     * @param ops the list of database actions
+     * @param contact the contact to be saved
+     * @param account the account to be saved under
+     */
+    private void addNewContactOperations(ArrayList<ContentProviderOperation> ops, JSONObject contact,
+            String accountType, String accountName) {
+        int rawContactIndex = ops.size();
 
         //Add contact type
         ops.add(ContentProviderOperation.newInsert(ContactsContract.RawContacts.CONTENT_URI)
@@ -1610,7 +2055,7 @@ public class ContactAccessorSdk5 extends ContactAccessor {
             String displayName = contact.getString("displayName");
             if (displayName != null || name != null) {
                 ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-                        .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
+                        .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex)
                         .withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE)
                         .withValue(ContactsContract.CommonDataKinds.StructuredName.DISPLAY_NAME, displayName)
                         .withValue(ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME, getJsonString(name, "familyName"))
@@ -1631,7 +2076,7 @@ public class ContactAccessorSdk5 extends ContactAccessor {
             if (phones != null) {
                 for (int i = 0; i < phones.length(); i++) {
                     JSONObject phone = (JSONObject) phones.get(i);
-                    insertPhone(ops, phone);
+                    insertPhone(ops, rawContactIndex, phone);
                 }
             }
         } catch (JSONException e) {
@@ -1645,7 +2090,7 @@ public class ContactAccessorSdk5 extends ContactAccessor {
             if (emails != null) {
                 for (int i = 0; i < emails.length(); i++) {
                     JSONObject email = (JSONObject) emails.get(i);
-                    insertEmail(ops, email);
+                    insertEmail(ops, rawContactIndex, email);
                 }
             }
         } catch (JSONException e) {
@@ -1659,7 +2104,7 @@ public class ContactAccessorSdk5 extends ContactAccessor {
             if (addresses != null) {
                 for (int i = 0; i < addresses.length(); i++) {
                     JSONObject address = (JSONObject) addresses.get(i);
-                    insertAddress(ops, address);
+                    insertAddress(ops, rawContactIndex, address);
                 }
             }
         } catch (JSONException e) {
@@ -1673,7 +2118,7 @@ public class ContactAccessorSdk5 extends ContactAccessor {
             if (organizations != null) {
                 for (int i = 0; i < organizations.length(); i++) {
                     JSONObject org = (JSONObject) organizations.get(i);
-                    insertOrganization(ops, org);
+                    insertOrganization(ops, rawContactIndex, org);
                 }
             }
         } catch (JSONException e) {
@@ -1687,7 +2132,7 @@ public class ContactAccessorSdk5 extends ContactAccessor {
             if (ims != null) {
                 for (int i = 0; i < ims.length(); i++) {
                     JSONObject im = (JSONObject) ims.get(i);
-                    insertIm(ops, im);
+                    insertIm(ops, rawContactIndex, im);
                 }
             }
         } catch (JSONException e) {
@@ -1698,7 +2143,7 @@ public class ContactAccessorSdk5 extends ContactAccessor {
         String note = getJsonString(contact, "note");
         if (note != null) {
             ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-                    .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
+                    .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex)
                     .withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.Note.CONTENT_ITEM_TYPE)
                     .withValue(ContactsContract.CommonDataKinds.Note.NOTE, note)
                     .build());
@@ -1708,7 +2153,7 @@ public class ContactAccessorSdk5 extends ContactAccessor {
         String nickname = getJsonString(contact, "nickname");
         if (nickname != null) {
             ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-                    .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
+                    .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex)
                     .withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.Nickname.CONTENT_ITEM_TYPE)
                     .withValue(ContactsContract.CommonDataKinds.Nickname.NAME, nickname)
                     .build());
@@ -1721,7 +2166,7 @@ public class ContactAccessorSdk5 extends ContactAccessor {
             if (websites != null) {
                 for (int i = 0; i < websites.length(); i++) {
                     JSONObject website = (JSONObject) websites.get(i);
-                    insertWebsite(ops, website);
+                    insertWebsite(ops, rawContactIndex, website);
                 }
             }
         } catch (JSONException e) {
@@ -1732,7 +2177,7 @@ public class ContactAccessorSdk5 extends ContactAccessor {
         String birthday = getJsonString(contact, "birthday");
         if (birthday != null) {
             ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-                    .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
+                    .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex)
                     .withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE)
                     .withValue(ContactsContract.CommonDataKinds.Event.TYPE, ContactsContract.CommonDataKinds.Event.TYPE_BIRTHDAY)
                     .withValue(ContactsContract.CommonDataKinds.Event.START_DATE, birthday)
@@ -1746,26 +2191,12 @@ public class ContactAccessorSdk5 extends ContactAccessor {
             if (photos != null) {
                 for (int i = 0; i < photos.length(); i++) {
                     JSONObject photo = (JSONObject) photos.get(i);
-                    insertPhoto(ops, photo);
+                    insertPhoto(ops, rawContactIndex, photo);
                 }
             }
         } catch (JSONException e) {
             Log.d(LOG_TAG, "Could not get photos");
         }
-
-        String newId = null;
-        //Add contact
-        try {
-            ContentProviderResult[] cpResults = mApp.getActivity().getContentResolver().applyBatch(ContactsContract.AUTHORITY, ops);
-            if (cpResults.length >= 0) {
-                newId = cpResults[0].uri.getLastPathSegment();
-            }
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-        } catch (OperationApplicationException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-        }
-        return newId;
     }
 
     @Override
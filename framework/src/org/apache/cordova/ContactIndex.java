@@ -0,0 +1,424 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+/**
+ * An in-memory trigram index over the display names, phone numbers and emails of
+ * every contact on the device.  It answers the same substring matches as the
+ * LIKE '%term%' clauses built by {@link ContactAccessorSdk5}, but without touching
+ * the contacts provider.
+ * <p>
+ * The index is built lazily on a background thread the first time it is searched.
+ * A ContentObserver on the contacts provider drops it whenever the contacts change
+ * and rebuilds it in the background.  While no index is available, search returns
+ * null and the caller is expected to fall back to querying the provider.
+ */
+public class ContactIndex {
+    private static final String LOG_TAG = "ContactIndex";
+
+    private static final int GRAM_LENGTH = 3;
+
+    // Buckets of indexed values, used to restrict a search to the requested fields.
+    private static final int NAME = 0;
+    private static final int PHONE = 1;
+    private static final int EMAIL = 2;
+    private static final char[] BUCKET_TAGS = { 'n', 'p', 'e' };
+
+    private final ContentResolver resolver;
+    private final ExecutorService executor;
+    private final ContentObserver observer;
+
+    private final AtomicBoolean building = new AtomicBoolean();
+    private final AtomicInteger generation = new AtomicInteger();
+    private volatile Snapshot snapshot;
+    private volatile boolean closed;
+
+    /**
+     * A contact as seen by the index.
+     */
+    public static class Entry {
+        public final String id;
+        public final String rawId;
+        // Only assigned while the index is built, before it is published
+        String displayName;
+        final String[][] values = new String[BUCKET_TAGS.length][];
+
+        Entry(String id, String rawId) {
+            this.id = id;
+            this.rawId = rawId;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    /**
+     * An immutable view of the contacts at the time the index was built.
+     */
+    private static class Snapshot {
+        // Sorted by ascending contact id
+        final Entry[] entries;
+        // Bucket tag + trigram -> ascending entry positions
+        final HashMap<String, int[]> postings;
+
+        Snapshot(Entry[] entries, HashMap<String, int[]> postings) {
+            this.entries = entries;
+            this.postings = postings;
+        }
+    }
+
+    public ContactIndex(ContentResolver resolver, ExecutorService executor) {
+        this.resolver = resolver;
+        this.executor = executor;
+        this.observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidate();
+            }
+        };
+        resolver.registerContentObserver(ContactsContract.AUTHORITY_URI, true, observer);
+    }
+
+    /**
+     * Stops observing the contacts provider and drops the index.
+     */
+    public void close() {
+        closed = true;
+        snapshot = null;
+        resolver.unregisterContentObserver(observer);
+    }
+
+    /**
+     * Searches the index for contacts whose values in the given fields contain the term.
+     *
+     * @param fields the properties to search against
+     * @param filter the string to search for, without any wildcards
+     * @return the matching contacts in ascending id order, or null if the index
+     *         cannot answer this search and the provider has to be queried instead
+     */
+    public List<Entry> search(JSONArray fields, String filter) {
+        boolean[] buckets = bucketsFor(fields);
+        // Wildcards keep their LIKE meaning only on the cold path, and match-all
+        // searches are cheap enough there already.
+        if (buckets == null || filter == null || filter.length() == 0
+                || filter.indexOf('%') >= 0 || filter.indexOf('_') >= 0) {
+            return null;
+        }
+
+        Snapshot current = snapshot;
+        if (current == null) {
+            scheduleBuild();
+            return null;
+        }
+
+        String term = filter.toLowerCase(Locale.US);
+        boolean[] matches = new boolean[current.entries.length];
+        for (int bucket = 0; bucket < buckets.length; bucket++) {
+            if (buckets[bucket]) {
+                matchBucket(current, bucket, term, matches);
+            }
+        }
+
+        List<Entry> result = new ArrayList<Entry>();
+        for (int i = 0; i < matches.length; i++) {
+            if (matches[i]) {
+                result.add(current.entries[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Marks every entry of the bucket that contains the term.  Terms at least as long
+     * as a trigram only verify the entries found in the postings of all their trigrams.
+     */
+    private void matchBucket(Snapshot current, int bucket, String term, boolean[] matches) {
+        if (term.length() < GRAM_LENGTH) {
+            for (int i = 0; i < current.entries.length; i++) {
+                if (!matches[i] && contains(current.entries[i].values[bucket], term)) {
+                    matches[i] = true;
+                }
+            }
+            return;
+        }
+
+        int[] candidates = null;
+        for (int start = 0; start + GRAM_LENGTH <= term.length(); start++) {
+            int[] posting = current.postings.get(BUCKET_TAGS[bucket] + term.substring(start, start + GRAM_LENGTH));
+            if (posting == null) {
+                return;
+            }
+            candidates = candidates == null ? posting : intersect(candidates, posting);
+            if (candidates.length == 0) {
+                return;
+            }
+        }
+        for (int i = 0; i < candidates.length; i++) {
+            int position = candidates[i];
+            if (!matches[position] && contains(current.entries[position].values[bucket], term)) {
+                matches[position] = true;
+            }
+        }
+    }
+
+    private static boolean contains(String[] values, String term) {
+        if (values != null) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i].indexOf(term) >= 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        if (n == result.length) {
+            return result;
+        }
+        int[] trimmed = new int[n];
+        System.arraycopy(result, 0, trimmed, 0, n);
+        return trimmed;
+    }
+
+    /**
+     * Maps the search fields onto the indexed buckets.
+     *
+     * @return the buckets to search, or null if a field is not covered by the index
+     */
+    private static boolean[] bucketsFor(JSONArray fields) {
+        if (fields == null || fields.length() == 0) {
+            return null;
+        }
+        boolean[] buckets = new boolean[BUCKET_TAGS.length];
+        try {
+            for (int i = 0; i < fields.length(); i++) {
+                String key = fields.getString(i);
+                if (key.equals("displayName") || key.equals("name") || key.equals("name.formatted")) {
+                    buckets[NAME] = true;
+                }
+                else if (key.equals("phoneNumbers") || key.equals("phoneNumbers.value")) {
+                    buckets[PHONE] = true;
+                }
+                else if (key.equals("emails") || key.equals("emails.value")) {
+                    buckets[EMAIL] = true;
+                }
+                else {
+                    return null;
+                }
+            }
+        } catch (JSONException e) {
+            return null;
+        }
+        return buckets;
+    }
+
+    /**
+     * Drops the current index and rebuilds it in the background.
+     */
+    private void invalidate() {
+        snapshot = null;
+        generation.incrementAndGet();
+        scheduleBuild();
+    }
+
+    private void scheduleBuild() {
+        if (closed || !building.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    int built;
+                    // Keep going until no change was observed while building
+                    do {
+                        built = generation.get();
+                        Snapshot fresh = build();
+                        if (built == generation.get() && !closed) {
+                            snapshot = fresh;
+                        }
+                    } while (built != generation.get() && !closed);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to build the contact index", e);
+                } finally {
+                    building.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the names, phone numbers and emails of all contacts in one query.
+     */
+    private Snapshot build() {
+        long start = System.currentTimeMillis();
+        Cursor c = resolver.query(ContactsContract.Data.CONTENT_URI,
+                new String[] { ContactsContract.Data.CONTACT_ID,
+                        ContactsContract.Data.RAW_CONTACT_ID,
+                        ContactsContract.Data.MIMETYPE,
+                        ContactsContract.Contacts.DISPLAY_NAME,
+                        ContactsContract.Data.DATA1 },
+                ContactsContract.Data.MIMETYPE + " IN (?,?,?)",
+                new String[] { ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
+                        ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE,
+                        ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE },
+                ContactsContract.Data.CONTACT_ID + " ASC");
+
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        HashMap<String, IntList> postings = new HashMap<String, IntList>();
+        if (c != null) {
+            try {
+                Entry entry = null;
+                ArrayList<ArrayList<String>> values = new ArrayList<ArrayList<String>>();
+                for (int i = 0; i < BUCKET_TAGS.length; i++) {
+                    values.add(new ArrayList<String>());
+                }
+                while (c.moveToNext()) {
+                    String contactId = c.getString(0);
+                    if (entry == null || !entry.id.equals(contactId)) {
+                        if (entry != null) {
+                            addEntry(entries, postings, entry, values);
+                        }
+                        entry = new Entry(contactId, c.getString(1));
+                        String aggregateName = c.getString(3);
+                        if (aggregateName != null) {
+                            values.get(NAME).add(aggregateName.toLowerCase(Locale.US));
+                        }
+                    }
+                    String mimetype = c.getString(2);
+                    String value = c.getString(4);
+                    if (value == null) {
+                        continue;
+                    }
+                    if (mimetype.equals(ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE)) {
+                        entry.displayName = value;
+                        addValue(values.get(NAME), value);
+                    }
+                    else if (mimetype.equals(ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE)) {
+                        addValue(values.get(PHONE), value);
+                    }
+                    else if (mimetype.equals(ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE)) {
+                        addValue(values.get(EMAIL), value);
+                    }
+                }
+                if (entry != null) {
+                    addEntry(entries, postings, entry, values);
+                }
+            } finally {
+                c.close();
+            }
+        }
+
+        HashMap<String, int[]> frozen = new HashMap<String, int[]>(postings.size() * 4 / 3 + 1);
+        for (java.util.Map.Entry<String, IntList> posting : postings.entrySet()) {
+            frozen.put(posting.getKey(), posting.getValue().toArray());
+        }
+        Log.d(LOG_TAG, "Indexed " + entries.size() + " contacts in " + (System.currentTimeMillis() - start) + "ms");
+        return new Snapshot(entries.toArray(new Entry[entries.size()]), frozen);
+    }
+
+    private static void addValue(ArrayList<String> values, String value) {
+        String lower = value.toLowerCase(Locale.US);
+        if (!values.contains(lower)) {
+            values.add(lower);
+        }
+    }
+
+    /**
+     * Appends the entry and posts its trigrams, then clears the collected values.
+     */
+    private static void addEntry(ArrayList<Entry> entries, HashMap<String, IntList> postings,
+            Entry entry, ArrayList<ArrayList<String>> values) {
+        int position = entries.size();
+        for (int bucket = 0; bucket < BUCKET_TAGS.length; bucket++) {
+            ArrayList<String> bucketValues = values.get(bucket);
+            entry.values[bucket] = bucketValues.toArray(new String[bucketValues.size()]);
+            for (String value : bucketValues) {
+                for (int start = 0; start + GRAM_LENGTH <= value.length(); start++) {
+                    String gram = BUCKET_TAGS[bucket] + value.substring(start, start + GRAM_LENGTH);
+                    IntList posting = postings.get(gram);
+                    if (posting == null) {
+                        posting = new IntList();
+                        postings.put(gram, posting);
+                    }
+                    posting.addOnce(position);
+                }
+            }
+            bucketValues.clear();
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * A growable list of ascending ints that avoids boxing while the index is built.
+     */
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void addOnce(int value) {
+            if (size > 0 && values[size - 1] == value) {
+                return;
+            }
+            if (size == values.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            int[] result = new int[size];
+            System.arraycopy(values, 0, result, 0, size);
+            return result;
+        }
+    }
+}
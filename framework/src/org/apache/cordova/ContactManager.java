@@ -74,10 +74,22 @@ public class ContactManager extends CordovaPlugin {
         if (action.equals("search")) {
             final JSONArray filter = args.getJSONArray(0);
             final JSONObject options = args.getJSONObject(1);
+            // A pageSize option asks for the result to be streamed back one page at a time
+            final boolean paged = options.optInt("pageSize", 0) > 0;
             this.cordova.getThreadPool().execute(new Runnable() {
                 public void run() {
-                    JSONArray res = contactAccessor.search(filter, options);
-                    callbackContext.success(res);
+                    if (paged) {
+                        contactAccessor.search(filter, options, new ContactAccessor.SearchPageHandler() {
+                            public void onPage(JSONArray page, boolean last) {
+                                PluginResult result = new PluginResult(PluginResult.Status.OK, page);
+                                result.setKeepCallback(!last);
+                                callbackContext.sendPluginResult(result);
+                            }
+                        });
+                    } else {
+                        JSONArray res = contactAccessor.search(filter, options);
+                        callbackContext.success(res);
+                    }
                 }
             });
         }
@@ -114,9 +126,43 @@ public class ContactManager extends CordovaPlugin {
                 }
             });
         }
+        else if (action.equals("saveAll")) {
+            final JSONArray contacts = args.getJSONArray(0);
+            JSONObject options = args.optJSONObject(1);
+            // Reading the saved contacts back costs a query, so only do it when asked to
+            final boolean fetchContacts = options != null && options.optBoolean("returnContacts", false);
+            this.cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    try {
+                        callbackContext.success(contactAccessor.saveAll(contacts, fetchContacts));
+                    } catch (RuntimeException e) {
+                        // Always answer, so that the JavaScript callback doesn't wait forever
+                        Log.e(LOG_TAG, "saveAll failed", e);
+                        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, UNKNOWN_ERROR));
+                    }
+                }
+            });
+        }
+        else if (action.equals("removeAll")) {
+            final JSONArray contactIds = args.getJSONArray(0);
+            this.cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    callbackContext.success(contactAccessor.removeAll(contactIds));
+                }
+            });
+        }
         else {
             return false;
         }
         return true;
     }
+
+    /**
+     * Stop maintaining the contact index when the activity is destroyed.
+     */
+    public void onDestroy() {
+        if (this.contactAccessor != null) {
+            this.contactAccessor.destroy();
+        }
+    }
 }
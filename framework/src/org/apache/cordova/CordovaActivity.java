@@ -56,6 +56,8 @@ import android.webkit.ValueCallback;
 import android.webkit.WebViewClient;
 import android.widget.LinearLayout;
 
+import com.squareup.okhttp.OkHttpClient;
+
 /**
  * This class is the main Android activity that represents the Cordova
  * application.  It should be extended by the user to load the specific
@@ -499,6 +501,10 @@ public class CordovaActivity extends Activity implements CordovaInterface {
      * @return
      */
     public boolean getBooleanProperty(String name, boolean defaultValue) {
+        CordovaPreferences preferences = Config.getPreferences();
+        if (preferences != null) {
+            return preferences.getBoolean(name, defaultValue);
+        }
         Bundle bundle = this.getIntent().getExtras();
         if (bundle == null) {
             return defaultValue;
@@ -529,6 +535,10 @@ public class CordovaActivity extends Activity implements CordovaInterface {
      * @return
      */
     public int getIntegerProperty(String name, int defaultValue) {
+        CordovaPreferences preferences = Config.getPreferences();
+        if (preferences != null) {
+            return preferences.getInteger(name, defaultValue);
+        }
         Bundle bundle = this.getIntent().getExtras();
         if (bundle == null) {
             return defaultValue;
@@ -553,6 +563,10 @@ public class CordovaActivity extends Activity implements CordovaInterface {
      * @return
      */
     public String getStringProperty(String name, String defaultValue) {
+        CordovaPreferences preferences = Config.getPreferences();
+        if (preferences != null) {
+            return preferences.getString(name, defaultValue);
+        }
         Bundle bundle = this.getIntent().getExtras();
         if (bundle == null) {
             return defaultValue;
@@ -572,6 +586,10 @@ public class CordovaActivity extends Activity implements CordovaInterface {
      * @return
      */
     public double getDoubleProperty(String name, double defaultValue) {
+        CordovaPreferences preferences = Config.getPreferences();
+        if (preferences != null) {
+            return preferences.getDouble(name, defaultValue);
+        }
         Bundle bundle = this.getIntent().getExtras();
         if (bundle == null) {
             return defaultValue;
@@ -597,6 +615,7 @@ public class CordovaActivity extends Activity implements CordovaInterface {
     public void setBooleanProperty(String name, boolean value) {
         Log.d(TAG, "Setting boolean properties in CordovaActivity will be deprecated in 3.0 on July 2013, please use config.xml");
         this.getIntent().putExtra(name, value);
+        Config.setPreference(name, value);
     }
 
     /**
@@ -608,6 +627,7 @@ public class CordovaActivity extends Activity implements CordovaInterface {
     public void setIntegerProperty(String name, int value) {
         Log.d(TAG, "Setting integer properties in CordovaActivity will be deprecated in 3.0 on July 2013, please use config.xml");
         this.getIntent().putExtra(name, value);
+        Config.setPreference(name, value);
     }
 
     /**
@@ -619,6 +639,7 @@ public class CordovaActivity extends Activity implements CordovaInterface {
     public void setStringProperty(String name, String value) {
         Log.d(TAG, "Setting string properties in CordovaActivity will be deprecated in 3.0 on July 2013, please use config.xml");
         this.getIntent().putExtra(name, value);
+        Config.setPreference(name, value);
     }
 
     /**
@@ -630,6 +651,7 @@ public class CordovaActivity extends Activity implements CordovaInterface {
     public void setDoubleProperty(String name, double value) {
         Log.d(TAG, "Setting double properties in CordovaActivity will be deprecated in 3.0 on July 2013, please use config.xml");
         this.getIntent().putExtra(name, value);
+        Config.setPreference(name, value);
     }
 
     @Override
@@ -1135,6 +1157,10 @@ public class CordovaActivity extends Activity implements CordovaInterface {
     public ExecutorService getThreadPool() {
         return threadPool;
     }
+
+    public OkHttpClient getHttpClient() {
+        return CordovaHttpClient.getInstance(this);
+    }
     
     protected void onSaveInstanceState(Bundle outState)
     {
@@ -0,0 +1,102 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.HttpResponseCache;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.internal.CachingDns;
+import com.squareup.okhttp.internal.Dns;
+
+/**
+ * Owns the OkHttpClient that the app's HTTP requests share, so that they reuse each other's
+ * connections, DNS lookups and cached responses.  Plugins get it from CordovaInterface.getHttpClient().
+ * <p>
+ * It is created on first use, with these config.xml preferences:
+ *   HttpCacheSize              bytes of responses cached under the app's cache directory, 0 for none
+ *   HttpMemoryCacheSize        bytes of small responses also kept in memory, 0 for none
+ *   HttpMaxIdleConnections     idle connections kept for reuse
+ *   HttpKeepAliveDuration      msec an idle connection is kept
+ */
+public class CordovaHttpClient {
+
+    private static final String LOG_TAG = "CordovaHttpClient";
+    private static final String CACHE_DIRECTORY = "http";
+
+    private static final int DEFAULT_CACHE_SIZE = 10 * 1024 * 1024;
+    private static final int DEFAULT_MEMORY_CACHE_SIZE = 1024 * 1024;
+    private static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    private static final int DEFAULT_KEEP_ALIVE_DURATION = 5 * 60 * 1000;
+
+    private static OkHttpClient instance;
+
+    private CordovaHttpClient() {
+    }
+
+    /**
+     * Returns the client shared by the whole app, creating it on first use.
+     */
+    public static synchronized OkHttpClient getInstance(Context context) {
+        if (instance == null) {
+            instance = create(context.getApplicationContext(), Config.getPreferences());
+        }
+        return instance;
+    }
+
+    /**
+     * Forgets the cached DNS lookups, which may not hold on the new network.  Does nothing
+     * if the client was not created yet.
+     */
+    public static synchronized void onNetworkChanged() {
+        if (instance != null && instance.getDns() instanceof CachingDns) {
+            ((CachingDns) instance.getDns()).evictAll();
+        }
+    }
+
+    private static OkHttpClient create(Context context, CordovaPreferences prefs) {
+        if (prefs == null) {
+            prefs = new CordovaPreferences(new HashMap<String, Object>());
+        }
+        OkHttpClient client = new OkHttpClient();
+        // Don't block each new connection on a DNS lookup
+        client.setDns(new CachingDns(Dns.DEFAULT));
+        client.setConnectionPool(new ConnectionPool(
+                prefs.getInteger("HttpMaxIdleConnections", DEFAULT_MAX_IDLE_CONNECTIONS),
+                prefs.getInteger("HttpKeepAliveDuration", DEFAULT_KEEP_ALIVE_DURATION)));
+
+        int cacheSize = prefs.getInteger("HttpCacheSize", DEFAULT_CACHE_SIZE);
+        if (cacheSize > 0) {
+            int memoryCacheSize = Math.max(0, prefs.getInteger("HttpMemoryCacheSize", DEFAULT_MEMORY_CACHE_SIZE));
+            try {
+                File directory = new File(context.getCacheDir(), CACHE_DIRECTORY);
+                client.setResponseCache(new HttpResponseCache(directory, cacheSize, memoryCacheSize));
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Unable to open the HTTP cache: " + e.getMessage());
+            }
+        }
+        return client;
+    }
+}
@@ -20,17 +20,18 @@ package org.apache.cordova;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
 
 import org.apache.cordova.api.CallbackContext;
+import org.apache.cordova.api.PluginResult;
+import org.json.JSONObject;
 
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 
 public class CordovaLocationListener implements LocationListener {
@@ -43,23 +44,51 @@ public class CordovaLocationListener implements LocationListener {
     protected boolean running = false;
 
     public HashMap<String, CallbackContext> watches = new HashMap<String, CallbackContext>();
+    // Filters of the watches that don't want every update, by the same ids
+    private HashMap<String, Filter> filters = new HashMap<String, Filter>();
     private List<CallbackContext> callbacks = new ArrayList<CallbackContext>();
-    
-    private Timer timer = null;
 
     private String TAG = "[Cordova Location Listener]";
 
+    /**
+     * Decides which updates a watch gets.
+     */
+    private static class Filter {
+        final float minDistance;            // meters moved since the last update sent
+        final long minInterval;             // msec passed since the last update sent
+        Location last;
+
+        Filter(float minDistance, long minInterval) {
+            this.minDistance = minDistance;
+            this.minInterval = minInterval;
+        }
+
+        boolean accepts(Location loc) {
+            if (this.last == null) {
+                return true;
+            }
+            if (loc.getTime() - this.last.getTime() < this.minInterval) {
+                return false;
+            }
+            return this.minDistance <= 0 || loc.distanceTo(this.last) >= this.minDistance;
+        }
+    }
+
     public CordovaLocationListener(LocationManager manager, GeoBroker broker, String tag) {
         this.locationManager = manager;
         this.owner = broker;
         this.TAG = tag;
     }
 
-    protected void fail(int code, String message) {
-    	this.cancelTimer();
-        for (CallbackContext callbackContext: this.callbacks)
-        {
-            this.owner.fail(code, message, callbackContext, false);
+    protected synchronized void fail(int code, String message) {
+        this.cancelTimer();
+        // Build each result once and send it to everyone waiting
+        if (!this.callbacks.isEmpty()) {
+            PluginResult result = this.owner.createErrorResult(code, message);
+            for (CallbackContext callbackContext: this.callbacks)
+            {
+                callbackContext.sendPluginResult(result);
+            }
         }
         if(this.owner.isGlobalListener(this) && this.watches.size() == 0)
         {
@@ -68,17 +97,25 @@ public class CordovaLocationListener implements LocationListener {
         }
         this.callbacks.clear();
 
-        Iterator<CallbackContext> it = this.watches.values().iterator();
-        while (it.hasNext()) {
-            this.owner.fail(code, message, it.next(), true);
+        if (!this.watches.isEmpty()) {
+            PluginResult result = this.owner.createErrorResult(code, message);
+            result.setKeepCallback(true);
+            for (CallbackContext callbackContext : this.watches.values()) {
+                callbackContext.sendPluginResult(result);
+            }
         }
     }
 
-    private void win(Location loc) {
-    	this.cancelTimer();
-        for (CallbackContext callbackContext: this.callbacks)
-        {
-            this.owner.win(loc, callbackContext, false);
+    private synchronized void win(Location loc) {
+        this.cancelTimer();
+        // Build the position once and send the same result to everyone waiting
+        JSONObject position = this.owner.returnLocationJSON(loc);
+        if (!this.callbacks.isEmpty()) {
+            PluginResult result = new PluginResult(PluginResult.Status.OK, position);
+            for (CallbackContext callbackContext: this.callbacks)
+            {
+                callbackContext.sendPluginResult(result);
+            }
         }
         if(this.owner.isGlobalListener(this) && this.watches.size() == 0)
         {
@@ -87,9 +124,20 @@ public class CordovaLocationListener implements LocationListener {
         }
         this.callbacks.clear();
 
-        Iterator<CallbackContext> it = this.watches.values().iterator();
-        while (it.hasNext()) {
-            this.owner.win(loc, it.next(), true);
+        PluginResult watchResult = null;
+        for (Map.Entry<String, CallbackContext> watch : this.watches.entrySet()) {
+            Filter filter = this.filters.get(watch.getKey());
+            if (filter != null) {
+                if (!filter.accepts(loc)) {
+                    continue;
+                }
+                filter.last = loc;
+            }
+            if (watchResult == null) {
+                watchResult = new PluginResult(PluginResult.Status.OK, position);
+                watchResult.setKeepCallback(true);
+            }
+            watch.getValue().sendPluginResult(watchResult);
         }
     }
 
@@ -151,30 +199,46 @@ public class CordovaLocationListener implements LocationListener {
 
     // PUBLIC
 
-    public int size() {
+    public synchronized int size() {
         return this.watches.size() + this.callbacks.size();
     }
 
     public void addWatch(String timerId, CallbackContext callbackContext) {
+        this.addWatch(timerId, callbackContext, 0, 0);
+    }
+
+    /**
+     * Adds a watch that only gets the updates that are at least minDistance meters and
+     * minInterval msec away from the last one it got.
+     */
+    public synchronized void addWatch(String timerId, CallbackContext callbackContext, float minDistance, long minInterval) {
         this.watches.put(timerId, callbackContext);
+        if (minDistance > 0 || minInterval > 0) {
+            this.filters.put(timerId, new Filter(minDistance, minInterval));
+        } else {
+            this.filters.remove(timerId);
+        }
         if (this.size() == 1) {
             this.start();
         }
     }
-    public void addCallback(CallbackContext callbackContext, int timeout) {
-    	if(this.timer == null) {
-    		this.timer = new Timer();
-    	}
-    	this.timer.schedule(new LocationTimeoutTask(callbackContext, this), timeout);
-        this.callbacks.add(callbackContext);        
+    public synchronized void addCallback(final CallbackContext callbackContext, int timeout) {
+        // Timeouts of all listeners run on the broker's one handler, tagged with their listener
+        this.owner.getScheduler().postAtTime(new Runnable() {
+            public void run() {
+                CordovaLocationListener.this.timeout(callbackContext);
+            }
+        }, this, SystemClock.uptimeMillis() + timeout);
+        this.callbacks.add(callbackContext);
         if (this.size() == 1) {
             this.start();
         }
     }
-    public void clearWatch(String timerId) {
+    public synchronized void clearWatch(String timerId) {
         if (this.watches.containsKey(timerId)) {
             this.watches.remove(timerId);
         }
+        this.filters.remove(timerId);
         if (this.size() == 0) {
             this.stop();
         }
@@ -183,7 +247,7 @@ public class CordovaLocationListener implements LocationListener {
     /**
      * Destroy listener.
      */
-    public void destroy() {    	
+    public synchronized void destroy() {
         this.stop();
     }
 
@@ -209,43 +273,25 @@ public class CordovaLocationListener implements LocationListener {
      * Stop receiving location updates.
      */
     private void stop() {
-    	this.cancelTimer();
+        this.cancelTimer();
         if (this.running) {
             this.locationManager.removeUpdates(this);
             this.running = false;
         }
     }
-    
+
     private void cancelTimer() {
-    	if(this.timer != null) {
-    		this.timer.cancel();
-        	this.timer.purge();
-        	this.timer = null;
-    	}
-    }
-    
-    private class LocationTimeoutTask extends TimerTask {
-    	
-    	private CallbackContext callbackContext = null;
-    	private CordovaLocationListener listener = null;
-    	
-    	public LocationTimeoutTask(CallbackContext callbackContext, CordovaLocationListener listener) {
-    		this.callbackContext = callbackContext;
-    		this.listener = listener;
-    	}
-
-		@Override
-		public void run() {
-			for (CallbackContext callbackContext: listener.callbacks) {
-				if(this.callbackContext == callbackContext) {
-					listener.callbacks.remove(callbackContext);
-					break;
-				}
-			}
-			
-			if(listener.size() == 0) {
-				listener.stop();
-			}
-		}    	
+        this.owner.getScheduler().removeCallbacksAndMessages(this);
+    }
+
+    /**
+     * Stops waiting for a position for the callback.  The JavaScript side reports the
+     * timeout itself.
+     */
+    private synchronized void timeout(CallbackContext callbackContext) {
+        this.callbacks.remove(callbackContext);
+        if (this.size() == 0) {
+            this.stop();
+        }
     }
 }
@@ -0,0 +1,142 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable set of preferences, read from the activity's extras and config.xml.
+ * <p>
+ * Each value is converted to a string, boolean, int and double once, when the store is
+ * built, so reading a preference is a single map lookup without any parsing or boxing.
+ * Since it never changes after it is built, any thread can read it without locking;
+ * changing a preference builds a new store.
+ */
+public final class CordovaPreferences {
+
+    private final HashMap<String, Entry> entries;
+
+    /**
+     * A preference value in each of the types it can be read as.
+     */
+    private static final class Entry {
+        final String string;
+        final boolean bool;
+        final boolean isInteger;
+        final int integer;
+        final boolean isDouble;
+        final double dbl;
+
+        Entry(Object value) {
+            this.string = value.toString();
+            if (value instanceof Boolean) {
+                this.bool = ((Boolean) value).booleanValue();
+            } else {
+                this.bool = "true".equals(this.string);
+            }
+            if (value instanceof Number) {
+                Number n = (Number) value;
+                this.isInteger = !(value instanceof Double || value instanceof Float) || n.doubleValue() == n.intValue();
+                this.integer = n.intValue();
+                this.isDouble = true;
+                this.dbl = n.doubleValue();
+                return;
+            }
+            int i = 0;
+            boolean parsedInteger = false;
+            try {
+                i = Integer.parseInt(this.string);
+                parsedInteger = true;
+            } catch (NumberFormatException e) {
+                // Not an int preference
+            }
+            this.isInteger = parsedInteger;
+            this.integer = i;
+            double d = 0;
+            boolean parsedDouble = false;
+            try {
+                d = Double.parseDouble(this.string);
+                parsedDouble = true;
+            } catch (NumberFormatException e) {
+                // Not a number preference
+            }
+            this.isDouble = parsedDouble;
+            this.dbl = d;
+        }
+    }
+
+    /**
+     * @param values    The preference values by name; null values are left out.
+     */
+    public CordovaPreferences(Map<String, ?> values) {
+        this.entries = new HashMap<String, Entry>(values.size() * 2);
+        for (Map.Entry<String, ?> value : values.entrySet()) {
+            if (value.getValue() != null) {
+                this.entries.put(value.getKey(), new Entry(value.getValue()));
+            }
+        }
+    }
+
+    private CordovaPreferences(HashMap<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Returns a copy of this store with one preference set.
+     */
+    public CordovaPreferences with(String name, Object value) {
+        HashMap<String, Entry> copy = new HashMap<String, Entry>(this.entries);
+        if (value == null) {
+            copy.remove(name);
+        } else {
+            copy.put(name, new Entry(value));
+        }
+        return new CordovaPreferences(copy);
+    }
+
+    public String getString(String name, String defaultValue) {
+        Entry entry = this.entries.get(name);
+        return entry == null ? defaultValue : entry.string;
+    }
+
+    /**
+     * @return  True for a boolean true or the string "true", the default if the preference is not set.
+     */
+    public boolean getBoolean(String name, boolean defaultValue) {
+        Entry entry = this.entries.get(name);
+        return entry == null ? defaultValue : entry.bool;
+    }
+
+    /**
+     * @return  The value, or the default if the preference is not set or not an int.
+     */
+    public int getInteger(String name, int defaultValue) {
+        Entry entry = this.entries.get(name);
+        return entry == null || !entry.isInteger ? defaultValue : entry.integer;
+    }
+
+    /**
+     * @return  The value, or the default if the preference is not set or not a number.
+     */
+    public double getDouble(String name, double defaultValue) {
+        Entry entry = this.entries.get(name);
+        return entry == null || !entry.isDouble ? defaultValue : entry.dbl;
+    }
+}
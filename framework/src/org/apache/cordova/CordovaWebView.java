@@ -420,7 +420,9 @@ public class CordovaWebView extends WebView {
         // Create a timeout timer for loadUrl
         final CordovaWebView me = this;
         final int currentLoadUrlTimeout = me.loadUrlTimeout;
-        final int loadUrlTimeoutValue = Integer.parseInt(this.getProperty("loadUrlTimeoutValue", "20000"));
+        CordovaPreferences preferences = Config.getPreferences();
+        final int loadUrlTimeoutValue = preferences != null ? preferences.getInteger("loadUrlTimeoutValue", 20000)
+                : Integer.parseInt(this.getProperty("loadUrlTimeoutValue", "20000"));
 
         // Timeout error method
         final Runnable loadError = new Runnable() {
@@ -629,6 +631,10 @@ public class CordovaWebView extends WebView {
      * @return
      */
     public String getProperty(String name, String defaultValue) {
+        CordovaPreferences preferences = Config.getPreferences();
+        if (preferences != null) {
+            return preferences.getString(name, defaultValue);
+        }
         Bundle bundle = this.cordova.getActivity().getIntent().getExtras();
         if (bundle == null) {
             return defaultValue;
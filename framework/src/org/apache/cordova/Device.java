@@ -24,6 +24,7 @@ import org.apache.cordova.api.CallbackContext;
 import org.apache.cordova.api.CordovaPlugin;
 import org.apache.cordova.api.LOG;
 import org.apache.cordova.api.CordovaInterface;
+import org.apache.cordova.api.PluginResult;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -42,6 +43,9 @@ public class Device extends CordovaPlugin {
     public static String platform = "Android";                  // Device OS
     public static String uuid;                                  // Device UUID
 
+    // None of the device info changes while the process runs, so it is built once
+    private static PluginResult deviceInfo;
+
     BroadcastReceiver telephonyReceiver = null;
 
     /**
@@ -73,13 +77,7 @@ public class Device extends CordovaPlugin {
      */
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
         if (action.equals("getDeviceInfo")) {
-            JSONObject r = new JSONObject();
-            r.put("uuid", Device.uuid);
-            r.put("version", this.getOSVersion());
-            r.put("platform", Device.platform);
-            r.put("cordova", Device.cordovaVersion);
-            r.put("model", this.getModel());
-            callbackContext.success(r);
+            callbackContext.sendPluginResult(this.getDeviceInfo());
         }
         else {
             return false;
@@ -137,6 +135,24 @@ public class Device extends CordovaPlugin {
         this.cordova.getActivity().registerReceiver(this.telephonyReceiver, intentFilter);
     }
 
+    /**
+     * Get the device info sent to JavaScript, building it on first use.
+     *
+     * @return
+     */
+    private synchronized PluginResult getDeviceInfo() throws JSONException {
+        if (Device.deviceInfo == null) {
+            JSONObject r = new JSONObject();
+            r.put("uuid", Device.uuid);
+            r.put("version", this.getOSVersion());
+            r.put("platform", Device.platform);
+            r.put("cordova", Device.cordovaVersion);
+            r.put("model", this.getModel());
+            Device.deviceInfo = new PluginResult(PluginResult.Status.OK, r);
+        }
+        return Device.deviceInfo;
+    }
+
     /**
      * Get the OS name.
      *
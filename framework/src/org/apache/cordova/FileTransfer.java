@@ -64,8 +64,6 @@ import android.os.Build;
 import android.util.Log;
 import android.webkit.CookieManager;
 
-import com.squareup.okhttp.OkHttpClient;
-
 public class FileTransfer extends CordovaPlugin {
 
     private static final String LOG_TAG = "FileTransfer";
@@ -81,8 +79,6 @@ public class FileTransfer extends CordovaPlugin {
     private static HashMap<String, RequestContext> activeRequests = new HashMap<String, RequestContext>();
     private static final int MAX_BUFFER_SIZE = 16 * 1024;
 
-    private static OkHttpClient httpClient = new OkHttpClient();
-
     private static final class RequestContext {
         String source;
         String target;
@@ -298,13 +294,13 @@ public class FileTransfer extends CordovaPlugin {
                     if (useHttps) {
                         // Using standard HTTPS connection. Will not allow self signed certificate
                         if (!trustEveryone) {
-                            conn = (HttpsURLConnection) httpClient.open(url);
+                            conn = (HttpsURLConnection) cordova.getHttpClient().open(url);
                         }
                         // Use our HTTPS connection that blindly trusts everyone.
                         // This should only be used in debug environments
                         else {
                             // Setup the HTTPS connection class to trust everyone
-                            HttpsURLConnection https = (HttpsURLConnection) httpClient.open(url);
+                            HttpsURLConnection https = (HttpsURLConnection) cordova.getHttpClient().open(url);
                             oldSocketFactory  = trustAllHosts(https);
                             // Save the current hostnameVerifier
                             oldHostnameVerifier = https.getHostnameVerifier();
@@ -315,7 +311,7 @@ public class FileTransfer extends CordovaPlugin {
                     }
                     // Return a standard HTTP connection
                     else {
-                        conn = httpClient.open(url);
+                        conn = cordova.getHttpClient().open(url);
                     }
 
                     // Allow Inputs
@@ -717,24 +713,26 @@ public class FileTransfer extends CordovaPlugin {
                     if (useHttps) {
                         // Using standard HTTPS connection. Will not allow self signed certificate
                         if (!trustEveryone) {
-                            connection = (HttpsURLConnection) httpClient.open(url);
+                            connection = (HttpsURLConnection) cordova.getHttpClient().open(url);
                         }
                         // Use our HTTPS connection that blindly trusts everyone.
                         // This should only be used in debug environments
                         else {
                             // Setup the HTTPS connection class to trust everyone
-                            HttpsURLConnection https = (HttpsURLConnection) httpClient.open(url);
+                            HttpsURLConnection https = (HttpsURLConnection) cordova.getHttpClient().open(url);
                             oldSocketFactory = trustAllHosts(https);
                             // Save the current hostnameVerifier
                             oldHostnameVerifier = https.getHostnameVerifier();
                             // Setup the connection not to verify hostnames
                             https.setHostnameVerifier(DO_NOT_VERIFY);
+                            // Keep unverified responses out of the shared cache, in both directions
+                            https.setUseCaches(false);
                             connection = https;
                         }
                     }
                     // Return a standard HTTP connection
                     else {
-                          connection = httpClient.open(url);
+                          connection = cordova.getHttpClient().open(url);
 
                     }
     
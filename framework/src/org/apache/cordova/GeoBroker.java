@@ -28,6 +28,8 @@ import org.json.JSONObject;
 import android.content.Context;
 import android.location.Location;
 import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
 
 /*
  * This class is the interface to the Geolocation.  It's bound to the geo object.
@@ -39,6 +41,7 @@ public class GeoBroker extends CordovaPlugin {
     private GPSListener gpsListener;
     private NetworkListener networkListener;
     private LocationManager locationManager;    
+    private final Handler scheduler = new Handler(Looper.getMainLooper());
 
     /**
      * Constructor.
@@ -79,7 +82,10 @@ public class GeoBroker extends CordovaPlugin {
             else if (action.equals("addWatch")) {
                 String id = args.getString(0);
                 boolean enableHighAccuracy = args.getBoolean(1);
-                this.addWatch(id, callbackContext, enableHighAccuracy);
+                // Optional filter: minimum meters moved and msec passed between updates
+                float minDistance = (float) args.optDouble(2, 0);
+                long minInterval = args.optLong(3, 0);
+                this.addWatch(id, callbackContext, enableHighAccuracy, minDistance, minInterval);
             }
             else if (action.equals("clearWatch")) {
                 String id = args.getString(0);
@@ -110,14 +116,21 @@ public class GeoBroker extends CordovaPlugin {
         }
     }
 
-    private void addWatch(String timerId, CallbackContext callbackContext, boolean enableHighAccuracy) {
+    private void addWatch(String timerId, CallbackContext callbackContext, boolean enableHighAccuracy, float minDistance, long minInterval) {
         if (enableHighAccuracy) {
-            this.gpsListener.addWatch(timerId, callbackContext);
+            this.gpsListener.addWatch(timerId, callbackContext, minDistance, minInterval);
         } else {
-            this.networkListener.addWatch(timerId, callbackContext);
+            this.networkListener.addWatch(timerId, callbackContext, minDistance, minInterval);
         }
     }
 
+    /**
+     * Returns the handler the location timeouts of all listeners are scheduled on.
+     */
+    Handler getScheduler() {
+        return this.scheduler;
+    }
+
     /**
      * Called when the activity is to be shut down.
      * Stop listener.
@@ -174,6 +187,18 @@ public class GeoBroker extends CordovaPlugin {
      * @throws JSONException 
      */
     public void fail(int code, String msg, CallbackContext callbackContext, boolean keepCallback) {
+        PluginResult result = this.createErrorResult(code, msg);
+        result.setKeepCallback(keepCallback);
+        callbackContext.sendPluginResult(result);
+    }
+
+    /**
+     * Creates the result reporting a location error, to be sent to any number of callbacks.
+     *
+     * @param code			The error code
+     * @param msg			The error message
+     */
+    public PluginResult createErrorResult(int code, String msg) {
         JSONObject obj = new JSONObject();
         String backup = null;
         try {
@@ -189,9 +214,7 @@ public class GeoBroker extends CordovaPlugin {
         } else {
             result = new PluginResult(PluginResult.Status.ERROR, backup);
         }
-
-        result.setKeepCallback(keepCallback);
-        callbackContext.sendPluginResult(result);
+        return result;
     }
 
     public boolean isGlobalListener(CordovaLocationListener listener)
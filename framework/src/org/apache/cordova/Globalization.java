@@ -21,6 +21,7 @@ package org.apache.cordova;
 
 import java.text.DateFormat;
 import java.text.DecimalFormat;
+import java.text.Format;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -28,6 +29,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Currency;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -41,10 +43,15 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import android.annotation.TargetApi;
+import android.app.Activity;
+import android.provider.Settings;
 import android.text.format.Time;
 
 /**
- *
+ * The date and number formatters, and the date patterns, which are costly to create, are
+ * kept in bounded caches keyed by locale and options.  Formatters are not thread safe, so
+ * each is locked while it is used.  The batch actions format or parse a whole array of
+ * values with one formatter in one call.
  */
 public class Globalization extends CordovaPlugin  {
     //GlobalizationCommand Plugin Actions
@@ -60,6 +67,10 @@ public class Globalization extends CordovaPlugin  {
     public static final String GETNUMBERPATTERN = "getNumberPattern";
     public static final String GETCURRENCYPATTERN = "getCurrencyPattern";
     public static final String GETPREFERREDLANGUAGE = "getPreferredLanguage";
+    public static final String DATESTOSTRINGS = "datesToStrings";
+    public static final String STRINGSTODATES = "stringsToDates";
+    public static final String NUMBERSTOSTRINGS = "numbersToStrings";
+    public static final String STRINGSTONUMBERS = "stringsToNumbers";
 
     //GlobalizationCommand Option Parameters
     public static final String OPTIONS = "options";
@@ -85,6 +96,30 @@ public class Globalization extends CordovaPlugin  {
     public static final String PERCENT = "percent";
     public static final String CURRENCY = "currency";
     public static final String CURRENCYCODE = "currencyCode";
+    public static final String DATES = "dates";
+    public static final String DATESTRINGS = "dateStrings";
+    public static final String NUMBERS = "numbers";
+    public static final String NUMBERSTRINGS = "numberStrings";
+
+    private static final int MAX_CACHED_FORMATS = 32;
+
+    // Formatters by locale, kind and pattern, least recently used first
+    @SuppressWarnings("serial")
+    private static final LinkedHashMap<String, Format> formats = new LinkedHashMap<String, Format>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Format> eldest) {
+            return size() > MAX_CACHED_FORMATS;
+        }
+    };
+
+    // Date patterns by locale, user settings and options, least recently used first
+    @SuppressWarnings("serial")
+    private static final LinkedHashMap<String, String> datePatterns = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED_FORMATS;
+        }
+    };
 
     @Override
     public boolean execute(String action, JSONArray data, CallbackContext callbackContext) {
@@ -119,6 +154,14 @@ public class Globalization extends CordovaPlugin  {
                 obj = getNumberPattern(data);
             }else if(action.equalsIgnoreCase(GETCURRENCYPATTERN)){
                 obj = getCurrencyPattern(data);
+            }else if(action.equalsIgnoreCase(DATESTOSTRINGS)){
+                obj = getDatesToStrings(data);
+            }else if(action.equalsIgnoreCase(STRINGSTODATES)){
+                obj = getStringsToDates(data);
+            }else if(action.equalsIgnoreCase(NUMBERSTOSTRINGS)){
+                obj = getNumbersToStrings(data);
+            }else if(action.equalsIgnoreCase(STRINGSTONUMBERS)){
+                obj = getStringsToNumbers(data);
             }else {
                 return false;
             }
@@ -180,11 +223,12 @@ public class Globalization extends CordovaPlugin  {
             Date date = new Date((Long)options.getJSONObject(0).get(DATE));
 
             //get formatting pattern from android device (Will only have device specific formatting for short form of date) or options supplied
-            JSONObject datePattern = getDatePattern(options);
-            SimpleDateFormat fmt = new SimpleDateFormat(datePattern.getString("pattern"));
+            SimpleDateFormat fmt = getDateFormat(getDatePatternString(options.getJSONObject(0).optJSONObject(OPTIONS)));
 
             //return formatted date
-            return obj.put("value",fmt.format(date));
+            synchronized (fmt) {
+                return obj.put("value",fmt.format(date));
+            }
         }catch(Exception ge){
             throw new GlobalizationError(GlobalizationError.FORMATTING_ERROR);
         }
@@ -206,33 +250,44 @@ public class Globalization extends CordovaPlugin  {
      * @throws: GlobalizationError.PARSING_ERROR
     */
     private JSONObject getStringtoDate(JSONArray options)throws GlobalizationError{
-        JSONObject obj = new JSONObject();
         Date date;
         try{
             //get format pattern from android device (Will only have device specific formatting for short form of date) or options supplied
-            DateFormat fmt = new SimpleDateFormat(getDatePattern(options).getString("pattern"));
+            DateFormat fmt = getDateFormat(getDatePatternString(options.getJSONObject(0).optJSONObject(OPTIONS)));
 
             //attempt parsing string based on user preferences
-            date = fmt.parse(options.getJSONObject(0).get(DATESTRING).toString());
-
-            //set Android Time object
-            Time time = new Time();
-            time.set(date.getTime());
-
-            //return properties;
-            obj.put("year", time.year);
-            obj.put("month", time.month);
-            obj.put("day", time.monthDay);
-            obj.put("hour", time.hour);
-            obj.put("minute", time.minute);
-            obj.put("second", time.second);
-            obj.put("millisecond", new Long(0));
-            return obj;
+            synchronized (fmt) {
+                date = fmt.parse(options.getJSONObject(0).get(DATESTRING).toString());
+            }
+
+            return getDateFields(date);
         }catch(Exception ge){
             throw new GlobalizationError(GlobalizationError.PARSING_ERROR);
         }
     }
 
+    /*
+     * @Description: Returns the year, month, day, hour, minute and second of a date, in the
+     * time zone of the client.
+     */
+    private JSONObject getDateFields(Date date) throws JSONException{
+        JSONObject obj = new JSONObject();
+
+        //set Android Time object
+        Time time = new Time();
+        time.set(date.getTime());
+
+        //return properties;
+        obj.put("year", time.year);
+        obj.put("month", time.month);
+        obj.put("day", time.monthDay);
+        obj.put("hour", time.hour);
+        obj.put("minute", time.minute);
+        obj.put("second", time.second);
+        obj.put("millisecond", new Long(0));
+        return obj;
+    }
+
     /*
      * @Description: Returns a pattern string for formatting and parsing dates according to the client's
      * user preferences.
@@ -254,37 +309,13 @@ public class Globalization extends CordovaPlugin  {
         JSONObject obj = new JSONObject();
 
         try{
-            SimpleDateFormat fmtDate = (SimpleDateFormat)android.text.format.DateFormat.getDateFormat(this.cordova.getActivity()); //default user preference for date
-            SimpleDateFormat fmtTime = (SimpleDateFormat)android.text.format.DateFormat.getTimeFormat(this.cordova.getActivity());  //default user preference for time
-
-            String fmt = fmtDate.toLocalizedPattern() + " " + fmtTime.toLocalizedPattern(); //default SHORT date/time format. ex. dd/MM/yyyy h:mm a
-
             //get Date value + options (if available)
-            boolean test = options.getJSONObject(0).has(OPTIONS);
+            JSONObject innerOptions = null;
             if (options.getJSONObject(0).has(OPTIONS)){
                 //options were included
-                JSONObject innerOptions = options.getJSONObject(0).getJSONObject(OPTIONS);
-                //get formatLength option
-                if (!innerOptions.isNull(FORMATLENGTH)){
-                    String fmtOpt = innerOptions.getString(FORMATLENGTH);
-                    if (fmtOpt.equalsIgnoreCase(MEDIUM)){//medium
-                        fmtDate = (SimpleDateFormat)android.text.format.DateFormat.getMediumDateFormat(this.cordova.getActivity());
-                    }else if (fmtOpt.equalsIgnoreCase(LONG) || fmtOpt.equalsIgnoreCase(FULL)){ //long/full
-                        fmtDate = (SimpleDateFormat)android.text.format.DateFormat.getLongDateFormat(this.cordova.getActivity());
-                    }
-                }
-
-                //return pattern type
-                fmt = fmtDate.toLocalizedPattern() + " " + fmtTime.toLocalizedPattern();
-                if (!innerOptions.isNull(SELECTOR)){
-                    String selOpt = innerOptions.getString(SELECTOR);
-                    if (selOpt.equalsIgnoreCase(DATE)){
-                        fmt =  fmtDate.toLocalizedPattern();
-                    }else if (selOpt.equalsIgnoreCase(TIME)){
-                        fmt = fmtTime.toLocalizedPattern();
-                    }
-                }
+                innerOptions = options.getJSONObject(0).getJSONObject(OPTIONS);
             }
+            String fmt = getDatePatternString(innerOptions);
 
             //TimeZone from users device
             //TimeZone tz = Calendar.getInstance(Locale.getDefault()).getTimeZone(); //substitute method
@@ -301,6 +332,115 @@ public class Globalization extends CordovaPlugin  {
         }
     }
 
+    /*
+     * @Description: Returns the date pattern for the options according to the client's user
+     * preferences, from the cache if it was built before with the same locale and preferences.
+     *
+     * @throws: JSONException
+    */
+    private String getDatePatternString(JSONObject innerOptions) throws JSONException{
+        Activity activity = this.cordova.getActivity();
+        String formatLength = "";
+        String selector = "";
+        if (innerOptions != null){
+            if (!innerOptions.isNull(FORMATLENGTH)){
+                formatLength = innerOptions.getString(FORMATLENGTH).toLowerCase(Locale.US);
+            }
+            if (!innerOptions.isNull(SELECTOR)){
+                selector = innerOptions.getString(SELECTOR).toLowerCase(Locale.US);
+            }
+        }
+        String key = Locale.getDefault() + "|" + android.text.format.DateFormat.is24HourFormat(activity)
+                + "|" + Settings.System.getString(activity.getContentResolver(), Settings.System.DATE_FORMAT)
+                + "|" + formatLength + "|" + selector;
+        synchronized (datePatterns) {
+            String cached = datePatterns.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        SimpleDateFormat fmtDate = (SimpleDateFormat)android.text.format.DateFormat.getDateFormat(activity); //default user preference for date
+        SimpleDateFormat fmtTime = (SimpleDateFormat)android.text.format.DateFormat.getTimeFormat(activity);  //default user preference for time
+
+        //get formatLength option
+        if (formatLength.equals(MEDIUM)){//medium
+            fmtDate = (SimpleDateFormat)android.text.format.DateFormat.getMediumDateFormat(activity);
+        }else if (formatLength.equals(LONG) || formatLength.equals(FULL)){ //long/full
+            fmtDate = (SimpleDateFormat)android.text.format.DateFormat.getLongDateFormat(activity);
+        }
+
+        //return pattern type
+        String fmt = fmtDate.toLocalizedPattern() + " " + fmtTime.toLocalizedPattern(); //default SHORT date/time format. ex. dd/MM/yyyy h:mm a
+        if (selector.equals(DATE)){
+            fmt =  fmtDate.toLocalizedPattern();
+        }else if (selector.equals(TIME)){
+            fmt = fmtTime.toLocalizedPattern();
+        }
+
+        synchronized (datePatterns) {
+            datePatterns.put(key, fmt);
+        }
+        return fmt;
+    }
+
+    /*
+     * @Description: Returns the cached formatter for a date pattern in the current locale and
+     * time zone.  Callers must lock it while using it.
+    */
+    private static SimpleDateFormat getDateFormat(String pattern){
+        String key = Locale.getDefault() + "|" + TimeZone.getDefault().getID() + "|date|" + pattern;
+        synchronized (formats) {
+            Format fmt = formats.get(key);
+            if (fmt == null) {
+                fmt = new SimpleDateFormat(pattern);
+                formats.put(key, fmt);
+            }
+            return (SimpleDateFormat) fmt;
+        }
+    }
+
+    /*
+     * @Description: Returns the cached Decimal/Currency/Percent formatter of the current
+     * locale, for a currency code when type is currency and code is not null.  Callers must
+     * lock it while using it.
+    */
+    private static DecimalFormat getNumberFormat(String type, String code){
+        String key = Locale.getDefault() + "|" + type + "|" + code;
+        synchronized (formats) {
+            Format fmt = formats.get(key);
+            if (fmt == null) {
+                if (type.equals(CURRENCY)){
+                    fmt = DecimalFormat.getCurrencyInstance(Locale.getDefault());
+                    if (code != null){
+                        ((DecimalFormat) fmt).setCurrency(Currency.getInstance(code));
+                    }
+                }else if(type.equals(PERCENT)){
+                    fmt = DecimalFormat.getPercentInstance(Locale.getDefault());
+                }else{
+                    fmt = DecimalFormat.getInstance(Locale.getDefault());
+                }
+                formats.put(key, fmt);
+            }
+            return (DecimalFormat) fmt;
+        }
+    }
+
+    /*
+     * @Description: Returns the number type option, decimal if there is none.
+    */
+    private static String getNumberType(JSONObject innerOptions) throws JSONException{
+        if (innerOptions != null && !innerOptions.isNull(TYPE)){
+            String fmtOpt = innerOptions.getString(TYPE);
+            if (fmtOpt.equalsIgnoreCase(CURRENCY)){
+                return CURRENCY;
+            }else if(fmtOpt.equalsIgnoreCase(PERCENT)){
+                return PERCENT;
+            }
+        }
+        return NUMBER;
+    }
+
     /*
      * @Description: Returns an array of either the names of the months or days of the week
      * according to the client's user preferences and calendar
@@ -425,7 +565,9 @@ public class Globalization extends CordovaPlugin  {
         String value = "";
         try{
             DecimalFormat fmt = getNumberFormatInstance(options);//returns Decimal/Currency/Percent instance
-            value = fmt.format(options.getJSONObject(0).get(NUMBER));
+            synchronized (fmt) {
+                value = fmt.format(options.getJSONObject(0).get(NUMBER));
+            }
             return obj.put("value", value);
         }catch(Exception ge){
             throw new GlobalizationError(GlobalizationError.FORMATTING_ERROR);
@@ -445,7 +587,9 @@ public class Globalization extends CordovaPlugin  {
         Number value;
         try{
             DecimalFormat fmt = getNumberFormatInstance(options); //returns Decimal/Currency/Percent instance
-            value = fmt.parse((String)options.getJSONObject(0).get(NUMBERSTRING));
+            synchronized (fmt) {
+                value = fmt.parse((String)options.getJSONObject(0).get(NUMBERSTRING));
+            }
             return obj.put("value", value);
         }catch(Exception ge){
             throw new GlobalizationError(GlobalizationError.PARSING_ERROR);
@@ -475,21 +619,20 @@ public class Globalization extends CordovaPlugin  {
         JSONObject obj = new JSONObject();
         try{
             //uses java.text.DecimalFormat to format value
-            DecimalFormat fmt = (DecimalFormat) DecimalFormat.getInstance(Locale.getDefault()); //default format
-            String symbol = String.valueOf(fmt.getDecimalFormatSymbols().getDecimalSeparator());
+            String type = NUMBER; //default format
             //get Date value + options (if available)
             if (options.getJSONObject(0).length() > 0){
                 //options were included
-                if (!((JSONObject)options.getJSONObject(0).get(OPTIONS)).isNull(TYPE)){
-                    String fmtOpt = (String)((JSONObject)options.getJSONObject(0).get(OPTIONS)).get(TYPE);
-                    if (fmtOpt.equalsIgnoreCase(CURRENCY)){
-                        fmt = (DecimalFormat) DecimalFormat.getCurrencyInstance(Locale.getDefault());
-                        symbol = fmt.getDecimalFormatSymbols().getCurrencySymbol();
-                    }else if(fmtOpt.equalsIgnoreCase(PERCENT)){
-                        fmt = (DecimalFormat) DecimalFormat.getPercentInstance(Locale.getDefault());
-                        symbol = String.valueOf(fmt.getDecimalFormatSymbols().getPercent());
-                    }
-                }
+                type = getNumberType((JSONObject)options.getJSONObject(0).get(OPTIONS));
+            }
+            DecimalFormat fmt = getNumberFormat(type, null);
+            String symbol;
+            if (type.equals(CURRENCY)){
+                symbol = fmt.getDecimalFormatSymbols().getCurrencySymbol();
+            }else if(type.equals(PERCENT)){
+                symbol = String.valueOf(fmt.getDecimalFormatSymbols().getPercent());
+            }else{
+                symbol = String.valueOf(fmt.getDecimalFormatSymbols().getDecimalSeparator());
             }
 
             //return properties
@@ -530,12 +673,9 @@ public class Globalization extends CordovaPlugin  {
             //get ISO 4217 currency code
             String code = options.getJSONObject(0).getString(CURRENCYCODE);
 
-            //uses java.text.DecimalFormat to format value
-            DecimalFormat fmt = (DecimalFormat) DecimalFormat.getCurrencyInstance(Locale.getDefault());
-
-            //set currency format
-            Currency currency = Currency.getInstance(code);
-            fmt.setCurrency(currency);
+            //uses java.text.DecimalFormat to format value, set to the currency
+            DecimalFormat fmt = getNumberFormat(CURRENCY, code);
+            Currency currency = fmt.getCurrency();
 
             //return properties
             obj.put("pattern", fmt.toPattern());
@@ -558,21 +698,127 @@ public class Globalization extends CordovaPlugin  {
      * @throws: JSONException
     */
     private DecimalFormat getNumberFormatInstance(JSONArray options) throws JSONException{
-        DecimalFormat fmt =  (DecimalFormat)DecimalFormat.getInstance(Locale.getDefault()); //default format
+        String type = NUMBER; //default format
         try{
             if (options.getJSONObject(0).length() > 1){
                 //options were included
-                if (!((JSONObject)options.getJSONObject(0).get(OPTIONS)).isNull(TYPE)){
-                    String fmtOpt = (String)((JSONObject)options.getJSONObject(0).get(OPTIONS)).get(TYPE);
-                    if (fmtOpt.equalsIgnoreCase(CURRENCY)){
-                        fmt = (DecimalFormat)DecimalFormat.getCurrencyInstance(Locale.getDefault());
-                    }else if(fmtOpt.equalsIgnoreCase(PERCENT)){
-                        fmt = (DecimalFormat)DecimalFormat.getPercentInstance(Locale.getDefault());
+                type = getNumberType((JSONObject)options.getJSONObject(0).get(OPTIONS));
+            }
+
+        }catch (JSONException je){}
+        return getNumberFormat(type, null);
+    }
+
+    /*
+     * @Description: Formats an array of dates with the same options in one call.
+     * @Return: JSONObject
+     *          Object.value {Array{String}}: The localized date strings, null for dates that
+     *                                      could not be formatted.
+     *
+     * @throws: GlobalizationError.FORMATTING_ERROR
+    */
+    private JSONObject getDatesToStrings(JSONArray options) throws GlobalizationError{
+        JSONObject obj = new JSONObject();
+        try{
+            JSONArray dates = options.getJSONObject(0).getJSONArray(DATES);
+            SimpleDateFormat fmt = getDateFormat(getDatePatternString(options.getJSONObject(0).optJSONObject(OPTIONS)));
+            JSONArray value = new JSONArray();
+            synchronized (fmt) {
+                for (int i = 0; i < dates.length(); i++){
+                    value.put(dates.isNull(i) ? JSONObject.NULL : fmt.format(new Date(dates.getLong(i))));
+                }
+            }
+            return obj.put("value", value);
+        }catch(Exception ge){
+            throw new GlobalizationError(GlobalizationError.FORMATTING_ERROR);
+        }
+    }
+
+    /*
+     * @Description: Parses an array of date strings with the same options in one call.
+     * @Return: JSONObject
+     *          Object.value {Array{Object}}: The dates, as returned by stringToDate, null for
+     *                                      strings that could not be parsed.
+     *
+     * @throws: GlobalizationError.PARSING_ERROR
+    */
+    private JSONObject getStringsToDates(JSONArray options) throws GlobalizationError{
+        JSONObject obj = new JSONObject();
+        try{
+            JSONArray strings = options.getJSONObject(0).getJSONArray(DATESTRINGS);
+            DateFormat fmt = getDateFormat(getDatePatternString(options.getJSONObject(0).optJSONObject(OPTIONS)));
+            JSONArray value = new JSONArray();
+            for (int i = 0; i < strings.length(); i++){
+                Date date = null;
+                if (!strings.isNull(i)) {
+                    synchronized (fmt) {
+                        try{
+                            date = fmt.parse(strings.getString(i));
+                        }catch(java.text.ParseException pe){}
                     }
                 }
+                value.put(date == null ? JSONObject.NULL : getDateFields(date));
             }
+            return obj.put("value", value);
+        }catch(Exception ge){
+            throw new GlobalizationError(GlobalizationError.PARSING_ERROR);
+        }
+    }
 
-        }catch (JSONException je){}
-        return fmt;
+    /*
+     * @Description: Formats an array of numbers with the same options in one call.
+     * @Return: JSONObject
+     *          Object.value {Array{String}}: The formatted number strings, null for values
+     *                                      that are not numbers.
+     *
+     * @throws: GlobalizationError.FORMATTING_ERROR
+    */
+    private JSONObject getNumbersToStrings(JSONArray options) throws GlobalizationError{
+        JSONObject obj = new JSONObject();
+        try{
+            JSONArray numbers = options.getJSONObject(0).getJSONArray(NUMBERS);
+            DecimalFormat fmt = getNumberFormat(getNumberType(options.getJSONObject(0).optJSONObject(OPTIONS)), null);
+            JSONArray value = new JSONArray();
+            synchronized (fmt) {
+                for (int i = 0; i < numbers.length(); i++){
+                    Object number = numbers.get(i);
+                    value.put(number instanceof Number ? fmt.format(number) : JSONObject.NULL);
+                }
+            }
+            return obj.put("value", value);
+        }catch(Exception ge){
+            throw new GlobalizationError(GlobalizationError.FORMATTING_ERROR);
+        }
+    }
+
+    /*
+     * @Description: Parses an array of number strings with the same options in one call.
+     * @Return: JSONObject
+     *          Object.value {Array{Number}}: The parsed numbers, null for strings that could
+     *                                      not be parsed.
+     *
+     * @throws: GlobalizationError.PARSING_ERROR
+    */
+    private JSONObject getStringsToNumbers(JSONArray options) throws GlobalizationError{
+        JSONObject obj = new JSONObject();
+        try{
+            JSONArray strings = options.getJSONObject(0).getJSONArray(NUMBERSTRINGS);
+            DecimalFormat fmt = getNumberFormat(getNumberType(options.getJSONObject(0).optJSONObject(OPTIONS)), null);
+            JSONArray value = new JSONArray();
+            synchronized (fmt) {
+                for (int i = 0; i < strings.length(); i++){
+                    Number number = null;
+                    if (!strings.isNull(i)) {
+                        try{
+                            number = fmt.parse(strings.getString(i));
+                        }catch(java.text.ParseException pe){}
+                    }
+                    value.put(number == null ? JSONObject.NULL : number);
+                }
+            }
+            return obj.put("value", value);
+        }catch(Exception ge){
+            throw new GlobalizationError(GlobalizationError.PARSING_ERROR);
+        }
     }
 }
@@ -33,6 +33,8 @@ import android.webkit.WebView;
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
 public class IceCreamCordovaWebViewClient extends CordovaWebViewClient {
 
+    private CachingResourceLoader resourceLoader;
+    private boolean resourceLoaderCreated;
 
     public IceCreamCordovaWebViewClient(CordovaInterface cordova) {
         super(cordova);
@@ -57,8 +59,25 @@ public class IceCreamCordovaWebViewClient extends CordovaWebViewClient {
         else if (ret == null && this.appView.pluginManager != null) {
             ret = this.appView.pluginManager.shouldInterceptRequest(url);
         }
+        if (ret == null && (url.startsWith("http://") || url.startsWith("https://"))) {
+            CachingResourceLoader loader = getResourceLoader(view);
+            if (loader != null) {
+                ret = loader.load(url);
+            }
+        }
         return ret;
     }
+
+    /**
+     * Creates the loader on first use, once config.xml has been read.
+     */
+    private synchronized CachingResourceLoader getResourceLoader(WebView view) {
+        if (!resourceLoaderCreated && Config.getPreferences() != null) {
+            resourceLoader = CachingResourceLoader.create(cordova, view.getSettings().getUserAgentString());
+            resourceLoaderCreated = true;
+        }
+        return resourceLoader;
+    }
     
     private WebResourceResponse getWhitelistResponse()
     {
@@ -0,0 +1,374 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.cordova.api.CallbackContext;
+import org.apache.cordova.api.CordovaInterface;
+import org.apache.cordova.api.PluginResult;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.Base64;
+import android.util.Base64OutputStream;
+
+/**
+ * Decodes, scales, rotates and encodes pictures for the CameraLauncher while keeping the
+ * bitmaps it holds at any one time within a memory budget.
+ * <p>
+ * Images are read in a single pass: the bounds are decoded from the start of a buffered
+ * stream, which is then rewound to decode the pixels at the largest sample size that fits
+ * the budget.  Scaling and rotation are applied together in one draw into the output bitmap,
+ * which is kept around and reused for the next picture of the same size.  Encoded output
+ * is streamed into its destination instead of being collected into intermediate arrays.
+ */
+public class ImageProcessor {
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    // Enough to cover the headers and EXIF thumbnail read while decoding the bounds
+    private static final int MARK_LIMIT = 256 * 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final CordovaInterface cordova;
+    private final long memoryBudget;
+
+    private final byte[] tempStorage = new byte[BUFFER_SIZE];
+    private Bitmap reusable;
+
+    /**
+     * @param cordova       Used to open content: and asset URIs.
+     * @param memoryBudget  Maximum number of bytes of bitmap data held at once.
+     */
+    public ImageProcessor(CordovaInterface cordova, long memoryBudget) {
+        this.cordova = cordova;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Decodes the image and returns it scaled to fit the target size and rotated.  If the
+     * full size image does not fit the memory budget it is downsampled until it does.
+     *
+     * @param imageUrl      The URI of the image.
+     * @param targetWidth   The desired width, or 0 or less to derive it from the height.
+     * @param targetHeight  The desired height, or 0 or less to derive it from the width.
+     * @param rotate        Clockwise rotation in degrees, a multiple of 90.
+     * @return              The bitmap, or null if the image could not be decoded.
+     */
+    public synchronized Bitmap decode(String imageUrl, int targetWidth, int targetHeight, int rotate) throws IOException {
+        InputStream in = new BufferedInputStream(FileHelper.getInputStreamFromUriString(imageUrl, cordova), BUFFER_SIZE);
+        try {
+            // figure out the original width and height of the image
+            in.mark(MARK_LIMIT);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            options.inTempStorage = tempStorage;
+            BitmapFactory.decodeStream(in, null, options);
+
+            //CB-2292: WTF? Why is the width null?
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            try {
+                in.reset();
+            } catch (IOException e) {
+                // The headers were larger than the mark limit, so start over
+                in.close();
+                in = new BufferedInputStream(FileHelper.getInputStreamFromUriString(imageUrl, cordova), BUFFER_SIZE);
+            }
+
+            int[] size = calculateAspectRatio(options.outWidth, options.outHeight, targetWidth, targetHeight);
+            boolean transform = rotate % 360 != 0
+                    || size[0] != options.outWidth || size[1] != options.outHeight;
+
+            // When the bitmap has to be transformed, the decoded and the output bitmap
+            // are alive at the same time and share the budget.
+            long budget = transform ? memoryBudget / 2 : memoryBudget;
+            long outputBytes = (long) size[0] * size[1] * BYTES_PER_PIXEL;
+            if (transform && outputBytes > budget) {
+                double shrink = Math.sqrt(budget / (double) outputBytes);
+                size[0] = Math.max(1, (int) (size[0] * shrink));
+                size[1] = Math.max(1, (int) (size[1] * shrink));
+            }
+
+            // Load in the smallest bitmap possible that is closest to the size we want
+            int sampleSize = Integer.highestOneBit(Math.max(1,
+                    calculateSampleSize(options.outWidth, options.outHeight, size[0], size[1])));
+            while ((long) (options.outWidth / sampleSize) * (options.outHeight / sampleSize) * BYTES_PER_PIXEL > budget) {
+                sampleSize *= 2;
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            Bitmap decoded = BitmapFactory.decodeStream(in, null, options);
+            if (decoded == null) {
+                return null;
+            }
+            if (!transform || (rotate % 360 == 0
+                    && decoded.getWidth() == size[0] && decoded.getHeight() == size[1])) {
+                return decoded;
+            }
+            return transform(decoded, size[0], size[1], rotate);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Scales and rotates the bitmap in a single draw, then recycles the source.
+     *
+     * @param source        The bitmap to transform.
+     * @param width         The width to scale to, before rotation.
+     * @param height        The height to scale to, before rotation.
+     * @param rotate        Clockwise rotation in degrees, a multiple of 90.
+     * @return              The transformed bitmap.
+     */
+    public synchronized Bitmap transform(Bitmap source, int width, int height, int rotate) {
+        boolean swap = (rotate / 90) % 2 != 0;
+        Bitmap target = obtain(swap ? height : width, swap ? width : height, source.getConfig());
+
+        Matrix matrix = new Matrix();
+        matrix.setScale(width / (float) source.getWidth(), height / (float) source.getHeight());
+        matrix.postRotate(rotate);
+        // Move the rotated image back to the origin
+        RectF bounds = new RectF(0, 0, source.getWidth(), source.getHeight());
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+
+        new Canvas(target).drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        source.recycle();
+        return target;
+    }
+
+    /**
+     * Hands a bitmap returned by this class back once it is no longer needed.  An output
+     * bitmap is kept for reuse by the next picture of the same size, anything else is recycled.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap == reusable || bitmap.isRecycled()) {
+            return;
+        }
+        if (bitmap.isMutable()) {
+            if (reusable != null) {
+                reusable.recycle();
+            }
+            reusable = bitmap;
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Frees the bitmap kept for reuse.
+     */
+    public synchronized void trim() {
+        if (reusable != null) {
+            reusable.recycle();
+            reusable = null;
+        }
+    }
+
+    private Bitmap obtain(int width, int height, Bitmap.Config config) {
+        if (config == null) {
+            config = Bitmap.Config.ARGB_8888;
+        }
+        Bitmap bitmap = reusable;
+        reusable = null;
+        if (bitmap != null && bitmap.getWidth() == width && bitmap.getHeight() == height
+                && bitmap.getConfig() == config) {
+            bitmap.eraseColor(0);
+            return bitmap;
+        }
+        if (bitmap != null) {
+            bitmap.recycle();
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Compresses the bitmap as a JPEG straight into the stream.
+     */
+    public boolean writeJpeg(Bitmap bitmap, int quality, OutputStream os) throws IOException {
+        try {
+            return bitmap.compress(Bitmap.CompressFormat.JPEG, quality, os);
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Compresses the bitmap as a JPEG and returns it Base64 encoded.  The encoder writes
+     * straight into the buffer the string is built from.
+     */
+    public String encodeBase64Jpeg(Bitmap bitmap, int quality) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        if (!writeJpeg(bitmap, quality, new Base64OutputStream(encoded, Base64.DEFAULT))) {
+            return null;
+        }
+        return encoded.toString("US-ASCII");
+    }
+
+    /**
+     * Compresses the bitmap as a JPEG and sends it Base64 encoded in chunks of chunkSize
+     * characters, each as its own result.  Every chunk but the last one keeps the callback;
+     * the last chunk is shorter than chunkSize, and may be empty.
+     */
+    public boolean sendBase64Jpeg(Bitmap bitmap, int quality, CallbackContext callbackContext, int chunkSize) throws IOException {
+        OutputStream os = new Base64OutputStream(new ChunkedResultStream(callbackContext, chunkSize), Base64.DEFAULT);
+        // Only close on success, closing sends the last chunk
+        if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, os)) {
+            return false;
+        }
+        os.close();
+        return true;
+    }
+
+    /**
+     * Maintain the aspect ratio so the resulting image does not look smooshed
+     *
+     * @param origWidth
+     * @param origHeight
+     * @param targetWidth   The desired width, or 0 or less to derive it from the height.
+     * @param targetHeight  The desired height, or 0 or less to derive it from the width.
+     * @return
+     */
+    public static int[] calculateAspectRatio(int origWidth, int origHeight, int targetWidth, int targetHeight) {
+        int newWidth = targetWidth;
+        int newHeight = targetHeight;
+
+        // If no new width or height were specified return the original bitmap
+        if (newWidth <= 0 && newHeight <= 0) {
+            newWidth = origWidth;
+            newHeight = origHeight;
+        }
+        // Only the width was specified
+        else if (newWidth > 0 && newHeight <= 0) {
+            newHeight = (newWidth * origHeight) / origWidth;
+        }
+        // only the height was specified
+        else if (newWidth <= 0 && newHeight > 0) {
+            newWidth = (newHeight * origWidth) / origHeight;
+        }
+        // If the user specified both a positive width and height
+        // (potentially different aspect ratio) then the width or height is
+        // scaled so that the image fits while maintaining aspect ratio.
+        // Alternatively, the specified width and height could have been
+        // kept and Bitmap.SCALE_TO_FIT specified when scaling, but this
+        // would result in whitespace in the new image.
+        else {
+            double newRatio = newWidth / (double) newHeight;
+            double origRatio = origWidth / (double) origHeight;
+
+            if (origRatio > newRatio) {
+                newHeight = (newWidth * origHeight) / origWidth;
+            } else if (origRatio < newRatio) {
+                newWidth = (newHeight * origWidth) / origHeight;
+            }
+        }
+
+        int[] retval = new int[2];
+        retval[0] = newWidth;
+        retval[1] = newHeight;
+        return retval;
+    }
+
+    /**
+     * Figure out what ratio we can load our image into memory at while still being bigger than
+     * our desired width and height
+     *
+     * @param srcWidth
+     * @param srcHeight
+     * @param dstWidth
+     * @param dstHeight
+     * @return
+     */
+    public static int calculateSampleSize(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        final float srcAspect = (float)srcWidth / (float)srcHeight;
+        final float dstAspect = (float)dstWidth / (float)dstHeight;
+
+        if (srcAspect > dstAspect) {
+            return srcWidth / dstWidth;
+        } else {
+            return srcHeight / dstHeight;
+        }
+    }
+
+    /**
+     * Sends everything written to it to JavaScript as string results of a fixed size.
+     */
+    private static class ChunkedResultStream extends OutputStream {
+        private final CallbackContext callbackContext;
+        private final byte[] chunk;
+        private int count;
+
+        ChunkedResultStream(CallbackContext callbackContext, int chunkSize) {
+            this.callbackContext = callbackContext;
+            this.chunk = new byte[chunkSize];
+        }
+
+        @Override
+        public void write(int b) {
+            chunk[count++] = (byte) b;
+            if (count == chunk.length) {
+                send(true);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                int n = Math.min(len, chunk.length - count);
+                System.arraycopy(b, off, chunk, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == chunk.length) {
+                    send(true);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            send(false);
+        }
+
+        private void send(boolean keepCallback) {
+            PluginResult result;
+            try {
+                result = new PluginResult(PluginResult.Status.OK, new String(chunk, 0, count, "US-ASCII"));
+            } catch (java.io.UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+            result.setKeepCallback(keepCallback);
+            callbackContext.sendPluginResult(result);
+            count = 0;
+        }
+    }
+}
@@ -18,10 +18,19 @@
 */
 package org.apache.cordova;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 import org.apache.cordova.api.CallbackContext;
+import org.apache.cordova.api.CordovaInterface;
 import org.apache.cordova.api.CordovaPlugin;
 import org.apache.cordova.api.LOG;
 import org.apache.cordova.api.PluginResult;
@@ -37,18 +46,20 @@ import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.net.Uri;
-import android.os.Bundle;
+import android.os.SystemClock;
 import android.text.InputType;
 import android.util.Log;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.KeyEvent;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.Window;
 import android.view.WindowManager;
 import android.view.WindowManager.LayoutParams;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputMethodManager;
+import android.webkit.CookieManager;
 import android.webkit.WebChromeClient;
 import android.webkit.GeolocationPermissions.Callback;
 import android.webkit.JsPromptResult;
@@ -61,6 +72,21 @@ import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
 
+/**
+ * Opens pages in a dialog with its own WebView.
+ *
+ * With the InAppBrowserPooled preference, or the pooled=yes feature, the WebView is not
+ * thrown away when the dialog closes: it is reset and kept hidden for the next page, and a
+ * first one is created ahead of time.  The preload action loads a page into that WebView
+ * before it is opened, so opening it again shows it at once; a page that is not opened within
+ * a minute is dropped.  The loadstop event carries
+ * loadTime, the msec from the start of the page's load until it finished.
+ *
+ * injectBatch runs an ordered list of scripts and styles in one evaluation and returns
+ * all their results in one callback.  Remote script files are fetched through the shared
+ * HTTP client, so its cache decides when to fetch them again; local ones are kept for a few
+ * minutes, so injecting them again after a navigation does not read them again.
+ */
 @SuppressLint("SetJavaScriptEnabled")
 public class InAppBrowser extends CordovaPlugin {
 
@@ -72,20 +98,52 @@ public class InAppBrowser extends CordovaPlugin {
     private static final String EXIT_EVENT = "exit";
     private static final String LOCATION = "location";
     private static final String HIDDEN = "hidden";
+    private static final String POOLED = "pooled";
     private static final String LOAD_START_EVENT = "loadstart";
     private static final String LOAD_STOP_EVENT = "loadstop";
     private static final String LOAD_ERROR_EVENT = "loaderror";
     private static final String CLOSE_BUTTON_CAPTION = "closebuttoncaption";
     private long MAX_QUOTA = 100 * 1024 * 1024;
+    private static final int MAX_CACHED_SOURCE = 512 * 1024;   // chars of script files kept
+    private static final long MAX_SOURCE_AGE = 5 * 60 * 1000;   // msec a script file is kept
+    private static final long MAX_PRELOAD_AGE = 60 * 1000;      // msec a preloaded page is kept
 
     private Dialog dialog;
     private WebView inAppWebView;
     private EditText edittext;
     private CallbackContext callbackContext;
+    private CallbackContext dialogCallbackContext;  // of the open call that showed the dialog
     private boolean showLocationBar = true;
     private boolean openWindowHidden = false;
     private String buttonLabel = "Done";
-    
+
+    private boolean pooledByDefault;
+    private boolean pooled;
+    // Accessed on the UI thread only
+    private WebView pooledWebView;              // hidden WebView kept between pages
+    private InAppBrowserClient preloadClient;   // client of the page preloaded into it
+    private String preloadedUrl;
+    private volatile String currentUrl;         // url of the page shown, to resolve relative files
+
+    // Local script file contents by url, least recently used first
+    private final LinkedHashMap<String, CachedSource> sourceCache = new LinkedHashMap<String, CachedSource>(16, 0.75f, true);
+    private int cachedSourceLength;
+
+    @Override
+    public void initialize(CordovaInterface cordova, CordovaWebView webView) {
+        super.initialize(cordova, webView);
+        this.pooledByDefault = Boolean.parseBoolean(webView.getProperty("InAppBrowserPooled", "false"));
+        if (this.pooledByDefault) {
+            cordova.getActivity().runOnUiThread(new Runnable() {
+                public void run() {
+                    if (pooledWebView == null) {
+                        pooledWebView = createWebView();
+                    }
+                }
+            });
+        }
+    }
+
     /**
      * Executes the request and returns PluginResult.
      *
@@ -187,6 +245,13 @@ public class InAppBrowser extends CordovaPlugin {
                 }
                 injectDeferredObject(args.getString(0), jsWrapper);
             }
+            else if (action.equals("injectBatch")) {
+                injectBatch(args.getJSONArray(0), args.optBoolean(1, true), callbackContext);
+            }
+            else if (action.equals("preload")) {
+                this.preload(updateUrl(args.getString(0)));
+                callbackContext.success();
+            }
             else if (action.equals("show")) {
                 Runnable runnable = new Runnable() {
                     @Override
@@ -225,11 +290,7 @@ public class InAppBrowser extends CordovaPlugin {
     private void injectDeferredObject(String source, String jsWrapper) {
         String scriptToInject;
         if (jsWrapper != null) {
-            org.json.JSONArray jsonEsc = new org.json.JSONArray();
-            jsonEsc.put(source);
-            String jsonRepr = jsonEsc.toString();
-            String jsonSourceString = jsonRepr.substring(1, jsonRepr.length()-1);
-            scriptToInject = String.format(jsWrapper, jsonSourceString);
+            scriptToInject = String.format(jsWrapper, quote(source));
         } else {
             scriptToInject = source;
         }
@@ -237,6 +298,179 @@ public class InAppBrowser extends CordovaPlugin {
         this.inAppWebView.loadUrl("javascript:" + scriptToInject);
     }
 
+    /**
+     * Injects a list of scripts and styles into the InAppBrowser WebView in a single
+     * evaluation, in order.  Each item is an object with a type of scriptCode, scriptFile,
+     * styleCode or styleFile and a value holding the code or url.  Script files are fetched
+     * natively, from the cache if they were fetched before, and run as code.
+     *
+     * If results are wanted the callback gets one array holding for each item its value
+     * for scriptCode, true for the others, or an object with an error message if it failed.
+     * A value that JSON can't hold, such as a cyclic object, is returned as its string.
+     *
+     * @param items             The scripts and styles to inject.
+     * @param withResults       Whether to send the results to the callback.
+     * @param callbackContext   The callback to send the results to.
+     */
+    private void injectBatch(final JSONArray items, final boolean withResults, final CallbackContext callbackContext) {
+        // Fetching files may block, so build the script off the UI thread
+        this.cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                // s() turns a value JSON.stringify would throw on into a string
+                final StringBuilder script = new StringBuilder("(function(d){var r=[],c,s=function(v){");
+                script.append("try{JSON.stringify(v);return v;}catch(e){try{return String(v);}catch(e2){return null;}}};");
+                for (int i = 0; i < items.length(); i++) {
+                    JSONObject item = items.optJSONObject(i);
+                    String type = item == null ? null : item.optString("type");
+                    String value = item == null ? null : item.optString("value", null);
+                    if (value == null) {
+                        appendError(script, "Missing value");
+                    } else if ("scriptCode".equals(type)) {
+                        script.append("try{r.push(s((0,eval)(").append(quote(value)).append(")));}");
+                        script.append("catch(e){r.push({error:String(e)});}");
+                    } else if ("scriptFile".equals(type)) {
+                        try {
+                            String source = readSource(resolveUrl(value));
+                            script.append("try{(0,eval)(").append(quote(source)).append(");r.push(true);}");
+                            script.append("catch(e){r.push({error:String(e)});}");
+                        } catch (IOException e) {
+                            Log.d(LOG_TAG, "Unable to read " + value + ": " + e.toString());
+                            appendError(script, "Unable to read " + value);
+                        }
+                    } else if ("styleCode".equals(type)) {
+                        script.append("try{c=d.createElement('style');c.innerHTML=").append(quote(value));
+                        script.append(";d.body.appendChild(c);r.push(true);}catch(e){r.push({error:String(e)});}");
+                    } else if ("styleFile".equals(type)) {
+                        script.append("try{c=d.createElement('link');c.rel='stylesheet';c.type='text/css';c.href=").append(quote(value));
+                        script.append(";d.head.appendChild(c);r.push(true);}catch(e){r.push({error:String(e)});}");
+                    } else {
+                        appendError(script, "Unknown type " + type);
+                    }
+                }
+                if (withResults) {
+                    script.append("prompt(JSON.stringify(r),'gap-iab://").append(callbackContext.getCallbackId()).append("');");
+                }
+                script.append("})(document)");
+
+                cordova.getActivity().runOnUiThread(new Runnable() {
+                    public void run() {
+                        if (inAppWebView == null) {
+                            callbackContext.error("No page to inject into");
+                            return;
+                        }
+                        // This action will have the side-effect of blurring the currently focused element
+                        inAppWebView.loadUrl("javascript:" + script);
+                        if (!withResults) {
+                            callbackContext.success();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private static void appendError(StringBuilder script, String message) {
+        script.append("r.push({error:").append(quote(message)).append("});");
+    }
+
+    /**
+     * JSON-encodes a string, adding quotes, so it can be used as a JavaScript literal.
+     */
+    private static String quote(String source) {
+        org.json.JSONArray jsonEsc = new org.json.JSONArray();
+        jsonEsc.put(source);
+        String jsonRepr = jsonEsc.toString();
+        return jsonRepr.substring(1, jsonRepr.length()-1);
+    }
+
+    /**
+     * Resolves a url relative to the page shown in the InAppBrowser.
+     */
+    private String resolveUrl(String url) throws IOException {
+        String base = this.currentUrl;
+        if (base == null || !Uri.parse(url).isRelative()) {
+            return url;
+        }
+        return new URL(new URL(base), url).toString();
+    }
+
+    /**
+     * The contents of a local script file and when they were read.
+     */
+    private static class CachedSource {
+        final String source;
+        final long readTime;    // elapsedRealtime
+
+        CachedSource(String source, long readTime) {
+            this.source = source;
+            this.readTime = readTime;
+        }
+    }
+
+    /**
+     * Reads the contents of a script file.  Remote files go through the shared HTTP client
+     * and its cache, local ones are read from the cache if they were read recently.
+     */
+    private String readSource(String url) throws IOException {
+        if (url.startsWith("http:") || url.startsWith("https:")) {
+            HttpURLConnection conn = this.cordova.getHttpClient().open(new URL(url));
+            try {
+                String cookie = CookieManager.getInstance().getCookie(url);
+                if (cookie != null) {
+                    conn.setRequestProperty("Cookie", cookie);
+                }
+                if (conn.getResponseCode() >= 400) {
+                    throw new IOException("HTTP " + conn.getResponseCode());
+                }
+                return readFully(conn.getInputStream());
+            } finally {
+                conn.disconnect();
+            }
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        synchronized (this.sourceCache) {
+            CachedSource cached = this.sourceCache.get(url);
+            if (cached != null) {
+                if (now - cached.readTime < MAX_SOURCE_AGE) {
+                    return cached.source;
+                }
+                this.sourceCache.remove(url);
+                this.cachedSourceLength -= cached.source.length();
+            }
+        }
+        String source = readFully(FileHelper.getInputStreamFromUriString(url, this.cordova));
+        if (source.length() <= MAX_CACHED_SOURCE) {
+            synchronized (this.sourceCache) {
+                CachedSource previous = this.sourceCache.put(url, new CachedSource(source, now));
+                this.cachedSourceLength += source.length() - (previous == null ? 0 : previous.source.length());
+                Iterator<Map.Entry<String, CachedSource>> it = this.sourceCache.entrySet().iterator();
+                while (this.cachedSourceLength > MAX_CACHED_SOURCE && it.hasNext()) {
+                    this.cachedSourceLength -= it.next().getValue().source.length();
+                    it.remove();
+                }
+            }
+        }
+        return source;
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        if (in == null) {
+            throw new IOException("Not found");
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
     /**
      * Put the list of features into a hash map
      * 
@@ -300,6 +534,192 @@ public class InAppBrowser extends CordovaPlugin {
         }
     }
 
+    /**
+     * Loads a page into the hidden pooled WebView, without sending any events, so that
+     * opening it later shows it without waiting for it to load.
+     *
+     * @param url           The url to load.
+     */
+    private void preload(final String url) {
+        final CordovaWebView thatWebView = this.webView;
+        this.cordova.getActivity().runOnUiThread(new Runnable() {
+            public void run() {
+                if (pooledWebView == null) {
+                    pooledWebView = createWebView();
+                }
+                final InAppBrowserClient client = new InAppBrowserClient(thatWebView, null);
+                client.silent = true;
+                client.clearHistory = true;
+                preloadClient = client;
+                pooledWebView.setWebChromeClient(new InAppChromeClient(thatWebView));
+                pooledWebView.setWebViewClient(client);
+                pooledWebView.loadUrl(url);
+                preloadedUrl = url;
+                // Drop the page if it is not opened, or preloaded again, in time
+                pooledWebView.postDelayed(new Runnable() {
+                    public void run() {
+                        if (preloadClient == client && pooledWebView != null) {
+                            preloadedUrl = null;
+                            preloadClient = null;
+                            resetWebView(pooledWebView);
+                        }
+                    }
+                }, MAX_PRELOAD_AGE);
+            }
+        });
+    }
+
+    /**
+     * Creates a WebView with the settings used for every page.  Must be called on the UI thread.
+     */
+    @SuppressWarnings("deprecation")
+    private WebView createWebView() {
+        WebView view = new WebView(cordova.getActivity());
+        view.setLayoutParams(new LinearLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
+        WebSettings settings = view.getSettings();
+        settings.setJavaScriptEnabled(true);
+        settings.setJavaScriptCanOpenWindowsAutomatically(true);
+        settings.setBuiltInZoomControls(true);
+        /** 
+         * We need to be careful of this line as a future Android release may deprecate it out of existence.
+         * Can't replace it with the API 8 level call right now as our minimum SDK is 7 until May 2013
+         */
+        // @TODO: replace with settings.setPluginState(android.webkit.WebSettings.PluginState.ON)
+        settings.setPluginsEnabled(true);
+        
+        //Toggle whether this is enabled or not!
+        boolean enableDatabase = "true".equals(webView.getProperty("InAppBrowserStorageEnabled", "true"));
+        if(enableDatabase)
+        {
+            String databasePath = cordova.getActivity().getApplicationContext().getDir("inAppBrowserDB", Context.MODE_PRIVATE).getPath();
+            settings.setDatabasePath(databasePath);
+            settings.setDatabaseEnabled(true);
+        }
+        settings.setDomStorageEnabled(true);
+        settings.setLoadWithOverviewMode(true);
+        settings.setUseWideViewPort(true);
+        view.setId(6);
+        return view;
+    }
+
+    /**
+     * Gets the WebView to show a page in: the pooled one if pooling, else a new one.  Must
+     * be called on the UI thread.
+     *
+     * @param url           The url to show.
+     * @param edittext      The location bar of the dialog.
+     */
+    private WebView obtainWebView(String url, EditText edittext) {
+        InAppBrowserClient client = new InAppBrowserClient(this.webView, edittext);
+        this.currentUrl = url;
+        WebView view;
+        boolean preloaded = url.equals(this.preloadedUrl);
+        if ((this.pooled || preloaded) && this.pooledWebView != null) {
+            view = this.pooledWebView;
+            this.pooledWebView = null;
+            this.pooled = true;
+            if (preloaded) {
+                client.clearHistory = this.preloadClient.clearHistory;
+                client.startTime = this.preloadClient.startTime;
+                view.setWebChromeClient(new InAppChromeClient(this.webView));
+                view.setWebViewClient(client);
+                if (this.preloadClient.finished) {
+                    sendLoadStop(url, this.preloadClient.loadTime);
+                }
+                this.preloadedUrl = null;
+                this.preloadClient = null;
+                return view;
+            }
+            // Drop the about:blank it was reset to from the history
+            client.clearHistory = true;
+        } else {
+            view = createWebView();
+        }
+        this.preloadedUrl = null;
+        this.preloadClient = null;
+        view.setWebChromeClient(new InAppChromeClient(this.webView));
+        view.setWebViewClient(client);
+        view.loadUrl(url);
+        return view;
+    }
+
+    /**
+     * Resets a pooled WebView that is no longer shown and keeps it for the next page, or
+     * destroys it if another one is kept already.  Must be called on the UI thread.
+     */
+    private void recycleWebView(WebView view) {
+        if (!this.pooled) {
+            return;
+        }
+        ViewGroup parent = (ViewGroup) view.getParent();
+        if (parent != null) {
+            parent.removeView(view);
+        }
+        if (this.pooledWebView != null) {
+            view.stopLoading();
+            view.destroy();
+            return;
+        }
+        resetWebView(view);
+        this.pooledWebView = view;
+    }
+
+    /**
+     * Stops the page of a hidden WebView and loads a blank one without sending events.
+     * Must be called on the UI thread.
+     */
+    private void resetWebView(WebView view) {
+        view.stopLoading();
+        InAppBrowserClient client = new InAppBrowserClient(this.webView, null);
+        client.silent = true;
+        view.setWebChromeClient(new WebChromeClient());
+        view.setWebViewClient(client);
+        view.clearFormData();
+        view.loadUrl("about:blank");
+    }
+
+    /**
+     * Called when the activity is to be shut down.
+     */
+    @Override
+    public void onDestroy() {
+        this.cordova.getActivity().runOnUiThread(new Runnable() {
+            public void run() {
+                if (pooledWebView != null) {
+                    pooledWebView.destroy();
+                    pooledWebView = null;
+                }
+            }
+        });
+    }
+
+    private void sendLoadStop(String url, long loadTime) {
+        try {
+            JSONObject obj = new JSONObject();
+            obj.put("type", LOAD_STOP_EVENT);
+            obj.put("url", url);
+            obj.put("loadTime", loadTime);
+
+            sendUpdate(obj, true);
+        } catch (JSONException ex) {
+            Log.d(LOG_TAG, "Should never happen");
+        }
+    }
+
+    /**
+     * Sends the exit event, which ends the callbacks of an open call.
+     */
+    private static void sendExit(CallbackContext context) {
+        try {
+            JSONObject obj = new JSONObject();
+            obj.put("type", EXIT_EVENT);
+
+            context.sendPluginResult(new PluginResult(PluginResult.Status.OK, obj));
+        } catch (JSONException ex) {
+            Log.d(LOG_TAG, "Should never happen");
+        }
+    }
+
     /**
      * Closes the dialog
      */
@@ -374,6 +794,7 @@ public class InAppBrowser extends CordovaPlugin {
         // Determine if we should hide the location bar.
         showLocationBar = true;
         openWindowHidden = false;
+        pooled = pooledByDefault;
         if (features != null) {
             Boolean show = features.get(LOCATION);
             if (show != null) {
@@ -383,12 +804,17 @@ public class InAppBrowser extends CordovaPlugin {
             if(hidden != null) {
                 openWindowHidden = hidden.booleanValue();
             }
+            Boolean pool = features.get(POOLED);
+            if (pool != null) {
+                pooled = pool.booleanValue();
+            }
         }
         
-        final CordovaWebView thatWebView = this.webView;
-
         // Create dialog in new thread
         Runnable runnable = new Runnable() {
+            private WebView shownWebView;
+
+
             /**
              * Convert our DIP units to Pixels
              *
@@ -404,6 +830,17 @@ public class InAppBrowser extends CordovaPlugin {
             }
 
             public void run() {
+                // A pooled dialog still open gives up its WebView
+                if (dialog != null && inAppWebView != null && inAppWebView.getParent() != null && pooled) {
+                    // The listener would run after the WebView is reused, so do its work here
+                    dialog.setOnDismissListener(null);
+                    dialog.dismiss();
+                    sendExit(dialogCallbackContext);
+                    recycleWebView(inAppWebView);
+                }
+                final CallbackContext exitCallbackContext = callbackContext;
+                dialogCallbackContext = exitCallbackContext;
+
                 // Let's create the main dialog
                 dialog = new Dialog(cordova.getActivity(), android.R.style.Theme_NoTitleBar);
                 dialog.getWindow().getAttributes().windowAnimations = android.R.style.Animation_Dialog;
@@ -411,14 +848,8 @@ public class InAppBrowser extends CordovaPlugin {
                 dialog.setCancelable(true);
                 dialog.setOnDismissListener(new DialogInterface.OnDismissListener() {
                         public void onDismiss(DialogInterface dialog) {
-                            try {
-                                JSONObject obj = new JSONObject();
-                                obj.put("type", EXIT_EVENT);
-
-                                sendUpdate(obj, false);
-                            } catch (JSONException e) {
-                                Log.d(LOG_TAG, "Should never happen");
-                            }
+                            sendExit(exitCallbackContext);
+                            recycleWebView(shownWebView);
                         }
                 });
 
@@ -506,37 +937,8 @@ public class InAppBrowser extends CordovaPlugin {
                 });
 
                 // WebView
-                inAppWebView = new WebView(cordova.getActivity());
-                inAppWebView.setLayoutParams(new LinearLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
-                inAppWebView.setWebChromeClient(new InAppChromeClient(thatWebView));
-                WebViewClient client = new InAppBrowserClient(thatWebView, edittext);
-                inAppWebView.setWebViewClient(client);
-                WebSettings settings = inAppWebView.getSettings();
-                settings.setJavaScriptEnabled(true);
-                settings.setJavaScriptCanOpenWindowsAutomatically(true);
-                settings.setBuiltInZoomControls(true);
-                /** 
-                 * We need to be careful of this line as a future Android release may deprecate it out of existence.
-                 * Can't replace it with the API 8 level call right now as our minimum SDK is 7 until May 2013
-                 */
-                // @TODO: replace with settings.setPluginState(android.webkit.WebSettings.PluginState.ON)
-                settings.setPluginsEnabled(true);
-                
-                //Toggle whether this is enabled or not!
-                Bundle appSettings = cordova.getActivity().getIntent().getExtras();
-                boolean enableDatabase = appSettings == null ? true : appSettings.getBoolean("InAppBrowserStorageEnabled", true);
-                if(enableDatabase)
-                {
-                    String databasePath = cordova.getActivity().getApplicationContext().getDir("inAppBrowserDB", Context.MODE_PRIVATE).getPath();
-                    settings.setDatabasePath(databasePath);
-                    settings.setDatabaseEnabled(true);
-                }
-                settings.setDomStorageEnabled(true);
-               
-                inAppWebView.loadUrl(url);
-                inAppWebView.setId(6);
-                inAppWebView.getSettings().setLoadWithOverviewMode(true);
-                inAppWebView.getSettings().setUseWideViewPort(true);
+                inAppWebView = obtainWebView(url, edittext);
+                shownWebView = inAppWebView;
                 inAppWebView.requestFocus();
                 inAppWebView.requestFocusFromTouch();
 
@@ -706,6 +1108,11 @@ public class InAppBrowser extends CordovaPlugin {
     public class InAppBrowserClient extends WebViewClient {
         EditText edittext;
         CordovaWebView webView;
+        boolean silent;         // send no events, for pages not shown yet
+        boolean clearHistory;   // clear the history once the page is loaded
+        boolean finished;
+        long startTime;         // elapsedRealtime when the page started loading
+        long loadTime;          // msec the page took to load, once finished
 
         /**
          * Constructor.
@@ -727,6 +1134,12 @@ public class InAppBrowser extends CordovaPlugin {
         @Override
         public void onPageStarted(WebView view, String url,  Bitmap favicon) {
             super.onPageStarted(view, url, favicon);
+            this.finished = false;
+            this.startTime = SystemClock.elapsedRealtime();
+            if (this.silent) {
+                return;
+            }
+            currentUrl = url;
             String newloc = "";
             if (url.startsWith("http:") || url.startsWith("https:") || url.startsWith("file:")) {
                 newloc = url;
@@ -803,20 +1216,22 @@ public class InAppBrowser extends CordovaPlugin {
         
         public void onPageFinished(WebView view, String url) {
             super.onPageFinished(view, url);
-            
-            try {
-                JSONObject obj = new JSONObject();
-                obj.put("type", LOAD_STOP_EVENT);
-                obj.put("url", url);
-    
-                sendUpdate(obj, true);
-            } catch (JSONException ex) {
-                Log.d(LOG_TAG, "Should never happen");
+            this.finished = true;
+            this.loadTime = SystemClock.elapsedRealtime() - this.startTime;
+            if (this.clearHistory) {
+                view.clearHistory();
+                this.clearHistory = false;
+            }
+            if (!this.silent) {
+                sendLoadStop(url, this.loadTime);
             }
         }
         
         public void onReceivedError(WebView view, int errorCode, String description, String failingUrl) {
             super.onReceivedError(view, errorCode, description, failingUrl);
+            if (this.silent) {
+                return;
+            }
             
             try {
                 JSONObject obj = new JSONObject();
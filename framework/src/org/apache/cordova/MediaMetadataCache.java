@@ -0,0 +1,490 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.cordova.api.CordovaInterface;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.media.MediaPlayer;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Extracts the MediaFileData of captured files and generates their thumbnails.
+ * <p>
+ * Extraction runs on the thread pool as soon as a file is captured, so that several
+ * clips of a multi-item capture are processed in parallel, and while the user is still
+ * capturing.  Results are kept in memory and on disk, keyed by the file path and its
+ * modification time, so asking for the same unchanged file again does not reopen it.
+ * The disk cache keeps the most recently used entries and thumbnails, up to a fixed count each.
+ */
+public class MediaMetadataCache {
+
+    private static final String LOG_TAG = "MediaMetadataCache";
+
+    private static final String IMAGE_JPEG = "image/jpeg";
+    private static final String AUDIO_3GPP = "audio/3gpp";
+    private static final String VIDEO_3GPP = "video/3gpp";
+    private static final String VIDEO_MP4 = "video/mp4";
+
+    private static final int MAX_MEMORY_ENTRIES = 64;
+    private static final int MAX_DISK_ENTRIES = 256;
+    private static final int THUMBNAIL_SIZE = 96;
+    private static final int THUMBNAIL_QUALITY = 80;
+
+    private final CordovaInterface cordova;
+    private final File metadataDir;
+    private final File thumbnailDir;
+
+    // Extractions, both running and finished, in least recently used order
+    private final Map<String, FutureTask<JSONObject>> entries = new LinkedHashMap<String, FutureTask<JSONObject>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FutureTask<JSONObject>> eldest) {
+            return size() > MAX_MEMORY_ENTRIES && eldest.getValue().isDone();
+        }
+    };
+
+    public MediaMetadataCache(CordovaInterface cordova) {
+        this.cordova = cordova;
+        File cacheDir = cordova.getActivity().getCacheDir();
+        this.metadataDir = new File(cacheDir, "capture-metadata");
+        this.thumbnailDir = new File(cacheDir, "capture-thumbnails");
+    }
+
+    /**
+     * Starts extracting the data of the file in the background, unless it is already known.
+     *
+     * @param filePath path to the file
+     * @param mimeType of the file, or null to derive it from the path
+     * @return the pending MediaFileData
+     */
+    public Future<JSONObject> prefetch(String filePath, String mimeType) {
+        FutureTask<JSONObject> task = entry(filePath, mimeType);
+        if (!task.isDone()) {
+            this.cordova.getThreadPool().execute(task);
+        }
+        return task;
+    }
+
+    /**
+     * Provides the media data file data depending on it's mime type.  If an extraction
+     * of the file is under way it is waited for, otherwise it runs on the calling thread.
+     *
+     * @param filePath path to the file
+     * @param mimeType of the file, or null to derive it from the path
+     * @return a MediaFileData object, or null if it could not be extracted
+     */
+    public JSONObject getFormatData(String filePath, String mimeType) {
+        FutureTask<JSONObject> task = entry(filePath, mimeType);
+        // Does nothing if the task already started on the thread pool
+        task.run();
+        return get(task);
+    }
+
+    /**
+     * Waits for a pending result from prefetch().
+     *
+     * @return the MediaFileData, or null if it could not be extracted
+     */
+    public static JSONObject get(Future<JSONObject> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Error extracting media data", e.getCause());
+        }
+        return null;
+    }
+
+    /**
+     * Returns the extraction task for the current version of the file, creating it if needed.
+     */
+    private FutureTask<JSONObject> entry(final String filePath, final String mimeType) {
+        final File file = new File(FileHelper.stripFileProtocol(filePath));
+        String key = key(file);
+        synchronized (entries) {
+            FutureTask<JSONObject> task = entries.get(key);
+            if (task == null) {
+                task = new FutureTask<JSONObject>(new Callable<JSONObject>() {
+                    public JSONObject call() throws Exception {
+                        return load(file, filePath, mimeType);
+                    }
+                });
+                entries.put(key, task);
+            }
+            return task;
+        }
+    }
+
+    private static String key(File file) {
+        return file.getAbsolutePath() + "@" + file.lastModified();
+    }
+
+    /**
+     * Reads the data from the disk cache if it is there for this version of the file,
+     * otherwise extracts it and stores it.
+     */
+    private JSONObject load(File file, String filePath, String mimeType) throws JSONException {
+        String name = hash(file.getAbsolutePath());
+        File cached = new File(metadataDir, name + ".json");
+        long lastModified = file.lastModified();
+
+        try {
+            JSONObject entry = new JSONObject(readString(cached));
+            if (file.getAbsolutePath().equals(entry.optString("path"))
+                    && lastModified == entry.optLong("lastModified")) {
+                JSONObject data = entry.getJSONObject("data");
+                String thumbnail = data.optString("thumbnail", null);
+                File thumbnailFile = thumbnail == null ? null : new File(FileHelper.stripFileProtocol(thumbnail));
+                if (thumbnailFile == null || thumbnailFile.exists()) {
+                    // Mark the entry as recently used so trim() keeps it
+                    long now = System.currentTimeMillis();
+                    cached.setLastModified(now);
+                    if (thumbnailFile != null) {
+                        thumbnailFile.setLastModified(now);
+                    }
+                    return data;
+                }
+            }
+        } catch (IOException e) {
+            // Not cached yet
+        } catch (JSONException e) {
+            Log.d(LOG_TAG, "Discarding corrupt cache entry for " + file);
+        }
+
+        JSONObject data = extract(file, filePath, mimeType, name + "-" + lastModified);
+
+        JSONObject entry = new JSONObject();
+        entry.put("path", file.getAbsolutePath());
+        entry.put("lastModified", lastModified);
+        entry.put("data", data);
+        try {
+            metadataDir.mkdirs();
+            writeString(cached, entry.toString());
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Unable to cache media data for " + file);
+        }
+        trim(metadataDir, ".json");
+        trim(thumbnailDir, ".jpg");
+        return data;
+    }
+
+    private JSONObject extract(File file, String filePath, String mimeType, String thumbnailName) throws JSONException {
+        JSONObject obj = new JSONObject();
+        // setup defaults
+        obj.put("height", 0);
+        obj.put("width", 0);
+        obj.put("bitrate", 0);
+        obj.put("duration", 0);
+        obj.put("codecs", "");
+
+        // If the mimeType isn't set the rest will fail
+        // so let's see if we can determine it.
+        if (mimeType == null || mimeType.equals("") || "null".equals(mimeType)) {
+            mimeType = FileHelper.getMimeType(filePath, cordova);
+        }
+        Log.d(LOG_TAG, "Mime type = " + mimeType);
+
+        Bitmap thumbnail = null;
+        if (IMAGE_JPEG.equals(mimeType) || filePath.endsWith(".jpg")) {
+            thumbnail = getImageData(file, obj);
+        }
+        else if (mimeType != null && mimeType.endsWith(AUDIO_3GPP)) {
+            thumbnail = getAudioVideoData(file, obj, false);
+        }
+        else if (VIDEO_3GPP.equals(mimeType) || VIDEO_MP4.equals(mimeType)) {
+            thumbnail = getAudioVideoData(file, obj, true);
+        }
+
+        if (thumbnail != null) {
+            File thumbnailFile = writeThumbnail(thumbnail, thumbnailName);
+            if (thumbnailFile != null) {
+                obj.put("thumbnail", "file://" + thumbnailFile.getAbsolutePath());
+            }
+        }
+        return obj;
+    }
+
+    /**
+     * Get the Image specific attributes
+     *
+     * @return a downsampled copy of the image to make the thumbnail from
+     */
+    private Bitmap getImageData(File file, JSONObject obj) throws JSONException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        obj.put("height", options.outHeight);
+        obj.put("width", options.outWidth);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = Math.max(1, ImageProcessor.calculateSampleSize(options.outWidth, options.outHeight, THUMBNAIL_SIZE, THUMBNAIL_SIZE));
+        return BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+    }
+
+    /**
+     * Get the Audio and Video specific attributes
+     *
+     * @param video if true get video attributes as well
+     * @return a frame of the video or the embedded album art to make the thumbnail from
+     */
+    private Bitmap getAudioVideoData(File file, JSONObject obj, boolean video) throws JSONException {
+        // The dimensions and bitrate keys were only added in ICS
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return retrieveAudioVideoData(file, obj, video);
+        }
+
+        MediaPlayer player = new MediaPlayer();
+        try {
+            player.setDataSource(file.getAbsolutePath());
+            player.prepare();
+            obj.put("duration", player.getDuration() / 1000);
+            if (video) {
+                obj.put("height", player.getVideoHeight());
+                obj.put("width", player.getVideoWidth());
+            }
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Error: loading video file");
+        } finally {
+            player.release();
+        }
+        return null;
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private Bitmap retrieveAudioVideoData(File file, JSONObject obj, boolean video) throws JSONException {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(file.getAbsolutePath());
+            obj.put("duration", parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION)) / 1000);
+            obj.put("bitrate", parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_BITRATE)));
+            // METADATA_KEY_MIMETYPE is the container type, the codecs are those of the tracks
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                obj.put("codecs", getCodecs(file));
+            }
+            if (video) {
+                obj.put("height", parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT)));
+                obj.put("width", parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH)));
+                return retriever.getFrameAtTime();
+            }
+            byte[] art = retriever.getEmbeddedPicture();
+            if (art != null) {
+                return BitmapFactory.decodeByteArray(art, 0, art.length);
+            }
+        } catch (RuntimeException e) {
+            Log.d(LOG_TAG, "Error: loading media file " + file);
+        } finally {
+            retriever.release();
+        }
+        return null;
+    }
+
+    /**
+     * Lists the MIME types of the tracks in the file, e.g. "video/avc, audio/mp4a-latm".
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static String getCodecs(File file) {
+        MediaExtractor extractor = new MediaExtractor();
+        StringBuilder codecs = new StringBuilder();
+        try {
+            extractor.setDataSource(file.getAbsolutePath());
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+                if (mime != null) {
+                    if (codecs.length() > 0) {
+                        codecs.append(", ");
+                    }
+                    codecs.append(mime);
+                }
+            }
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Error: reading the tracks of " + file);
+        } catch (RuntimeException e) {
+            Log.d(LOG_TAG, "Error: reading the tracks of " + file);
+        } finally {
+            extractor.release();
+        }
+        return codecs.toString();
+    }
+
+    /**
+     * Deletes the least recently used files with the suffix from the directory until
+     * at most MAX_DISK_ENTRIES are left.  Files being written have another suffix and
+     * are left alone.
+     */
+    private static void trim(File dir, final String suffix) {
+        File[] files = dir.listFiles();
+        if (files == null || files.length <= MAX_DISK_ENTRIES) {
+            return;
+        }
+        final long[] lastUsed = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        int count = 0;
+        for (int i = 0; i < files.length; i++) {
+            order[i] = i;
+            lastUsed[i] = files[i].lastModified();
+            if (files[i].getName().endsWith(suffix)) {
+                count++;
+            }
+        }
+        if (count <= MAX_DISK_ENTRIES) {
+            return;
+        }
+        // Oldest first; lastModified() is read once so the order stays consistent while sorting
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                long x = lastUsed[a];
+                long y = lastUsed[b];
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < order.length && count > MAX_DISK_ENTRIES; i++) {
+            File f = files[order[i]];
+            if (f.getName().endsWith(suffix) && f.delete()) {
+                count--;
+            }
+        }
+    }
+
+    /**
+     * Scales the bitmap down to thumbnail size and writes it to the thumbnail directory,
+     * replacing the thumbnails of earlier versions of the same file.
+     */
+    private File writeThumbnail(Bitmap bitmap, String name) {
+        int[] size = ImageProcessor.calculateAspectRatio(bitmap.getWidth(), bitmap.getHeight(), THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.max(1, size[0]), Math.max(1, size[1]), true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+
+        thumbnailDir.mkdirs();
+        String prefix = name.substring(0, name.indexOf('-') + 1);
+        File[] stale = thumbnailDir.listFiles();
+        if (stale != null) {
+            for (File f : stale) {
+                if (f.getName().startsWith(prefix)) {
+                    f.delete();
+                }
+            }
+        }
+
+        File file = new File(thumbnailDir, name + ".jpg");
+        try {
+            OutputStream os = new FileOutputStream(file);
+            try {
+                scaled.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, os);
+            } finally {
+                os.close();
+            }
+            return file;
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Unable to write thumbnail " + file);
+            file.delete();
+            return null;
+        } finally {
+            scaled.recycle();
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String readString(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = is.read(buffer)) != -1) {
+                bytes.write(buffer, 0, len);
+            }
+            return bytes.toString("UTF-8");
+        } finally {
+            is.close();
+        }
+    }
+
+    private static void writeString(File file, String value) throws IOException {
+        // Write next to the entry and rename, so a concurrent reader never sees half of it
+        File temp = new File(file.getPath() + ".tmp" + Thread.currentThread().getId());
+        OutputStream os = new FileOutputStream(temp);
+        try {
+            os.write(value.getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to rename " + temp);
+        }
+    }
+}
@@ -22,6 +22,9 @@ import org.apache.cordova.api.CallbackContext;
 import org.apache.cordova.api.CordovaInterface;
 import org.apache.cordova.api.CordovaPlugin;
 import org.apache.cordova.api.PluginResult;
+import java.util.HashMap;
+import java.util.Locale;
+
 import org.json.JSONArray;
 
 import android.content.BroadcastReceiver;
@@ -69,12 +72,30 @@ public class NetworkManager extends CordovaPlugin {
 
     private static final String LOG_TAG = "NetworkManager";
 
-    private CallbackContext connectionCallbackContext;
+    // Connection type of each mobile subtype name, in lower case
+    private static final HashMap<String, String> MOBILE_TYPES = new HashMap<String, String>();
+    static {
+        MOBILE_TYPES.put(GSM, TYPE_2G);
+        MOBILE_TYPES.put(GPRS, TYPE_2G);
+        MOBILE_TYPES.put(EDGE, TYPE_2G);
+        MOBILE_TYPES.put(UMTS, TYPE_3G);
+        MOBILE_TYPES.put(ONEXRTT, TYPE_3G);
+        MOBILE_TYPES.put(EHRPD, TYPE_3G);
+        MOBILE_TYPES.put(HSUPA, TYPE_3G);
+        MOBILE_TYPES.put(HSDPA, TYPE_3G);
+        MOBILE_TYPES.put(HSPA, TYPE_3G);
+        MOBILE_TYPES.put(LTE, TYPE_4G);
+        MOBILE_TYPES.put(UMB, TYPE_4G);
+        MOBILE_TYPES.put(HSPA_PLUS, TYPE_4G);
+    }
+
+    private volatile CallbackContext connectionCallbackContext;
     private boolean registered = false;
 
     ConnectivityManager sockMan;
     BroadcastReceiver receiver;
     private String lastStatus = "";
+    private PluginResult lastResult;    // lastStatus, kept for the next getConnectionInfo
 
     /**
      * Constructor.
@@ -102,6 +123,7 @@ public class NetworkManager extends CordovaPlugin {
             this.receiver = new BroadcastReceiver() {
                 @Override
                 public void onReceive(Context context, Intent intent) {
+                    CordovaHttpClient.onNetworkChanged();
                     // (The null check is for the ARM Emulator, please use Intel Emulator for better results)
                     if(NetworkManager.this.webView != null)                        
                         updateConnectionInfo(sockMan.getActiveNetworkInfo());
@@ -123,10 +145,15 @@ public class NetworkManager extends CordovaPlugin {
      */
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) {
         if (action.equals("getConnectionInfo")) {
-            this.connectionCallbackContext = callbackContext;
-            NetworkInfo info = sockMan.getActiveNetworkInfo();
-            PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, this.getConnectionInfo(info));
-            pluginResult.setKeepCallback(false);
+            // The callback is kept and only called again when the type changes
+            PluginResult pluginResult;
+            synchronized (this) {
+                this.connectionCallbackContext = callbackContext;
+                if (this.lastResult == null) {
+                    this.updateSnapshot(this.getConnectionInfo(sockMan.getActiveNetworkInfo()));
+                }
+                pluginResult = this.lastResult;
+            }
             callbackContext.sendPluginResult(pluginResult);
             return true;
         }
@@ -161,12 +188,27 @@ public class NetworkManager extends CordovaPlugin {
         // send update to javascript "navigator.network.connection"
         // Jellybean sends its own info
         String thisStatus = this.getConnectionInfo(info);
-        if(!thisStatus.equals(lastStatus))
-        {
-            sendUpdate(thisStatus);
-            lastStatus = thisStatus;
+        PluginResult result;
+        synchronized (this) {
+            if (thisStatus.equals(lastStatus)) {
+                return;
+            }
+            result = this.updateSnapshot(thisStatus);
         }
-            
+        sendUpdate(result, thisStatus);
+    }
+
+    /**
+     * Replaces the connection type sent to JavaScript.
+     *
+     * @param type the connection type
+     * @return the result holding it
+     */
+    private PluginResult updateSnapshot(String type) {
+        this.lastStatus = type;
+        this.lastResult = new PluginResult(PluginResult.Status.OK, type);
+        this.lastResult.setKeepCallback(true);
+        return this.lastResult;
     }
 
     /**
@@ -193,13 +235,13 @@ public class NetworkManager extends CordovaPlugin {
     /**
      * Create a new plugin result and send it back to JavaScript
      *
-     * @param connection the network info to set as navigator.connection
+     * @param result the result holding the connection type
+     * @param type the connection type to set as navigator.connection
      */
-    private void sendUpdate(String type) {
-        if (connectionCallbackContext != null) {
-            PluginResult result = new PluginResult(PluginResult.Status.OK, type);
-            result.setKeepCallback(true);
-            connectionCallbackContext.sendPluginResult(result);
+    private void sendUpdate(PluginResult result, String type) {
+        CallbackContext callbackContext = connectionCallbackContext;
+        if (callbackContext != null) {
+            callbackContext.sendPluginResult(result);
         }
         webView.postMessage("networkconnection", type);
     }
@@ -214,30 +256,18 @@ public class NetworkManager extends CordovaPlugin {
         if (info != null) {
             String type = info.getTypeName();
 
-            if (type.toLowerCase().equals(WIFI)) {
+            if (WIFI.equalsIgnoreCase(type)) {
                 return TYPE_WIFI;
             }
-            else if (type.toLowerCase().equals(MOBILE)) {
-                type = info.getSubtypeName();
-                if (type.toLowerCase().equals(GSM) ||
-                        type.toLowerCase().equals(GPRS) ||
-                        type.toLowerCase().equals(EDGE)) {
-                    return TYPE_2G;
+            else if (MOBILE.equalsIgnoreCase(type)) {
+                type = info.getSubtypeName().toLowerCase(Locale.US);
+                String mobileType = MOBILE_TYPES.get(type);
+                if (mobileType != null) {
+                    return mobileType;
                 }
-                else if (type.toLowerCase().startsWith(CDMA) ||
-                        type.toLowerCase().equals(UMTS) ||
-                        type.toLowerCase().equals(ONEXRTT) ||
-                        type.toLowerCase().equals(EHRPD) ||
-                        type.toLowerCase().equals(HSUPA) ||
-                        type.toLowerCase().equals(HSDPA) ||
-                        type.toLowerCase().equals(HSPA)) {
+                else if (type.startsWith(CDMA)) {
                     return TYPE_3G;
                 }
-                else if (type.toLowerCase().equals(LTE) ||
-                        type.toLowerCase().equals(UMB) ||
-                        type.toLowerCase().equals(HSPA_PLUS)) {
-                    return TYPE_4G;
-                }
             }
         }
         else {
@@ -0,0 +1,279 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.util.HashMap;
+
+import org.apache.cordova.api.CallbackContext;
+import org.apache.cordova.api.CordovaInterface;
+import org.apache.cordova.api.CordovaPlugin;
+import org.apache.cordova.api.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.hardware.Sensor;
+import android.os.Handler;
+import android.os.Looper;
+
+/*
+ * This class is the interface to the SensorHub for JavaScript.  Any number of watches can
+ * be added on any sensor, and all the watches of a sensor share its one registration.
+ *
+ * addWatch takes the watch id, the sensor name and an optional options object with:
+ *   frequency      sampling rate in Hz the sensor should at least be registered with
+ *   interval       minimum msec between samples sent to this watch
+ *   batchInterval  msec between packed batches of samples, 0 to send each sample
+ *   binary         whether batches are sent as ArrayBuffers of little endian doubles
+ */
+public class SensorBroker extends CordovaPlugin {
+
+    private static final int ERROR_FAILED_TO_START = 3;
+
+    private static final HashMap<String, Integer> SENSOR_TYPES = new HashMap<String, Integer>();
+    static {
+        SENSOR_TYPES.put("accelerometer", Sensor.TYPE_ACCELEROMETER);
+        SENSOR_TYPES.put("magnetometer", Sensor.TYPE_MAGNETIC_FIELD);
+        SENSOR_TYPES.put("gyroscope", Sensor.TYPE_GYROSCOPE);
+        SENSOR_TYPES.put("light", Sensor.TYPE_LIGHT);
+        SENSOR_TYPES.put("pressure", Sensor.TYPE_PRESSURE);
+        SENSOR_TYPES.put("proximity", Sensor.TYPE_PROXIMITY);
+        SENSOR_TYPES.put("gravity", Sensor.TYPE_GRAVITY);
+        SENSOR_TYPES.put("linearAcceleration", Sensor.TYPE_LINEAR_ACCELERATION);
+        SENSOR_TYPES.put("rotationVector", Sensor.TYPE_ROTATION_VECTOR);
+        SENSOR_TYPES.put("heading", SensorHub.TYPE_HEADING);
+    }
+
+    private SensorHub sensorHub;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final HashMap<String, Watch> watches = new HashMap<String, Watch>();
+
+    /**
+     * Constructor.
+     */
+    public SensorBroker() {
+    }
+
+    @Override
+    public void initialize(CordovaInterface cordova, CordovaWebView webView) {
+        super.initialize(cordova, webView);
+        this.sensorHub = SensorHub.getInstance(cordova.getActivity());
+    }
+
+    /**
+     * Executes the request and returns PluginResult.
+     *
+     * @param action            The action to execute.
+     * @param args              JSONArry of arguments for the plugin.
+     * @param callbackContext   The callback id used when calling back into JavaScript.
+     * @return                  True if the action was valid, or false if not.
+     */
+    public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
+        if (action.equals("addWatch")) {
+            String id = args.getString(0);
+            Integer type = SENSOR_TYPES.get(args.getString(1));
+            JSONObject options = args.optJSONObject(2);
+            if (options == null) {
+                options = new JSONObject();
+            }
+
+            this.clearWatch(id);
+            Watch watch = new Watch(type == null ? 0 : type, callbackContext, options);
+            if (type == null || !this.sensorHub.addListener(watch.type, watch, watch.delayUs, watch.intervalMs)) {
+                this.fail(callbackContext, "No sensor found for " + args.getString(1) + ".");
+                return true;
+            }
+            synchronized (this.watches) {
+                this.watches.put(id, watch);
+            }
+            watch.start();
+
+            PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+        }
+        else if (action.equals("clearWatch")) {
+            this.clearWatch(args.getString(0));
+            callbackContext.success();
+        }
+        else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Called when the view navigates.
+     */
+    @Override
+    public void onReset() {
+        this.clearAll();
+    }
+
+    /**
+     * Called when the activity is to be shut down.
+     */
+    @Override
+    public void onDestroy() {
+        this.clearAll();
+    }
+
+    /**
+     * Unregister the sensors while the activity is in the background.
+     */
+    @Override
+    public void onPause(boolean multitasking) {
+        this.sensorHub.pause();
+    }
+
+    @Override
+    public void onResume(boolean multitasking) {
+        this.sensorHub.resume();
+    }
+
+    private void clearWatch(String id) {
+        Watch watch;
+        synchronized (this.watches) {
+            watch = this.watches.remove(id);
+        }
+        if (watch != null) {
+            watch.stop();
+        }
+    }
+
+    private void clearAll() {
+        HashMap<String, Watch> cleared;
+        synchronized (this.watches) {
+            cleared = new HashMap<String, Watch>(this.watches);
+            this.watches.clear();
+        }
+        for (Watch watch : cleared.values()) {
+            watch.stop();
+        }
+    }
+
+    private void fail(CallbackContext callbackContext, String message) {
+        JSONObject errorObj = new JSONObject();
+        try {
+            errorObj.put("code", ERROR_FAILED_TO_START);
+            errorObj.put("message", message);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        callbackContext.error(errorObj);
+    }
+
+    /**
+     * Number of values sent per sample of the sensor type.
+     */
+    private static int getDimensions(int type) {
+        switch (type) {
+            case SensorHub.TYPE_HEADING:
+            case Sensor.TYPE_LIGHT:
+            case Sensor.TYPE_PRESSURE:
+            case Sensor.TYPE_PROXIMITY:
+                return 1;
+            default:
+                return 3;
+        }
+    }
+
+    /**
+     * One JavaScript watch, sending each sample it gets or batches of them.
+     */
+    private class Watch implements SensorHub.Listener, Runnable {
+        final int type;
+        final CallbackContext callbackContext;
+        final int delayUs;
+        final long intervalMs;
+        final int batchInterval;
+        final boolean binary;
+        final SensorSampleBuffer samples;
+        volatile boolean stopped;
+
+        Watch(int type, CallbackContext callbackContext, JSONObject options) {
+            this.type = type;
+            this.callbackContext = callbackContext;
+            int frequency = options.optInt("frequency", 0);
+            this.delayUs = frequency > 0 ? 1000000 / frequency : SensorHub.DELAY_UI;
+            this.intervalMs = Math.max(0, options.optLong("interval", 0));
+            this.batchInterval = Math.max(0, options.optInt("batchInterval", 0));
+            this.binary = options.optBoolean("binary", false);
+            if (this.batchInterval > 0) {
+                // Room for two batches at the registered rate
+                int capacity = Math.max(32, (int) (2000L * this.batchInterval / Math.max(1, this.delayUs)));
+                this.samples = new SensorSampleBuffer(capacity, getDimensions(type));
+            } else {
+                this.samples = null;
+            }
+        }
+
+        void start() {
+            if (this.samples != null) {
+                handler.postDelayed(this, this.batchInterval);
+            }
+        }
+
+        void stop() {
+            this.stopped = true;
+            sensorHub.removeListener(this.type, this);
+            handler.removeCallbacks(this);
+        }
+
+        /**
+         * Sends the buffered samples as one result.
+         */
+        public void run() {
+            if (this.stopped) {
+                return;
+            }
+            PluginResult result = this.samples.drain(this.binary);
+            if (result != null) {
+                result.setKeepCallback(true);
+                this.callbackContext.sendPluginResult(result);
+            }
+            handler.postDelayed(this, this.batchInterval);
+        }
+
+        public void onSample(int type, long timestamp, float[] values, int accuracy) {
+            if (this.stopped) {
+                return;
+            }
+            if (this.samples != null) {
+                this.samples.add(timestamp, values);
+                return;
+            }
+            JSONObject r = new JSONObject();
+            try {
+                JSONArray v = new JSONArray();
+                for (int i = 0; i < getDimensions(type) && i < values.length; i++) {
+                    v.put((double) values[i]);
+                }
+                r.put("values", v);
+                r.put("accuracy", accuracy);
+                r.put("timestamp", timestamp);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            PluginResult result = new PluginResult(PluginResult.Status.OK, r);
+            result.setKeepCallback(true);
+            this.callbackContext.sendPluginResult(result);
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.app.Activity;
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+
+/**
+ * Shares one SensorManager registration per sensor type between all the listeners of an
+ * activity, be they plugins or JavaScript watchers.
+ * <p>
+ * Each sensor is registered with the shortest delay any of its listeners asked for, and
+ * unregistered when its last listener is removed.  Listeners that asked for a longer
+ * interval between samples get every sample that is at least that far apart from the
+ * previous one they got.  TYPE_HEADING is a virtual sensor that fuses the accelerometer
+ * and the magnetic field into a compass heading, sharing their registrations with any
+ * other listeners of those sensors.
+ */
+public class SensorHub {
+
+    /** Compass heading in degrees from magnetic north, fused from other sensors. */
+    public static final int TYPE_HEADING = -1;
+
+    /** Delays in microseconds matching the predefined SensorManager ones. */
+    public static final int DELAY_NORMAL = 200000;
+    public static final int DELAY_UI = 60000;
+    public static final int DELAY_GAME = 20000;
+
+    /**
+     * Receives the samples of a sensor on the main thread.
+     */
+    public interface Listener {
+        /**
+         * @param type          The sensor type the listener was added for.
+         * @param timestamp     Time of the sample in msec since the epoch.
+         * @param values        The sensor values, only valid for the duration of the call.
+         * @param accuracy      The latest accuracy reported for the sensor.
+         */
+        void onSample(int type, long timestamp, float[] values, int accuracy);
+    }
+
+    private static final Map<Activity, SensorHub> hubs = new WeakHashMap<Activity, SensorHub>();
+
+    private final SensorManager sensorManager;
+    private final Map<Integer, Channel> channels = new HashMap<Integer, Channel>();
+    private boolean paused;
+
+    /**
+     * Returns the hub shared by everything running in the activity.
+     */
+    public static SensorHub getInstance(Activity activity) {
+        synchronized (hubs) {
+            SensorHub hub = hubs.get(activity);
+            if (hub == null) {
+                hub = new SensorHub((SensorManager) activity.getSystemService(Context.SENSOR_SERVICE));
+                hubs.put(activity, hub);
+            }
+            return hub;
+        }
+    }
+
+    private SensorHub(SensorManager sensorManager) {
+        this.sensorManager = sensorManager;
+    }
+
+    /**
+     * Whether the device has the sensor, or the sensors TYPE_HEADING is fused from.
+     */
+    public boolean hasSensor(int type) {
+        if (type == TYPE_HEADING) {
+            return (hasSensor(Sensor.TYPE_ACCELEROMETER) && hasSensor(Sensor.TYPE_MAGNETIC_FIELD))
+                    || hasSensor(legacyOrientationType());
+        }
+        return sensorManager.getDefaultSensor(type) != null;
+    }
+
+    /**
+     * Adds a listener for a sensor, registering the sensor if needed.  The same listener
+     * may be added for several types.
+     *
+     * @param type          A Sensor type, or TYPE_HEADING.
+     * @param listener      The listener.
+     * @param delayUs       The delay between samples the sensor should be registered with.
+     * @param intervalMs    Minimum time between samples delivered to this listener.
+     * @return              False if the device does not have the sensor.
+     */
+    public synchronized boolean addListener(int type, Listener listener, int delayUs, long intervalMs) {
+        Channel channel = channels.get(type);
+        if (channel == null) {
+            channel = type == TYPE_HEADING ? new HeadingChannel() : new SensorChannel(type);
+            if (!channel.isAvailable()) {
+                return false;
+            }
+            channels.put(type, channel);
+        }
+        channel.remove(listener);
+        channel.subscriptions.add(new Subscription(listener, delayUs, intervalMs));
+        channel.update();
+        return true;
+    }
+
+    /**
+     * Removes the listener from a sensor, unregistering the sensor if it was the last one.
+     */
+    public synchronized void removeListener(int type, Listener listener) {
+        Channel channel = channels.get(type);
+        if (channel != null && channel.remove(listener)) {
+            channel.update();
+            if (channel.subscriptions.isEmpty()) {
+                channels.remove(type);
+            }
+        }
+    }
+
+    /**
+     * Unregisters every sensor while the activity is paused.  Listeners are kept, and the
+     * sensors registered again on resume().
+     */
+    public synchronized void pause() {
+        if (!paused) {
+            paused = true;
+            for (Channel channel : new ArrayList<Channel>(channels.values())) {
+                channel.update();
+            }
+        }
+    }
+
+    public synchronized void resume() {
+        if (paused) {
+            paused = false;
+            for (Channel channel : new ArrayList<Channel>(channels.values())) {
+                channel.update();
+            }
+        }
+    }
+
+    /**
+     * Converts a delay in microseconds to what registerListener() accepts.  Before
+     * Gingerbread only the predefined delays are.
+     */
+    public static int toSensorDelay(int delayUs) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+            return delayUs;
+        }
+        if (delayUs < DELAY_GAME) {
+            return SensorManager.SENSOR_DELAY_FASTEST;
+        } else if (delayUs < DELAY_UI) {
+            return SensorManager.SENSOR_DELAY_GAME;
+        } else if (delayUs < DELAY_NORMAL) {
+            return SensorManager.SENSOR_DELAY_UI;
+        }
+        return SensorManager.SENSOR_DELAY_NORMAL;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static int legacyOrientationType() {
+        return Sensor.TYPE_ORIENTATION;
+    }
+
+    private static class Subscription {
+        final Listener listener;
+        final int delayUs;
+        final long intervalMs;
+        long lastTimestamp = Long.MIN_VALUE;
+
+        Subscription(Listener listener, int delayUs, long intervalMs) {
+            this.listener = listener;
+            this.delayUs = delayUs;
+            this.intervalMs = intervalMs;
+        }
+    }
+
+    /**
+     * The listeners of one sensor type.
+     */
+    private abstract class Channel {
+        final int type;
+        final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+        int accuracy = SensorManager.SENSOR_STATUS_UNRELIABLE;
+
+        Channel(int type) {
+            this.type = type;
+        }
+
+        abstract boolean isAvailable();
+
+        /**
+         * Registers, re-registers or unregisters the sensor to match the subscriptions.
+         */
+        abstract void update();
+
+        boolean remove(Listener listener) {
+            for (Subscription s : subscriptions) {
+                if (s.listener == listener) {
+                    return subscriptions.remove(s);
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the delay the sensor should be registered with, or -1 if it shouldn't be.
+         */
+        int requestedDelay() {
+            if (paused || subscriptions.isEmpty()) {
+                return -1;
+            }
+            int delay = Integer.MAX_VALUE;
+            for (Subscription s : subscriptions) {
+                delay = Math.min(delay, s.delayUs);
+            }
+            return delay;
+        }
+
+        void dispatch(long timestamp, float[] values) {
+            for (Subscription s : subscriptions) {
+                if (s.lastTimestamp != Long.MIN_VALUE && timestamp - s.lastTimestamp < s.intervalMs) {
+                    continue;
+                }
+                s.lastTimestamp = timestamp;
+                s.listener.onSample(type, timestamp, values, accuracy);
+            }
+        }
+    }
+
+    /**
+     * A hardware sensor, registered once for all its listeners.
+     */
+    private class SensorChannel extends Channel implements SensorEventListener {
+        final Sensor sensor;
+        int registeredDelay = -1;
+        long timestampOffset;
+
+        SensorChannel(int type) {
+            super(type);
+            this.sensor = sensorManager.getDefaultSensor(type);
+        }
+
+        boolean isAvailable() {
+            return sensor != null;
+        }
+
+        void update() {
+            int delay = requestedDelay();
+            if (delay == registeredDelay) {
+                return;
+            }
+            if (registeredDelay != -1) {
+                sensorManager.unregisterListener(this);
+                accuracy = SensorManager.SENSOR_STATUS_UNRELIABLE;
+            }
+            registeredDelay = delay;
+            if (delay != -1) {
+                timestampOffset = Long.MIN_VALUE;
+                sensorManager.registerListener(this, sensor, toSensorDelay(delay));
+            }
+        }
+
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            this.accuracy = accuracy;
+        }
+
+        public void onSensorChanged(SensorEvent event) {
+            // Event timestamps are in nsec on an unspecified clock, so line it up with
+            // the wall clock on the first event
+            long eventTime = event.timestamp / 1000000;
+            if (timestampOffset == Long.MIN_VALUE) {
+                timestampOffset = System.currentTimeMillis() - eventTime;
+            }
+            dispatch(timestampOffset + eventTime, event.values);
+        }
+    }
+
+    /**
+     * The compass heading, computed from the latest accelerometer and magnetic field samples.
+     * Devices without a magnetometer fall back to the deprecated orientation sensor.
+     */
+    private class HeadingChannel extends Channel implements Listener {
+        final boolean fused;
+        final float[] gravity = new float[3];
+        final float[] geomagnetic = new float[3];
+        final float[] rotation = new float[9];
+        final float[] orientation = new float[3];
+        final float[] heading = new float[1];
+        boolean haveGravity;
+        boolean haveGeomagnetic;
+        boolean registered;
+
+        HeadingChannel() {
+            super(TYPE_HEADING);
+            this.fused = hasSensor(Sensor.TYPE_ACCELEROMETER) && hasSensor(Sensor.TYPE_MAGNETIC_FIELD);
+        }
+
+        boolean isAvailable() {
+            return fused || hasSensor(legacyOrientationType());
+        }
+
+        void update() {
+            if (subscriptions.isEmpty()) {
+                // Unsubscribe even while paused, or the sensors it is fused from would be
+                // registered again on resume with nothing left to consume them
+                if (registered) {
+                    if (fused) {
+                        removeListener(Sensor.TYPE_ACCELEROMETER, this);
+                        removeListener(Sensor.TYPE_MAGNETIC_FIELD, this);
+                    } else {
+                        removeListener(legacyOrientationType(), this);
+                    }
+                    registered = false;
+                    haveGravity = false;
+                    haveGeomagnetic = false;
+                }
+            } else if (!paused) {
+                // While paused the sensors it is fused from unregister themselves
+                int delay = requestedDelay();
+                // Adding again replaces the subscription, and with it the delay
+                if (fused) {
+                    addListener(Sensor.TYPE_ACCELEROMETER, this, delay, 0);
+                    addListener(Sensor.TYPE_MAGNETIC_FIELD, this, delay, 0);
+                } else {
+                    addListener(legacyOrientationType(), this, delay, 0);
+                }
+                registered = true;
+            }
+        }
+
+        public void onSample(int type, long timestamp, float[] values, int accuracy) {
+            if (type == Sensor.TYPE_ACCELEROMETER) {
+                System.arraycopy(values, 0, gravity, 0, 3);
+                haveGravity = true;
+                // Only emit on magnetic field samples, the heading hardly moves with the accelerometer
+                return;
+            }
+            this.accuracy = accuracy;
+            if (type == Sensor.TYPE_MAGNETIC_FIELD) {
+                System.arraycopy(values, 0, geomagnetic, 0, 3);
+                haveGeomagnetic = true;
+                if (!haveGravity || !SensorManager.getRotationMatrix(rotation, null, gravity, geomagnetic)) {
+                    return;
+                }
+                SensorManager.getOrientation(rotation, orientation);
+                heading[0] = ((float) Math.toDegrees(orientation[0]) + 360) % 360;
+            } else {
+                heading[0] = values[0];
+            }
+            dispatch(timestamp, heading);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.apache.cordova.api.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/**
+ * A fixed size ring of sensor samples, each a timestamp and a few float values, kept in
+ * preallocated primitive arrays so that buffering a sample does not allocate.
+ * <p>
+ * The buffered samples are sent as a single packed result: a flat array of numbers, or an
+ * ArrayBuffer of little endian doubles, holding timestamp followed by the values for each
+ * sample in order.  When the ring is full the oldest sample is overwritten.
+ */
+public class SensorSampleBuffer {
+
+    private final int dimensions;
+    private final long[] timestamps;
+    private final float[] values;
+
+    private int head;       // index of the oldest sample
+    private int count;      // number of samples buffered
+
+    /**
+     * @param capacity      Number of samples the ring holds.
+     * @param dimensions    Number of values in each sample.
+     */
+    public SensorSampleBuffer(int capacity, int dimensions) {
+        this.dimensions = dimensions;
+        this.timestamps = new long[capacity];
+        this.values = new float[capacity * dimensions];
+    }
+
+    /**
+     * Buffers a sample, overwriting the oldest one if the ring is full.
+     *
+     * @param timestamp     Time of the sample in msec since the epoch.
+     * @param sample        The values, of which the first dimensions are kept.
+     */
+    public synchronized void add(long timestamp, float[] sample) {
+        int capacity = timestamps.length;
+        int slot = (head + count) % capacity;
+        if (count == capacity) {
+            head = (head + 1) % capacity;
+        } else {
+            count++;
+        }
+        timestamps[slot] = timestamp;
+        System.arraycopy(sample, 0, values, slot * dimensions, dimensions);
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return the number of samples the ring holds.
+     */
+    public int getCapacity() {
+        return timestamps.length;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        count = 0;
+    }
+
+    /**
+     * Removes all buffered samples and packs them into a result.
+     *
+     * @param binary    Whether to pack the samples into an ArrayBuffer rather than an array.
+     * @return          The result, or null if nothing is buffered.
+     */
+    public synchronized PluginResult drain(boolean binary) {
+        if (count == 0) {
+            return null;
+        }
+        PluginResult result;
+        if (binary) {
+            ByteBuffer buffer = ByteBuffer.allocate(count * (dimensions + 1) * 8).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < count; i++) {
+                int slot = (head + i) % timestamps.length;
+                buffer.putDouble(timestamps[slot]);
+                for (int d = 0; d < dimensions; d++) {
+                    buffer.putDouble(values[slot * dimensions + d]);
+                }
+            }
+            result = new PluginResult(PluginResult.Status.OK, buffer.array());
+        } else {
+            JSONArray packed = new JSONArray();
+            try {
+                for (int i = 0; i < count; i++) {
+                    int slot = (head + i) % timestamps.length;
+                    packed.put(timestamps[slot]);
+                    for (int d = 0; d < dimensions; d++) {
+                        packed.put((double) values[slot * dimensions + d]);
+                    }
+                }
+            } catch (JSONException e) {
+                // Only thrown for NaN and infinities, which sensors do not report
+                e.printStackTrace();
+            }
+            result = new PluginResult(PluginResult.Status.OK, packed);
+        }
+        clear();
+        return result;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.cordova.api.CallbackContext;
+
+import android.annotation.TargetApi;
+import android.content.res.AssetFileDescriptor;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Plays short sound effects with low latency.  Clips are decoded once, when they are
+ * preloaded, and kept in a SoundPool, so playing them does not prepare a MediaPlayer.
+ * Media ids loading the same file share its decoded samples.
+ */
+public class SoundEffectPool {
+
+    private static final String LOG_TAG = "SoundEffectPool";
+    private static final int MAX_STREAMS = 8;
+
+    private final AudioHandler handler;
+    private SoundPool soundPool;
+
+    private final HashMap<String, Sample> samplesById = new HashMap<String, Sample>();
+    private final HashMap<String, Sample> samplesByFile = new HashMap<String, Sample>();
+    private final HashMap<Integer, Sample> samplesBySoundId = new HashMap<Integer, Sample>();
+
+    /**
+     * A decoded clip, and the ids using it.
+     */
+    private static class Sample {
+        final String file;
+        int soundId;
+        int refs;
+        boolean loaded;
+        long pendingPlay = -1;      // time play was requested before the clip was loaded
+        float pendingVolume;
+        final List<CallbackContext> loadCallbacks = new ArrayList<CallbackContext>();
+
+        Sample(String file) {
+            this.file = file;
+        }
+    }
+
+    public SoundEffectPool(AudioHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Decodes the clip and keeps it for the media id.  The callback is called once the
+     * clip can be played.
+     *
+     * @param id                The id of the media object
+     * @param file              The name of the audio file
+     * @param callbackContext   Called once the clip is loaded, or failed to
+     */
+    public synchronized void preload(String id, String file, CallbackContext callbackContext) {
+        Sample sample = samplesById.get(id);
+        if (sample != null && !sample.file.equals(file)) {
+            unload(id);
+            sample = null;
+        }
+        if (sample == null) {
+            sample = samplesByFile.get(file);
+            if (sample == null) {
+                sample = new Sample(file);
+                try {
+                    sample.soundId = load(file);
+                } catch (IOException e) {
+                    Log.d(LOG_TAG, "Unable to load " + file + ": " + e.getMessage());
+                    callbackContext.error("Unable to load " + file);
+                    return;
+                }
+                // Without load notifications before Froyo, treat the clip as loaded right away
+                sample.loaded = Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO;
+                samplesByFile.put(file, sample);
+                samplesBySoundId.put(sample.soundId, sample);
+            }
+            sample.refs++;
+            samplesById.put(id, sample);
+        }
+        if (sample.loaded) {
+            callbackContext.success();
+        } else {
+            sample.loadCallbacks.add(callbackContext);
+        }
+    }
+
+    /**
+     * Plays the clip preloaded for the media id.  If it is still loading it is played as
+     * soon as it is loaded.
+     *
+     * @param id                The id of the media object
+     * @param volume            Volume to play at, 0.0f - 1.0f
+     * @return                  False if no clip was preloaded for the id
+     */
+    public synchronized boolean play(String id, float volume) {
+        Sample sample = samplesById.get(id);
+        if (sample == null) {
+            return false;
+        }
+        long requested = SystemClock.elapsedRealtime();
+        if (sample.loaded) {
+            start(sample, volume, requested);
+        } else {
+            sample.pendingPlay = requested;
+            sample.pendingVolume = volume;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the media id's use of its clip, freeing the clip if nothing else uses it.
+     */
+    public synchronized boolean unload(String id) {
+        Sample sample = samplesById.remove(id);
+        if (sample == null) {
+            return false;
+        }
+        if (--sample.refs == 0) {
+            samplesByFile.remove(sample.file);
+            samplesBySoundId.remove(sample.soundId);
+            soundPool.unload(sample.soundId);
+            failLoadCallbacks(sample);
+        }
+        return true;
+    }
+
+    /**
+     * Frees every clip.
+     */
+    public synchronized void release() {
+        if (soundPool != null) {
+            soundPool.release();
+            soundPool = null;
+        }
+        for (Sample sample : samplesByFile.values()) {
+            failLoadCallbacks(sample);
+        }
+        samplesById.clear();
+        samplesByFile.clear();
+        samplesBySoundId.clear();
+    }
+
+    /**
+     * Answers the preloads still waiting for a clip that was freed before it loaded.
+     */
+    private void failLoadCallbacks(Sample sample) {
+        for (CallbackContext callbackContext : sample.loadCallbacks) {
+            callbackContext.error("Unloaded before " + sample.file + " was loaded");
+        }
+        sample.loadCallbacks.clear();
+    }
+
+    private void start(Sample sample, float volume, long requested) {
+        soundPool.play(sample.soundId, volume, volume, 1, 0, 1.0f);
+        handler.recordPlayLatency(true, SystemClock.elapsedRealtime() - requested);
+    }
+
+    private int load(String file) throws IOException {
+        if (soundPool == null) {
+            soundPool = new SoundPool(MAX_STREAMS, AudioManager.STREAM_MUSIC, 0);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.FROYO) {
+                listenForLoads();
+            }
+        }
+        int soundId;
+        if (file.startsWith("/android_asset/")) {
+            AssetFileDescriptor fd = handler.cordova.getActivity().getAssets().openFd(file.substring(15));
+            try {
+                // The SoundPool keeps its own duplicate of the descriptor
+                soundId = soundPool.load(fd, 1);
+            } finally {
+                fd.close();
+            }
+        } else {
+            soundId = soundPool.load(file, 1);
+        }
+        if (soundId == 0) {
+            throw new IOException("SoundPool could not load the file");
+        }
+        return soundId;
+    }
+
+    @TargetApi(Build.VERSION_CODES.FROYO)
+    private void listenForLoads() {
+        soundPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+            public void onLoadComplete(SoundPool pool, int soundId, int status) {
+                onLoaded(soundId, status == 0);
+            }
+        });
+    }
+
+    private synchronized void onLoaded(int soundId, boolean success) {
+        Sample sample = samplesBySoundId.get(soundId);
+        if (sample == null) {
+            return;
+        }
+        for (CallbackContext callbackContext : sample.loadCallbacks) {
+            if (success) {
+                callbackContext.success();
+            } else {
+                callbackContext.error("Unable to decode " + sample.file);
+            }
+        }
+        sample.loadCallbacks.clear();
+        if (!success) {
+            // Forget the clip, so that preloading it again retries
+            samplesByFile.remove(sample.file);
+            samplesBySoundId.remove(soundId);
+            samplesById.values().removeAll(Collections.singleton(sample));
+            soundPool.unload(soundId);
+            return;
+        }
+        sample.loaded = true;
+        if (sample.pendingPlay >= 0) {
+            start(sample, sample.pendingVolume, sample.pendingPlay);
+            sample.pendingPlay = -1;
+        }
+    }
+}
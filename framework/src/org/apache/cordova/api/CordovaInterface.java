@@ -23,6 +23,8 @@ import android.content.Intent;
 
 import java.util.concurrent.ExecutorService;
 
+import com.squareup.okhttp.OkHttpClient;
+
 /**
  * The Activity interface that is implemented by CordovaActivity.
  * It is used to isolate plugin development, and remove dependency on entire Cordova library.
@@ -67,4 +69,9 @@ public interface CordovaInterface {
      * Returns a shared thread pool that can be used for background tasks.
      */
     public ExecutorService getThreadPool();
+
+    /**
+     * Returns the HTTP client shared by the app, with its connection pool and response cache.
+     */
+    public OkHttpClient getHttpClient();
 }
@@ -31,6 +31,8 @@ import android.util.Log;
 
 import java.util.concurrent.ExecutorService;
 
+import com.squareup.okhttp.OkHttpClient;
+
 @Deprecated
 public class LegacyContext implements CordovaInterface {
     private static final String LOG_TAG = "Deprecation Notice";
@@ -151,4 +153,9 @@ public class LegacyContext implements CordovaInterface {
         Log.i(LOG_TAG, "Replace ctx.getThreadPool() with cordova.getThreadPool()");
         return this.cordova.getThreadPool();
     }
+
+    public OkHttpClient getHttpClient() {
+        Log.i(LOG_TAG, "Replace ctx.getHttpClient() with cordova.getHttpClient()");
+        return this.cordova.getHttpClient();
+    }
 }
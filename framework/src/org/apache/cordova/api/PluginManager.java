@@ -55,6 +55,9 @@ public class PluginManager {
     // This would allow how all URLs are handled to be offloaded to a plugin
     protected HashMap<String, String> urlMap = new HashMap<String, String>();
 
+    // The same prefixes, looked up in a single pass over the URL.  Rebuilt by addUrlFilter
+    private volatile UrlPrefixTrie<String> urlFilters = new UrlPrefixTrie<String>();
+
     /**
      * Constructor.
      *
@@ -122,7 +125,7 @@ public class PluginManager {
                 }
                 //What is this?
                 else if (strNode.equals("url-filter")) {
-                    this.urlMap.put(xml.getAttributeValue(null, "value"), service);
+                    this.addUrlFilter(xml.getAttributeValue(null, "value"), service);
                 }
                 else if (strNode.equals("feature")) {
                     //Check for supported feature sets  aka. plugins (Accelerometer, Geolocation, etc)
@@ -351,12 +354,9 @@ public class PluginManager {
      * @return                  Return false to allow the URL to load, return true to prevent the URL from loading.
      */
     public boolean onOverrideUrlLoading(String url) {
-        Iterator<Entry<String, String>> it = this.urlMap.entrySet().iterator();
-        while (it.hasNext()) {
-            HashMap.Entry<String, String> pairs = it.next();
-            if (url.startsWith(pairs.getKey())) {
-                return this.getPlugin(pairs.getValue()).onOverrideUrlLoading(url);
-            }
+        String service = this.findUrlFilter(url);
+        if (service != null) {
+            return this.getPlugin(service).onOverrideUrlLoading(url);
         }
         return false;
     }
@@ -370,16 +370,51 @@ public class PluginManager {
      * @return                  Return a WebResourceResponse with the resource, or null if the WebView should handle it.
      */
     public WebResourceResponse shouldInterceptRequest(String url) {
-        Iterator<Entry<String, String>> it = this.urlMap.entrySet().iterator();
-        while (it.hasNext()) {
-            HashMap.Entry<String, String> pairs = it.next();
-            if (url.startsWith(pairs.getKey())) {
-                return this.getPlugin(pairs.getValue()).shouldInterceptRequest(url);
-            }
+        String service = this.findUrlFilter(url);
+        if (service != null) {
+            return this.getPlugin(service).shouldInterceptRequest(url);
         }
         return null;
     }
 
+    /**
+     * Routes the URLs starting with the prefix to a plugin.  When prefixes overlap, the
+     * plugin with the longest one gets the URL.
+     *
+     * @param prefix            The start of the URLs, like foo: for a scheme.
+     * @param service           The name of the plugin.
+     */
+    public synchronized void addUrlFilter(String prefix, String service) {
+        this.urlMap.put(prefix, service);
+        UrlPrefixTrie<String> urlFilters = new UrlPrefixTrie<String>();
+        for (Entry<String, String> pairs : this.urlMap.entrySet()) {
+            urlFilters.put(pairs.getKey(), pairs.getValue());
+        }
+        this.urlFilters = urlFilters;
+    }
+
+    /**
+     * Returns the plugin with the longest prefix of the URL, or null if none matches.
+     */
+    private String findUrlFilter(String url) {
+        HashMap<String, String> urlMap = this.urlMap;
+        UrlPrefixTrie<String> urlFilters = this.urlFilters;
+        if (urlFilters.size() == urlMap.size()) {
+            return urlFilters.match(url);
+        }
+        // A subclass changed the map without addUrlFilter, so scan it
+        String service = null;
+        int length = -1;
+        for (Entry<String, String> pairs : urlMap.entrySet()) {
+            String prefix = pairs.getKey();
+            if (prefix.length() > length && url.startsWith(prefix)) {
+                service = pairs.getValue();
+                length = prefix.length();
+            }
+        }
+        return service;
+    }
+
     /**
      * Called when the app navigates or refreshes.
      */
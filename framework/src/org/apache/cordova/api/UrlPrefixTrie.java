@@ -0,0 +1,114 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.api;
+
+/**
+ * Maps URL prefixes to values.  Looking up a URL walks it once, character by character, so
+ * its cost depends on the length of the matching prefix rather than on the number of
+ * prefixes.  When several prefixes match, the longest one wins.
+ *
+ * It is not synchronized: fill it before handing it to the threads that look URLs up.
+ */
+public class UrlPrefixTrie<V> {
+
+    private final Node<V> root = new Node<V>();
+    private int size;
+
+    /**
+     * A character of one or more prefixes.  Children are kept in small parallel arrays,
+     * since most nodes of a URL prefix have a single child.
+     */
+    private static class Node<V> {
+        char[] labels = new char[0];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node<V>[] children = new Node[0];
+        V value;
+        boolean hasValue;
+
+        Node<V> child(char c) {
+            char[] labels = this.labels;
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == c) {
+                    return this.children[i];
+                }
+            }
+            return null;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node<V> addChild(char c) {
+            int n = this.labels.length;
+            char[] labels = new char[n + 1];
+            Node<V>[] children = new Node[n + 1];
+            System.arraycopy(this.labels, 0, labels, 0, n);
+            System.arraycopy(this.children, 0, children, 0, n);
+            labels[n] = c;
+            children[n] = new Node<V>();
+            this.labels = labels;
+            this.children = children;
+            return children[n];
+        }
+    }
+
+    /**
+     * Maps the prefix to the value, replacing any value it had.
+     */
+    public void put(String prefix, V value) {
+        Node<V> node = this.root;
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            Node<V> child = node.child(c);
+            node = child != null ? child : node.addChild(c);
+        }
+        if (!node.hasValue) {
+            this.size++;
+        }
+        node.value = value;
+        node.hasValue = true;
+    }
+
+    /**
+     * Returns the value of the longest prefix of the URL, or null if no prefix matches.
+     */
+    public V match(String url) {
+        Node<V> node = this.root;
+        V match = node.hasValue ? node.value : null;
+        for (int i = 0; i < url.length(); i++) {
+            node = node.child(url.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.hasValue) {
+                match = node.value;
+            }
+        }
+        return match;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Returns the number of prefixes.
+     */
+    public int size() {
+        return this.size;
+    }
+}